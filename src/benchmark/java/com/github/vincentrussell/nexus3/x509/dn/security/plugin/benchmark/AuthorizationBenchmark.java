@@ -0,0 +1,70 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.benchmark;
+
+import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.subject.PrincipalCollection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The realm's authorization path on Shiro cache hits, and on misses for mapped and unmapped DNs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AuthorizationBenchmark {
+
+    private static final int CLIENTS = 1000;
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private ExposedRealm realm;
+    private PrincipalCollection[] mapped;
+    private PrincipalCollection[] unmapped;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        File configFile = SyntheticIdentities.writeMappingFile(size);
+        realm = ExposedRealm.create(configFile);
+        mapped = new PrincipalCollection[CLIENTS];
+        unmapped = new PrincipalCollection[CLIENTS];
+        for (int i = 0; i < CLIENTS; i++) {
+            mapped[i] = ExposedRealm.principals(SyntheticIdentities.dn(i * (size / CLIENTS)));
+            unmapped[i] = ExposedRealm.principals(SyntheticIdentities.unmappedDn(i));
+            realm.authorize(mapped[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        realm.destroy();
+    }
+
+    @Benchmark
+    public AuthorizationInfo cacheHit() {
+        return realm.authorize(mapped[ThreadLocalRandom.current().nextInt(CLIENTS)]);
+    }
+
+    @Benchmark
+    public AuthorizationInfo cacheMissMapped() {
+        return realm.authorizeUncached(mapped[ThreadLocalRandom.current().nextInt(CLIENTS)]);
+    }
+
+    @Benchmark
+    public AuthorizationInfo cacheMissUnmapped() {
+        return realm.authorizeUncached(unmapped[ThreadLocalRandom.current().nextInt(CLIENTS)]);
+    }
+}
@@ -0,0 +1,45 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.TreeSet;
+
+/**
+ * Runs the benchmarks with 1, N/2 and N threads (N being the number of processors) and the GC profiler,
+ * so allocation rates are reported next to the timings.
+ * <p>
+ * {@code mvn -P benchmark test-compile exec:exec@jmh} runs everything; add {@code -Dbenchmark.include=<regex>}
+ * to run a subset.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String include = System.getProperty("benchmark.include", BenchmarkRunner.class.getPackage().getName());
+        int processors = Runtime.getRuntime().availableProcessors();
+        TreeSet<Integer> threadCounts = new TreeSet<>();
+        threadCounts.add(1);
+        threadCounts.add(Math.max(1, processors / 2));
+        threadCounts.add(processors);
+        for (int threads : threadCounts) {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .forks(1)
+                    .warmupIterations(3)
+                    .warmupTime(TimeValue.seconds(2))
+                    .measurementIterations(5)
+                    .measurementTime(TimeValue.seconds(2))
+                    .addProfiler(GCProfiler.class)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
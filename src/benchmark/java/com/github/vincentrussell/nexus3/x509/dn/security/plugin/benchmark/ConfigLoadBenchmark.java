@@ -0,0 +1,40 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.benchmark;
+
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.DnRoleMapping;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.DnRoleMappingLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and compiling mapping files of different sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ConfigLoadBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private DnRoleMappingLoader loader;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        loader = new DnRoleMappingLoader(SyntheticIdentities.writeMappingFile(size));
+    }
+
+    @Benchmark
+    public DnRoleMapping load() {
+        return loader.load(1);
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.benchmark;
+
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.X509DnAuthenticatingRealm;
+import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.cache.MapCache;
+import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives benchmarks access to the realm's protected authorization methods.
+ */
+class ExposedRealm extends X509DnAuthenticatingRealm {
+
+    /**
+     * The realm reads its configuration from system properties, which are cleared again once it is built; call
+     * {@link #destroy()} when done with it.
+     */
+    static ExposedRealm create(File configFile) {
+        System.setProperty(CONFIG_FILE, configFile.getAbsolutePath());
+        System.setProperty(WATCH_ENABLED, "false");
+        ExposedRealm realm;
+        try {
+            realm = new ExposedRealm();
+        } finally {
+            System.clearProperty(CONFIG_FILE);
+            System.clearProperty(WATCH_ENABLED);
+        }
+        realm.setAuthorizationCache(new MapCache<Object, AuthorizationInfo>("benchmark",
+                new ConcurrentHashMap<Object, AuthorizationInfo>()));
+        return realm;
+    }
+
+    static PrincipalCollection principals(String dn) {
+        return new SimplePrincipalCollection(dn, NAME);
+    }
+
+    AuthorizationInfo authorize(PrincipalCollection principals) {
+        return getAuthorizationInfo(principals);
+    }
+
+    AuthorizationInfo authorizeUncached(PrincipalCollection principals) {
+        return doGetAuthorizationInfo(principals);
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.benchmark;
+
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.servlet.ExtendedX509AuthenticationFilter;
+import com.google.common.collect.Lists;
+import org.apache.shiro.mgt.DefaultSecurityManager;
+import org.apache.shiro.mgt.RealmSecurityManager;
+import org.apache.shiro.realm.Realm;
+import org.apache.shiro.util.ThreadContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.io.IOException;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * The whole {@link ExtendedX509AuthenticationFilter} path, from reading the certificate chain through the
+ * Shiro login, with and without the TLS session login cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FilterBenchmark {
+
+    private static final int CLIENTS = 100;
+    private static final FilterChain NO_OP_CHAIN = new FilterChain() {
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response) {
+        }
+    };
+
+    @State(Scope.Benchmark)
+    public static class Filter {
+        @Param({"false", "true"})
+        public boolean sessionCache;
+
+        ExposedRealm realm;
+        ExtendedX509AuthenticationFilter filter;
+        X509Certificate[][] chains;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            realm = ExposedRealm.create(SyntheticIdentities.writeMappingFile(10000));
+            RealmSecurityManager realmSecurityManager = mock(RealmSecurityManager.class);
+            when(realmSecurityManager.getRealms()).thenReturn(Lists.<Realm>newArrayList(realm));
+            filter = new ExtendedX509AuthenticationFilter(realmSecurityManager);
+            filter.setSessionCacheEnabled(sessionCache);
+            chains = new X509Certificate[CLIENTS][];
+            for (int i = 0; i < CLIENTS; i++) {
+                chains[i] = SyntheticIdentities.certificateChain(SyntheticIdentities.dn(i * 100));
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            realm.destroy();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        @Setup(Level.Trial)
+        public void bindSecurityManager(Filter state) {
+            ThreadContext.bind(new DefaultSecurityManager(state.realm));
+        }
+
+        @TearDown(Level.Trial)
+        public void unbindSecurityManager() {
+            ThreadContext.unbindSecurityManager();
+        }
+    }
+
+    @Benchmark
+    public MockHttpServletResponse filterRequest(Filter state, Client client) throws ServletException, IOException {
+        int index = ThreadLocalRandom.current().nextInt(CLIENTS);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAttribute("javax.servlet.request.X509Certificate", state.chains[index]);
+        request.setAttribute("javax.servlet.request.ssl_session_id", "session-" + index);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        state.filter.doFilterInternal(request, response, NO_OP_CHAIN);
+        ThreadContext.unbindSubject();
+        return response;
+    }
+}
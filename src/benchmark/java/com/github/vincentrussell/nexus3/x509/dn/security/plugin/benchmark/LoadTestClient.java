@@ -0,0 +1,178 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.benchmark;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+
+/**
+ * One simulated client with its own certificate and TLS session cache, speaking just enough HTTP/1.1
+ * over an {@link SSLSocket} to send keep-alive GETs, so full handshakes, resumed handshakes and requests
+ * on an already open connection can be told apart.
+ */
+class LoadTestClient implements Runnable {
+
+    private static final char[] KEY_PASSWORD = "password".toCharArray();
+    private static final byte[] REQUEST = ("GET /ping HTTP/1.1\r\nHost: localhost\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LAST_REQUEST = ("GET /ping HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private final SSLContext sslContext;
+    private final String host;
+    private final int port;
+    private final String protocol;
+    private final int requestsPerConnection;
+    private final long deadlineNanos;
+
+    private long[] latencies = new long[1024];
+    private int requests;
+    private int errors;
+    private int fullHandshakes;
+    private int resumedHandshakes;
+    private byte[] lastSessionId;
+
+    LoadTestClient(X509Certificate[] certificateChain, KeyStore trustStore, String host, int port, String protocol,
+                   int requestsPerConnection, long deadlineNanos) throws GeneralSecurityException, IOException {
+        this.sslContext = newSslContext(certificateChain, trustStore);
+        this.host = host;
+        this.port = port;
+        this.protocol = protocol;
+        this.requestsPerConnection = requestsPerConnection;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    @Override
+    public void run() {
+        while (System.nanoTime() < deadlineNanos) {
+            try (SSLSocket socket = (SSLSocket) sslContext.getSocketFactory().createSocket(host, port)) {
+                socket.setEnabledProtocols(new String[]{protocol});
+                socket.setTcpNoDelay(true);
+                socket.addHandshakeCompletedListener(new HandshakeCompletedListener() {
+                    @Override
+                    public void handshakeCompleted(HandshakeCompletedEvent event) {
+                        recordHandshake(event.getSession().getId());
+                    }
+                });
+                OutputStream out = socket.getOutputStream();
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                for (int i = 0; i < requestsPerConnection && System.nanoTime() < deadlineNanos; i++) {
+                    boolean last = i == requestsPerConnection - 1;
+                    long start = System.nanoTime();
+                    out.write(last ? LAST_REQUEST : REQUEST);
+                    out.flush();
+                    int status = readResponse(in);
+                    record(System.nanoTime() - start, status);
+                    if (status == -1) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                errors++;
+            }
+        }
+    }
+
+    private synchronized void recordHandshake(byte[] sessionId) {
+        if (lastSessionId != null && Arrays.equals(lastSessionId, sessionId)) {
+            resumedHandshakes++;
+        } else {
+            fullHandshakes++;
+        }
+        lastSessionId = sessionId;
+    }
+
+    private void record(long latencyNanos, int status) {
+        if (status != 200) {
+            errors++;
+            return;
+        }
+        if (requests == latencies.length) {
+            latencies = Arrays.copyOf(latencies, requests * 2);
+        }
+        latencies[requests++] = latencyNanos;
+    }
+
+    /**
+     * @return the status code, or -1 if the connection was closed before a full response was read.
+     */
+    private static int readResponse(InputStream in) throws IOException {
+        String statusLine = readLine(in);
+        if (statusLine == null) {
+            return -1;
+        }
+        int contentLength = 0;
+        String header;
+        while ((header = readLine(in)) != null && !header.isEmpty()) {
+            if (header.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                contentLength = Integer.parseInt(header.substring(15).trim());
+            }
+        }
+        for (int i = 0; i < contentLength; i++) {
+            if (in.read() == -1) {
+                return -1;
+            }
+        }
+        return Integer.parseInt(statusLine.substring(9, 12));
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    private static SSLContext newSslContext(X509Certificate[] certificateChain, KeyStore trustStore)
+            throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        keyStore.setKeyEntry("client", SyntheticIdentities.getClientKeyPair().getPrivate(), KEY_PASSWORD,
+                (Certificate[]) certificateChain);
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, KEY_PASSWORD);
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(trustStore);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), trustManagerFactory.getTrustManagers(), null);
+        return sslContext;
+    }
+
+    long[] getLatencies() {
+        return Arrays.copyOf(latencies, requests);
+    }
+
+    int getRequests() {
+        return requests;
+    }
+
+    int getErrors() {
+        return errors;
+    }
+
+    synchronized int getFullHandshakes() {
+        return fullHandshakes;
+    }
+
+    synchronized int getResumedHandshakes() {
+        return resumedHandshakes;
+    }
+}
@@ -0,0 +1,255 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.benchmark;
+
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.servlet.ExtendedX509AuthenticationFilter;
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.mgt.DefaultSessionStorageEvaluator;
+import org.apache.shiro.mgt.DefaultSubjectDAO;
+import org.apache.shiro.util.ThreadContext;
+import org.apache.shiro.web.mgt.DefaultWebSecurityManager;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.xml.XmlConfiguration;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end throughput test over two-way SSL on one machine.
+ * <p>
+ * Starts an embedded Jetty configured from {@code config/jetty-ssl.xml} and {@code config/jetty-https.xml}
+ * with the keystore in {@code certs}, puts {@link ExtendedX509AuthenticationFilter} and the realm in front
+ * of a trivial servlet, and drives it with concurrent clients that each hold a distinct generated
+ * certificate. The synthetic CA that signs those certificates is added to the server's trust store.
+ * Reports requests per second, latency percentiles, and how many connections needed a full handshake,
+ * a resumed handshake, or none at all because the connection was kept alive.
+ * <p>
+ * {@code mvn -P benchmark test-compile exec:java@mutual-tls-load-test} with the options below as system
+ * properties:
+ * <ul>
+ * <li>{@code loadtest.clients} - concurrent clients, each with its own certificate (default 64)</li>
+ * <li>{@code loadtest.duration} - seconds to run (default 30)</li>
+ * <li>{@code loadtest.requestsPerConnection} - keep-alive requests before reconnecting (default 100)</li>
+ * <li>{@code loadtest.protocol} - TLS protocol the clients offer (default TLSv1.2)</li>
+ * <li>{@code loadtest.mappingSize} - DNs in the generated mapping file (default 10000)</li>
+ * </ul>
+ * The filter's own system properties, e.g. {@code ExtendedX509AuthenticationFilter.session.cache.enabled},
+ * apply as well.
+ */
+public final class MutualTlsLoadTest {
+
+    private static final String PASSWORD_RESOURCE = "/certs/password.txt";
+    private static final String KEYSTORE_RESOURCE = "/certs/keystore.jks";
+
+    private MutualTlsLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = Integer.getInteger("loadtest.clients", 64);
+        int durationSeconds = Integer.getInteger("loadtest.duration", 30);
+        int requestsPerConnection = Integer.getInteger("loadtest.requestsPerConnection", 100);
+        String protocol = System.getProperty("loadtest.protocol", "TLSv1.2");
+        int mappingSize = Math.max(clients, Integer.getInteger("loadtest.mappingSize", 10000));
+
+        char[] password = readPassword();
+        KeyStore keyStore = loadKeyStore(password);
+        KeyStore serverTrustStore = loadKeyStore(password);
+        serverTrustStore.setCertificateEntry("synthetic-ca", SyntheticIdentities.getCaCertificate());
+
+        ExposedRealm realm = ExposedRealm.create(SyntheticIdentities.writeMappingFile(mappingSize));
+        DefaultWebSecurityManager securityManager = new DefaultWebSecurityManager(realm);
+        ((DefaultSessionStorageEvaluator) ((DefaultSubjectDAO) securityManager.getSubjectDAO())
+                .getSessionStorageEvaluator()).setSessionStorageEnabled(false);
+        Server server = startServer(keyStore, serverTrustStore, password,
+                new ExtendedX509AuthenticationFilter(securityManager), securityManager);
+        int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+            List<LoadTestClient> loadTestClients = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                loadTestClients.add(new LoadTestClient(
+                        SyntheticIdentities.certificateChain(SyntheticIdentities.dn(i * (mappingSize / clients))),
+                        keyStore, "localhost", port, protocol, requestsPerConnection, deadline));
+            }
+            long start = System.nanoTime();
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < loadTestClients.size(); i++) {
+                Thread thread = new Thread(loadTestClients.get(i), "load-test-client-" + i);
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            report(loadTestClients, System.nanoTime() - start, clients, requestsPerConnection, protocol);
+        } finally {
+            server.stop();
+            realm.destroy();
+        }
+    }
+
+    private static Server startServer(KeyStore keyStore, KeyStore trustStore, char[] password,
+                                      ExtendedX509AuthenticationFilter filter,
+                                      final DefaultWebSecurityManager securityManager) throws Exception {
+        Server server = new Server();
+        XmlConfiguration sslConfiguration = new XmlConfiguration(MutualTlsLoadTest.class.getResource("/config/jetty-ssl.xml"));
+        sslConfiguration.getIdMap().put("httpConfig", new HttpConfiguration());
+        sslConfiguration.getProperties().put("jetty.keystore.password", new String(password));
+        sslConfiguration.getProperties().put("jetty.keymanager.password", new String(password));
+        sslConfiguration.getProperties().put("jetty.truststore.password", new String(password));
+        SslContextFactory sslContextFactory = (SslContextFactory) sslConfiguration.configure();
+        sslContextFactory.setKeyStore(keyStore);
+        sslContextFactory.setTrustStore(trustStore);
+
+        XmlConfiguration httpsConfiguration = new XmlConfiguration(MutualTlsLoadTest.class.getResource("/config/jetty-https.xml"));
+        httpsConfiguration.getIdMap().putAll(sslConfiguration.getIdMap());
+        httpsConfiguration.getIdMap().put("Server", server);
+        httpsConfiguration.getProperties().put("https.port", "0");
+        httpsConfiguration.getProperties().put("jetty.host", "localhost");
+        httpsConfiguration.configure(server);
+
+        ServletContextHandler context = new ServletContextHandler();
+        context.addFilter(new FilterHolder(new SecurityManagerBindingFilter(securityManager)), "/*",
+                EnumSet.of(DispatcherType.REQUEST));
+        context.addFilter(new FilterHolder(filter), "/*", EnumSet.of(DispatcherType.REQUEST));
+        context.addServlet(new ServletHolder(new PingServlet()), "/ping");
+        server.setHandler(context);
+        server.start();
+        return server;
+    }
+
+    private static void report(List<LoadTestClient> clients, long elapsedNanos, int clientCount,
+                               int requestsPerConnection, String protocol) {
+        long requests = 0;
+        long errors = 0;
+        long fullHandshakes = 0;
+        long resumedHandshakes = 0;
+        long[] latencies = new long[0];
+        for (LoadTestClient client : clients) {
+            requests += client.getRequests();
+            errors += client.getErrors();
+            fullHandshakes += client.getFullHandshakes();
+            resumedHandshakes += client.getResumedHandshakes();
+            long[] clientLatencies = client.getLatencies();
+            int offset = latencies.length;
+            latencies = Arrays.copyOf(latencies, offset + clientLatencies.length);
+            System.arraycopy(clientLatencies, 0, latencies, offset, clientLatencies.length);
+        }
+        Arrays.sort(latencies);
+        long connections = fullHandshakes + resumedHandshakes;
+        double seconds = elapsedNanos / 1e9;
+
+        System.out.printf(Locale.ROOT, "clients=%d protocol=%s requestsPerConnection=%d duration=%.1fs%n",
+                clientCount, protocol, requestsPerConnection, seconds);
+        System.out.printf(Locale.ROOT, "requests=%d errors=%d throughput=%.0f req/s%n",
+                requests, errors, requests / seconds);
+        System.out.printf(Locale.ROOT, "latency p50=%s p90=%s p99=%s p99.9=%s max=%s%n",
+                millis(latencies, 0.50), millis(latencies, 0.90), millis(latencies, 0.99), millis(latencies, 0.999),
+                millis(latencies, 1.0));
+        System.out.printf(Locale.ROOT, "connections=%d fullHandshakes=%d (%.1f%%) resumedHandshakes=%d (%.1f%%)"
+                        + " requestsOnReusedConnections=%.1f%%%n",
+                connections, fullHandshakes, percent(fullHandshakes, connections),
+                resumedHandshakes, percent(resumedHandshakes, connections),
+                percent(requests - connections, requests));
+    }
+
+    private static String millis(long[] sortedLatencies, double quantile) {
+        if (sortedLatencies.length == 0) {
+            return "n/a";
+        }
+        int index = Math.min(sortedLatencies.length - 1, (int) Math.ceil(quantile * sortedLatencies.length) - 1);
+        return String.format(Locale.ROOT, "%.3fms", sortedLatencies[Math.max(0, index)] / 1e6);
+    }
+
+    private static double percent(long part, long whole) {
+        return whole == 0 ? 0 : 100.0 * part / whole;
+    }
+
+    private static char[] readPassword() throws IOException {
+        try (InputStream inputStream = MutualTlsLoadTest.class.getResourceAsStream(PASSWORD_RESOURCE)) {
+            byte[] bytes = new byte[256];
+            int length = 0;
+            int read;
+            while ((read = inputStream.read(bytes, length, bytes.length - length)) > 0) {
+                length += read;
+            }
+            return new String(bytes, 0, length, StandardCharsets.UTF_8).trim().toCharArray();
+        }
+    }
+
+    private static KeyStore loadKeyStore(char[] password) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream inputStream = MutualTlsLoadTest.class.getResourceAsStream(KEYSTORE_RESOURCE)) {
+            keyStore.load(inputStream, password);
+        }
+        return keyStore;
+    }
+
+    /**
+     * Binds the security manager to the request thread, which Nexus's own Shiro filter does in production.
+     */
+    private static final class SecurityManagerBindingFilter implements Filter {
+        private final DefaultWebSecurityManager securityManager;
+
+        SecurityManagerBindingFilter(DefaultWebSecurityManager securityManager) {
+            this.securityManager = securityManager;
+        }
+
+        @Override
+        public void init(FilterConfig filterConfig) {
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+                throws IOException, ServletException {
+            ThreadContext.bind(securityManager);
+            try {
+                chain.doFilter(request, response);
+            } finally {
+                ThreadContext.remove();
+            }
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+
+    private static final class PingServlet extends HttpServlet {
+        private static final byte[] OK = "ok\n".getBytes(StandardCharsets.US_ASCII);
+
+        @Override
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            if (!SecurityUtils.getSubject().isAuthenticated()) {
+                response.sendError(HttpServletResponse.SC_FORBIDDEN);
+                return;
+            }
+            response.setContentType("text/plain");
+            response.setContentLength(OK.length);
+            response.getOutputStream().write(OK);
+        }
+    }
+}
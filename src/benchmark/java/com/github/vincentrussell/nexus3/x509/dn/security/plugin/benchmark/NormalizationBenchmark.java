@@ -0,0 +1,49 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.benchmark;
+
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.DnNormalizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DN normalization through the memo versus parsing an X500Principal every time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NormalizationBenchmark {
+
+    private static final int IDENTITIES = 500;
+
+    private String[] dns;
+    private int next;
+
+    @Setup
+    public void setup() {
+        dns = new String[IDENTITIES];
+        for (int i = 0; i < IDENTITIES; i++) {
+            dns[i] = SyntheticIdentities.dn(i);
+        }
+    }
+
+    @Benchmark
+    public String normalizeMemoized() {
+        return DnNormalizer.getInstance().normalize(nextDn());
+    }
+
+    @Benchmark
+    public String canonicalizeUncached() {
+        return DnNormalizer.canonicalize(nextDn());
+    }
+
+    private String nextDn() {
+        next = (next + 1) % IDENTITIES;
+        return dns[next];
+    }
+}
@@ -0,0 +1,120 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.benchmark;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates DNs, mapping files and client certificates for benchmarks and load tests.
+ */
+public final class SyntheticIdentities {
+
+    public static final String CA_DN = "CN=Synthetic CA, OU=Build, O=Corp, C=US";
+
+    private static final AtomicLong SERIALS = new AtomicLong(System.currentTimeMillis());
+    private static final KeyPair CA_KEY_PAIR = newKeyPair();
+    private static final KeyPair CLIENT_KEY_PAIR = newKeyPair();
+    private static final X509Certificate CA_CERTIFICATE = sign(CA_DN, CA_KEY_PAIR);
+
+    private SyntheticIdentities() {
+    }
+
+    /**
+     * @return a DN in the loosely formatted style people write in mapping files.
+     */
+    public static String dn(int index) {
+        return "CN=agent-" + index + ", OU=Build, O=Corp, L=Anywhere, ST=CA, C=US";
+    }
+
+    public static String unmappedDn(int index) {
+        return "CN=scanner-" + index + ", OU=Elsewhere, O=Other, C=US";
+    }
+
+    /**
+     * Writes a mapping file in which every identity has nx-readonly, every tenth nx-deploy and every
+     * hundredth nx-admin.
+     */
+    public static File writeMappingFile(int size) throws IOException {
+        File file = File.createTempFile("x509-dn-mapping-" + size + "-", ".yaml");
+        file.deleteOnExit();
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writeRole(writer, "nx-readonly", size, 1);
+            writeRole(writer, "nx-deploy", size, 10);
+            writeRole(writer, "nx-admin", size, 100);
+        }
+        return file;
+    }
+
+    private static void writeRole(Writer writer, String role, int size, int every) throws IOException {
+        writer.write(role + ":\n");
+        for (int i = 0; i < size; i += every) {
+            writer.write("    - " + dn(i) + "\n");
+        }
+    }
+
+    public static KeyPair getClientKeyPair() {
+        return CLIENT_KEY_PAIR;
+    }
+
+    public static X509Certificate getCaCertificate() {
+        return CA_CERTIFICATE;
+    }
+
+    /**
+     * @return a chain of a client certificate for the DN, signed by the synthetic CA, and the CA itself.
+     */
+    public static X509Certificate[] certificateChain(String dn) {
+        return new X509Certificate[]{issue(dn, CLIENT_KEY_PAIR), CA_CERTIFICATE};
+    }
+
+    private static X509Certificate issue(String dn, KeyPair subjectKeyPair) {
+        return build(CA_DN, dn, subjectKeyPair, CA_KEY_PAIR);
+    }
+
+    private static X509Certificate sign(String dn, KeyPair keyPair) {
+        return build(dn, dn, keyPair, keyPair);
+    }
+
+    private static X509Certificate build(String issuerDn, String subjectDn, KeyPair subjectKeyPair, KeyPair issuerKeyPair) {
+        long now = System.currentTimeMillis();
+        try {
+            return new JcaX509CertificateConverter().getCertificate(new JcaX509v3CertificateBuilder(
+                    new X500Name(issuerDn),
+                    BigInteger.valueOf(SERIALS.incrementAndGet()),
+                    new Date(now - TimeUnit.DAYS.toMillis(1)),
+                    new Date(now + TimeUnit.DAYS.toMillis(365)),
+                    new X500Name(subjectDn),
+                    subjectKeyPair.getPublic())
+                    .build(new JcaContentSignerBuilder("SHA256withRSA").build(issuerKeyPair.getPrivate())));
+        } catch (GeneralSecurityException | OperatorCreationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static KeyPair newKeyPair() {
+        try {
+            KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+            keyPairGenerator.initialize(2048);
+            return keyPairGenerator.generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin;
+
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.DnRoleMapping;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.cache.Cache;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Fills the realm's authorization cache with the roles of every exactly mapped DN, so that the clients
+ * reconnecting after a restart or failover hit the cache instead of all computing their roles at once.
+ * <p>
+ * The DNs are warmed in batches on a small, bounded pool of daemon threads. Between batches the rate of
+ * authorization requests from real traffic is sampled, and warm-up stops as soon as it exceeds the load
+ * threshold, leaving the remaining DNs to be computed on demand as usual. Warm-up also stops when a newer
+ * mapping is published.
+ */
+class AuthorizationCacheWarmer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AuthorizationCacheWarmer.class);
+
+    static final String ENABLED = X509DnAuthenticatingRealm.class.getSimpleName() + ".prewarm.enabled";
+    static final String THREADS = X509DnAuthenticatingRealm.class.getSimpleName() + ".prewarm.threads";
+    static final String LOAD_THRESHOLD = X509DnAuthenticatingRealm.class.getSimpleName() + ".prewarm.load.threshold";
+    static final int DEFAULT_THREADS = 2;
+    static final long DEFAULT_LOAD_THRESHOLD = 100;
+
+    private static final int BATCH_SIZE = 500;
+    private static final long LOAD_SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private final X509DnAuthenticatingRealm realm;
+    private final int threads;
+    private final long loadThreshold;
+    private final LongSupplier authorizationRequests;
+    private final AtomicInteger warmed = new AtomicInteger();
+    private volatile int total;
+    private volatile long durationMillis;
+    private volatile boolean running;
+    private volatile boolean stopped;
+
+    /**
+     * @param loadThreshold         authorization requests per second from traffic above which warm-up stops.
+     * @param authorizationRequests the number of authorization requests served so far.
+     */
+    AuthorizationCacheWarmer(X509DnAuthenticatingRealm realm, int threads, long loadThreshold,
+                             LongSupplier authorizationRequests) {
+        this.realm = realm;
+        this.threads = Math.max(1, threads);
+        this.loadThreshold = loadThreshold;
+        this.authorizationRequests = authorizationRequests;
+    }
+
+    /**
+     * Warms the cache on a background thread; does nothing if a warm-up is already running.
+     */
+    synchronized void start(final DnRoleMapping mapping, final Cache<Object, AuthorizationInfo> cache) {
+        if (running) {
+            return;
+        }
+        running = true;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                warm(mapping, cache);
+            }
+        }, "x509-dn-prewarm");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        stopped = true;
+    }
+
+    /**
+     * @return the number of DNs warmed.
+     */
+    int warm(DnRoleMapping mapping, final Cache<Object, AuthorizationInfo> cache) {
+        running = true;
+        long start = System.nanoTime();
+        List<String> dns = ImmutableList.copyOf(mapping.getDns());
+        total = dns.size();
+        warmed.set(0);
+        LOGGER.info("pre-warming the authorization cache with {} DNs of version {} of the mapping",
+                total, mapping.getVersion());
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "x509-dn-prewarm-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        String stopReason = null;
+        try {
+            long lastRequests = authorizationRequests.getAsLong();
+            long lastSample = System.nanoTime();
+            int nextProgress = 10;
+            for (final List<String> batch : Iterables.partition(dns, BATCH_SIZE)) {
+                if (stopped) {
+                    stopReason = "stopped";
+                    break;
+                }
+                if (realm.getMapping() != mapping) {
+                    stopReason = "a newer mapping was published";
+                    break;
+                }
+                long now = System.nanoTime();
+                if (now - lastSample >= LOAD_SAMPLE_NANOS) {
+                    long requests = authorizationRequests.getAsLong();
+                    long rate = (requests - lastRequests) * TimeUnit.SECONDS.toNanos(1) / (now - lastSample);
+                    lastRequests = requests;
+                    lastSample = now;
+                    if (rate > loadThreshold) {
+                        stopReason = "serving " + rate + " authorization requests per second";
+                        break;
+                    }
+                }
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        warmBatch(mapping, batch, cache);
+                    }
+                });
+                int progress = total == 0 ? 100 : (int) (100L * warmed.get() / total);
+                if (progress >= nextProgress) {
+                    LOGGER.info("pre-warmed {} of {} DNs ({}%)", warmed.get(), total, progress);
+                    nextProgress = progress / 10 * 10 + 10;
+                }
+            }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            workers.shutdownNow();
+            stopReason = "interrupted";
+        } finally {
+            durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            running = false;
+        }
+        if (stopReason == null) {
+            LOGGER.info("pre-warmed {} DNs in {} ms", warmed.get(), durationMillis);
+        } else {
+            LOGGER.info("stopped pre-warming after {} of {} DNs in {} ms: {}", warmed.get(), total, durationMillis,
+                    stopReason);
+        }
+        return warmed.get();
+    }
+
+    private void warmBatch(DnRoleMapping mapping, List<String> batch, Cache<Object, AuthorizationInfo> cache) {
+        String realmName = realm.getName();
+        for (String dn : batch) {
+            if (stopped) {
+                return;
+            }
+            SimplePrincipalCollection principals = new SimplePrincipalCollection(dn, realmName);
+            if (cache.get(principals) == null) {
+                AuthorizationInfo authorizationInfo = realm.computeAuthorizationInfo(mapping, dn);
+                if (authorizationInfo != null) {
+                    cache.put(principals, authorizationInfo);
+                    if (realm.getMapping() != mapping) {
+                        cache.remove(principals);
+                        return;
+                    }
+                }
+            }
+            warmed.incrementAndGet();
+        }
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    int getWarmed() {
+        return warmed.get();
+    }
+
+    int getTotal() {
+        return total;
+    }
+
+    long getDurationMillis() {
+        return durationMillis;
+    }
+}
@@ -1,34 +1,59 @@
 package com.github.vincentrussell.nexus3.x509.dn.security.plugin;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
+import com.codahale.metrics.Gauge;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.api.ExtendedX509AuthenticationToken;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.audit.AuditLog;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.DnNormalizer;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.DnRoleMapping;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.DnRoleMappingLoader;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.IndexedFileMappingBackend;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.MappingBackend;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.MappingDiff;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.MappingListener;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.MappingReloader;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.MappingSnapshotStore;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.MappingUpdate;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.SharedDirectoryMappingBackend;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.SharedMappingVersion;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.metrics.X509DnMetrics;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.revocation.CrlRevocationChecker;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.trust.ChainIssuers;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.trust.ChainValidation;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.trust.ChainValidator;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.trust.TrustConfig;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.util.FileWatcher;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.util.TunableCache;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
+import org.apache.shiro.authc.AuthenticationException;
+import org.apache.shiro.authc.AuthenticationInfo;
+import org.apache.shiro.authc.AuthenticationToken;
 import org.apache.shiro.authc.x509.X509AuthenticationInfo;
 import org.apache.shiro.authc.x509.X509AuthenticationToken;
-import org.apache.shiro.authz.AuthorizationException;
 import org.apache.shiro.authz.AuthorizationInfo;
 import org.apache.shiro.authz.SimpleAuthorizationInfo;
+import org.apache.shiro.cache.Cache;
 import org.apache.shiro.realm.x509.AbstractX509Realm;
 import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.util.Destroyable;
 import org.eclipse.sisu.Description;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonatype.nexus.security.anonymous.AnonymousPrincipalCollection;
-import org.yaml.snakeyaml.Yaml;
 
 import javax.inject.Named;
 import javax.inject.Singleton;
-import javax.security.auth.x500.X500Principal;
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
-import java.util.*;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
 
 /**
  * The Class X509DnAuthenticatingRealm.
@@ -36,28 +61,32 @@ import java.util.concurrent.TimeUnit;
 @Singleton
 @Named(X509DnAuthenticatingRealm.NAME)
 @Description("X509-Dn Authenticating Realm")
-public class X509DnAuthenticatingRealm extends AbstractX509Realm {
+public class X509DnAuthenticatingRealm extends AbstractX509Realm implements Destroyable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(X509DnAuthenticatingRealm.class);
 
-    private static String ALL_RESULTS = "ALL_RESULTS";
-
     public static final X509Certificate DEFAULT_ANONYMOUS_CERT = getDefaultAnonymousCert();
     protected static final String NAME = "X509DnAuthenticatingRealm";
     protected static final String CONFIG_FILE = X509DnAuthenticatingRealm.class.getSimpleName() + ".config.file";
+    protected static final String RELOAD_INTERVAL = X509DnAuthenticatingRealm.class.getSimpleName() + ".config.reload.interval";
+    public static final String WATCH_ENABLED = X509DnAuthenticatingRealm.class.getSimpleName() + ".config.watch";
+    protected static final String SNAPSHOT_ENABLED = X509DnAuthenticatingRealm.class.getSimpleName() + ".snapshot.enabled";
+    protected static final String REVOCATION_CRL_FILES = X509DnAuthenticatingRealm.class.getSimpleName() + ".revocation.crl.files";
+    protected static final String REVOCATION_BLOOM_ENABLED = X509DnAuthenticatingRealm.class.getSimpleName() + ".revocation.bloom.enabled";
+    protected static final String TRUST_CONFIG_FILE = X509DnAuthenticatingRealm.class.getSimpleName() + ".trust.config.file";
+    protected static final String MAPPING_BACKEND = X509DnAuthenticatingRealm.class.getSimpleName() + ".mapping.backend";
+    protected static final String INDEX_FILE = X509DnAuthenticatingRealm.class.getSimpleName() + ".mapping.index.file";
+    protected static final String INDEX_CACHE_SIZE = X509DnAuthenticatingRealm.class.getSimpleName() + ".mapping.index.cache.size";
+    protected static final String SHARED_DIR = X509DnAuthenticatingRealm.class.getSimpleName() + ".mapping.shared.dir";
+    protected static final String SHARED_SWITCH_DELAY = X509DnAuthenticatingRealm.class.getSimpleName() + ".mapping.shared.switch.delay";
+    protected static final String SHARED_RETAINED_VERSIONS = X509DnAuthenticatingRealm.class.getSimpleName() + ".mapping.shared.retained";
     public static final SimpleAuthorizationInfo ANONYMOUS_AUTHORIZATION_INFO = new SimpleAuthorizationInfo(Sets.newHashSet("nx-anonymous"));
 
-    private LoadingCache<String, LoadingCacheResult> certInfoAche = CacheBuilder.newBuilder()
-            .maximumSize(1)
-            .expireAfterWrite(5, TimeUnit.MINUTES)
-            .build(
-                    new CacheLoader<String, LoadingCacheResult>() {
-                        @Override
-                        public LoadingCacheResult load(String id) throws Exception {
-                            return new LoadingCacheResult();
-                        }
-                    }
-            );
+    private final MappingReloader mappingReloader;
+    private final AuditLog auditLog = AuditLog.fromSystemProperties();
+    private final CrlRevocationChecker revocationChecker;
+    private final ChainValidator chainValidator;
+    private final AuthorizationCacheWarmer cacheWarmer;
 
     private static X509Certificate getDefaultAnonymousCert() {
         try (InputStream inputStream = X509DnAuthenticatingRealm.class.getResourceAsStream("/certs/anonymous/anonymous.cer")) {
@@ -74,81 +103,466 @@ public class X509DnAuthenticatingRealm extends AbstractX509Realm {
         setAuthenticationTokenClass(X509AuthenticationToken.class);
         setName(NAME);
         setAuthenticationCachingEnabled(true);
-        verifyConfigFile();
+        File configFile = getConfigFile();
+        mappingReloader = new MappingReloader(createMappingBackend(configFile),
+                Long.getLong(RELOAD_INTERVAL, MappingReloader.DEFAULT_POLL_INTERVAL_SECONDS),
+                Boolean.parseBoolean(System.getProperty(WATCH_ENABLED, "true")));
+        mappingReloader.addListener(new MappingListener() {
+            @Override
+            public void mappingChanged(DnRoleMapping previous, DnRoleMapping current, MappingDiff diff) {
+                evictAffectedAuthorizationInfo(diff);
+            }
+        });
+        X509DnMetrics.get().registerMapping(mappingReloader);
+        if (mappingReloader.getBackend() instanceof SharedDirectoryMappingBackend) {
+            X509DnMetrics.get().replace(X509DnMetrics.name("mapping", "shared", "version"), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    SharedMappingVersion sharedVersion = getSharedMappingVersion();
+                    return sharedVersion != null ? sharedVersion.getVersion() : -1L;
+                }
+            });
+        }
+        mappingReloader.start();
+        String trustConfigFile = System.getProperty(TRUST_CONFIG_FILE);
+        chainValidator = trustConfigFile != null ? new ChainValidator(TrustConfig.load(new File(trustConfigFile))) : null;
+        revocationChecker = createRevocationChecker(chainValidator);
+        if (revocationChecker != null) {
+            revocationChecker.start();
+        }
+        cacheWarmer = Boolean.getBoolean(AuthorizationCacheWarmer.ENABLED) ? createCacheWarmer() : null;
+    }
+
+    private AuthorizationCacheWarmer createCacheWarmer() {
+        final AuthorizationCacheWarmer warmer = new AuthorizationCacheWarmer(this,
+                Integer.getInteger(AuthorizationCacheWarmer.THREADS, AuthorizationCacheWarmer.DEFAULT_THREADS),
+                Long.getLong(AuthorizationCacheWarmer.LOAD_THRESHOLD, AuthorizationCacheWarmer.DEFAULT_LOAD_THRESHOLD),
+                new LongSupplier() {
+                    @Override
+                    public long getAsLong() {
+                        return X509DnMetrics.get().getAuthorizationRequestCount();
+                    }
+                });
+        X509DnMetrics.get().replace(X509DnMetrics.name("authorization", "prewarm", "warmed"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return warmer.getWarmed();
+            }
+        });
+        X509DnMetrics.get().replace(X509DnMetrics.name("authorization", "prewarm", "duration-millis"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return warmer.getDurationMillis();
+            }
+        });
+        return warmer;
+    }
+
+    /**
+     * The authorization cache only exists once Nexus has set the cache manager, so this is where an
+     * enabled warm-up starts.
+     */
+    @Override
+    protected void afterCacheManagerSet() {
+        super.afterCacheManagerSet();
+        prewarmAuthorizationCache();
+    }
+
+    /**
+     * Starts warming the authorization cache with the current mapping in the background, if warm-up is
+     * enabled. Skipped when roles are pinned to issuers, since those depend on the chain a client presents.
+     */
+    void prewarmAuthorizationCache() {
+        Cache<Object, AuthorizationInfo> authorizationCache = getAuthorizationCache();
+        if (cacheWarmer == null || authorizationCache == null) {
+            return;
+        }
+        if (isIssuerPinningEnabled(chainValidator)) {
+            LOGGER.info("not pre-warming the authorization cache because roles are pinned to issuers");
+            return;
+        }
+        cacheWarmer.start(mappingReloader.getMapping(), authorizationCache);
+    }
+
+    /**
+     * @throws IllegalStateException if the configured backend is unknown.
+     */
+    private static MappingBackend createMappingBackend(File configFile) {
+        String backend = System.getProperty(MAPPING_BACKEND, "yaml").trim();
+        if ("yaml".equalsIgnoreCase(backend)) {
+            return new DnRoleMappingLoader(configFile,
+                    Boolean.getBoolean(SNAPSHOT_ENABLED) ? MappingSnapshotStore.nextTo(configFile) : null);
+        }
+        if ("index".equalsIgnoreCase(backend)) {
+            String indexFile = System.getProperty(INDEX_FILE);
+            return new IndexedFileMappingBackend(
+                    indexFile != null ? new File(indexFile) : IndexedFileMappingBackend.nextTo(configFile), configFile,
+                    Long.getLong(INDEX_CACHE_SIZE, IndexedFileMappingBackend.DEFAULT_HOT_CACHE_SIZE));
+        }
+        if ("shared".equalsIgnoreCase(backend)) {
+            String sharedDir = System.getProperty(SHARED_DIR);
+            if (sharedDir == null || !new File(sharedDir).isDirectory()) {
+                throw new IllegalStateException(SHARED_DIR + " must name an existing directory for the shared "
+                        + "mapping backend");
+            }
+            return new SharedDirectoryMappingBackend(new File(sharedDir), configFile,
+                    TimeUnit.SECONDS.toMillis(Long.getLong(SHARED_SWITCH_DELAY,
+                            SharedDirectoryMappingBackend.DEFAULT_SWITCH_DELAY_SECONDS)),
+                    Integer.getInteger(SHARED_RETAINED_VERSIONS, SharedDirectoryMappingBackend.DEFAULT_RETAINED_VERSIONS));
+        }
+        throw new IllegalStateException("unknown mapping backend " + backend + " in " + MAPPING_BACKEND
+                + "; expected yaml, index or shared");
+    }
+
+    /**
+     * @throws IllegalStateException if CRL files are configured without a trust store to verify them against.
+     */
+    private static CrlRevocationChecker createRevocationChecker(ChainValidator chainValidator) {
+        String crlFiles = System.getProperty(REVOCATION_CRL_FILES);
+        if (crlFiles == null || crlFiles.trim().isEmpty()) {
+            return null;
+        }
+        if (chainValidator == null) {
+            throw new IllegalStateException(REVOCATION_CRL_FILES + " needs " + TRUST_CONFIG_FILE
+                    + " to name the trust store that signs the CRLs");
+        }
+        List<File> files = new ArrayList<>();
+        for (String crlFile : Splitter.on(',').trimResults().omitEmptyStrings().split(crlFiles)) {
+            files.add(new File(crlFile));
+        }
+        return new CrlRevocationChecker(files, chainValidator.getAnchorCertificates(),
+                Boolean.getBoolean(REVOCATION_BLOOM_ENABLED),
+                Long.getLong(RELOAD_INTERVAL, MappingReloader.DEFAULT_POLL_INTERVAL_SECONDS),
+                Boolean.parseBoolean(System.getProperty(WATCH_ENABLED, "true")));
+    }
+
+    /**
+     * Evicts only the cached authorization info of principals whose roles changed, so that unaffected
+     * clients keep their warm entries across a reload.
+     */
+    void evictAffectedAuthorizationInfo(MappingDiff diff) {
+        Cache<Object, AuthorizationInfo> authorizationCache = getAuthorizationCache();
+        if (authorizationCache == null) {
+            return;
+        }
+        int evicted = 0;
+        for (Object key : authorizationCache.keys()) {
+            if (!(key instanceof PrincipalCollection) || AnonymousPrincipalCollection.class.isInstance(key)) {
+                continue;
+            }
+            Object primaryPrincipal = ((PrincipalCollection) key).getPrimaryPrincipal();
+            if (!(primaryPrincipal instanceof String)) {
+                continue;
+            }
+            try {
+                if (diff.affects(DnNormalizer.getInstance().normalize((String) primaryPrincipal))) {
+                    authorizationCache.remove(key);
+                    evicted++;
+                }
+            } catch (IllegalArgumentException e) {
+                authorizationCache.remove(key);
+                evicted++;
+            }
+        }
+        LOGGER.info("evicted {} cached authorization entries after the mapping changed", evicted);
+    }
+
+    private static File getConfigFile() {
+        String configFile = System.getProperty(CONFIG_FILE);
+        if (configFile == null) {
+            throw new IllegalStateException("system property " + CONFIG_FILE + " is not set");
+        }
+        return new File(configFile);
     }
 
-    private void verifyConfigFile() {
-        new LoadingCacheResult();
+    MappingReloader getMappingReloader() {
+        return mappingReloader;
     }
 
-    private static String normalizeDn(String dn) {
-        X500Principal x500Principal = new X500Principal(dn);
-        return x500Principal.getName();
+    /**
+     * Changes how often the mapping file and any CRL files are polled; takes effect the next time their
+     * watchers wake up.
+     */
+    public void setReloadInterval(long pollIntervalSeconds) {
+        for (FileWatcher fileWatcher : getFileWatchers()) {
+            fileWatcher.setPollIntervalMillis(TimeUnit.SECONDS.toMillis(pollIntervalSeconds));
+        }
+    }
+
+    /**
+     * Turns file system watching of the mapping file and any CRL files on or off; polling continues either way.
+     */
+    public void setWatchEnabled(boolean watchEnabled) {
+        for (FileWatcher fileWatcher : getFileWatchers()) {
+            fileWatcher.setWatchEnabled(watchEnabled);
+        }
+    }
+
+    private List<FileWatcher> getFileWatchers() {
+        List<FileWatcher> fileWatchers = new ArrayList<>();
+        fileWatchers.add(mappingReloader.getFileWatcher());
+        if (revocationChecker != null) {
+            fileWatchers.add(revocationChecker.getFileWatcher());
+        }
+        return fileWatchers;
+    }
+
+    /**
+     * Replaces the authentication cache provided by Nexus with a {@link TunableCache} the first time,
+     * copying its entries, and reconfigures that cache afterwards.
+     */
+    public void configureAuthenticationCache(long maximumSize, long ttlSeconds) {
+        setAuthenticationCache(tunable(getAuthenticationCache(), "authentication", maximumSize, ttlSeconds));
+    }
+
+    /**
+     * Replaces the authorization cache provided by Nexus with a {@link TunableCache} the first time,
+     * copying its entries, and reconfigures that cache afterwards.
+     */
+    public void configureAuthorizationCache(long maximumSize, long ttlSeconds) {
+        setAuthorizationCache(tunable(getAuthorizationCache(), "authorization", maximumSize, ttlSeconds));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <V> Cache<Object, V> tunable(Cache<Object, V> current, String kind, long maximumSize, long ttlSeconds) {
+        if (current instanceof TunableCache) {
+            ((TunableCache<Object, V>) current).configure(maximumSize, ttlSeconds);
+            return current;
+        }
+        TunableCache<Object, V> tunableCache = new TunableCache<>(getName() + "-" + kind, maximumSize, ttlSeconds);
+        if (current != null) {
+            for (Object key : current.keys()) {
+                V value = current.get(key);
+                if (value != null) {
+                    tunableCache.put(key, value);
+                }
+            }
+        }
+        return tunableCache;
+    }
+
+    /**
+     * Stops the background threads of this realm: the mapping and CRL watchers and any warm-up in progress.
+     * Shiro calls this when the security manager holding the realm is destroyed.
+     */
+    @Override
+    public void destroy() {
+        if (cacheWarmer != null) {
+            cacheWarmer.stop();
+        }
+        mappingReloader.close();
+        if (revocationChecker != null) {
+            revocationChecker.close();
+        }
+    }
+
+    /**
+     * @return the CRL checker, or null if no CRL files are configured.
+     */
+    public CrlRevocationChecker getRevocationChecker() {
+        return revocationChecker;
+    }
+
+    /**
+     * @return the chain validator, or null if no trust configuration is set.
+     */
+    public ChainValidator getChainValidator() {
+        return chainValidator;
+    }
+
+    public AuditLog getAuditLog() {
+        return auditLog;
+    }
+
+    /**
+     * @return the DN mapping currently in service.
+     */
+    public DnRoleMapping getMapping() {
+        return mappingReloader.getMapping();
+    }
+
+    /**
+     * Applies a batch of grants and revocations as one new version of the mapping. Cached authorization
+     * info of the DNs it touches is evicted as on a reload; the mapping file is rewritten in the background.
+     * With the shared mapping backend the new version is put into service at its switch time, on this node
+     * as on the others.
+     *
+     * @return the new mapping.
+     */
+    public DnRoleMapping updateMapping(MappingUpdate update) {
+        return mappingReloader.apply(update);
+    }
+
+    /**
+     * @return the shared version of the mapping in service, or null unless the shared mapping backend is
+     * configured.
+     */
+    public SharedMappingVersion getSharedMappingVersion() {
+        MappingBackend backend = mappingReloader.getBackend();
+        return backend instanceof SharedDirectoryMappingBackend
+                ? ((SharedDirectoryMappingBackend) backend).getSharedVersion(mappingReloader.getMapping()) : null;
+    }
+
+    /**
+     * @return the version of the DN mapping currently in service; changes whenever the mapping is reloaded.
+     */
+    public long getMappingVersion() {
+        return mappingReloader.getMapping().getVersion();
     }
 
     @Override
     protected X509AuthenticationInfo doGetX509AuthenticationInfo(X509AuthenticationToken x509AuthenticationToken) {
-        final String dn = x509AuthenticationToken.getSubjectDN().getName();
-        LOGGER.info("dn received: {}", dn);
-        X509AuthenticationInfo x509AuthenticationInfo = new X509AuthenticationInfo(dn, x509AuthenticationToken.getSubjectDN(), NAME);
+        final String dn = ExtendedX509AuthenticationToken.class.isInstance(x509AuthenticationToken)
+                ? ((ExtendedX509AuthenticationToken) x509AuthenticationToken).getNormalizedSubjectDn()
+                : DnNormalizer.getInstance().normalize(x509AuthenticationToken.getSubjectDN());
+        LOGGER.debug("dn received: {}", dn);
+        ChainValidator validator = chainValidator;
+        // a collection is added to the principals element by element, with the DN remaining the primary one
+        Object principal = isIssuerPinningEnabled(validator)
+                ? Arrays.asList(dn, new ChainIssuers(validator.validate(x509AuthenticationToken.getX509CertChain()).getIssuerDns()))
+                : dn;
+        X509AuthenticationInfo x509AuthenticationInfo = new X509AuthenticationInfo(principal, x509AuthenticationToken.getSubjectDN(), NAME);
         x509AuthenticationInfo.setCredentials(dn);
         return x509AuthenticationInfo;
     }
 
+    /**
+     * With roles pinned to issuers the cached authentication info carries the issuers of the chain, so it
+     * is cached per subject and issuers; a subject presenting a chain from other issuers logs in afresh.
+     */
     @Override
-    protected AuthorizationInfo doGetAuthorizationInfo(PrincipalCollection principals) {
-        if (AnonymousPrincipalCollection.class.isInstance(principals)) {
-            return ANONYMOUS_AUTHORIZATION_INFO;
-        }
-        String normalizeDn = normalizeDn((String) principals.getPrimaryPrincipal());
-        Set<String> roles = new HashSet<>();
-        Collection<String> potentialRoles = null;
-        try {
-            potentialRoles = certInfoAche.get(ALL_RESULTS).getDnToRoleMultimap().get(normalizeDn);
-        } catch (ExecutionException e) {
-            throw new AuthorizationException(e.getMessage(), e);
+    protected Object getAuthenticationCacheKey(AuthenticationToken token) {
+        ChainValidator validator = chainValidator;
+        if (!isIssuerPinningEnabled(validator) || !(token instanceof X509AuthenticationToken)) {
+            return super.getAuthenticationCacheKey(token);
         }
+        return Arrays.asList(super.getAuthenticationCacheKey(token),
+                validator.validate(((X509AuthenticationToken) token).getX509CertChain()).getIssuerDns());
+    }
 
-        if (potentialRoles == null || potentialRoles.size() == 0) {
-            return ANONYMOUS_AUTHORIZATION_INFO;
+    /**
+     * Rejects revoked certificates and, if a trust configuration is set, chains that do not validate
+     * against it. This runs for cached authentication info as well as fresh, so a certificate that is
+     * revoked after its first login is refused from the next CRL refresh on.
+     */
+    @Override
+    protected void assertCredentialsMatch(AuthenticationToken token, AuthenticationInfo info) throws AuthenticationException {
+        if (token instanceof X509AuthenticationToken) {
+            X509Certificate certificate = ((X509AuthenticationToken) token).getX509Certificate();
+            if (certificate != null && isRevoked(certificate)) {
+                X509DnMetrics.get().certificateRevoked();
+                throw new AuthenticationException("certificate " + certificate.getSerialNumber() + " issued by "
+                        + certificate.getIssuerX500Principal() + " has been revoked");
+            }
         }
-
-        roles.addAll(potentialRoles);
-        return new SimpleAuthorizationInfo(roles);
+        ChainValidator validator = chainValidator;
+        if (validator != null && token instanceof X509AuthenticationToken) {
+            ChainValidation validation = validator.validate(((X509AuthenticationToken) token).getX509CertChain());
+            if (!validation.isValid()) {
+                throw new AuthenticationException("certificate chain of " + ((X509AuthenticationToken) token).getSubjectDN()
+                        + " is not trusted: " + validation.getReason());
+            }
+        }
+        super.assertCredentialsMatch(token, info);
     }
 
-    private static class LoadingCacheResult {
-        private final Yaml yaml = new Yaml();
-        private final Multimap<String, String> roleToDnMultimap = HashMultimap.create();
-        private final Multimap<String, String> dnToRoleMultimap = HashMultimap.create();
+    /**
+     * @return true if the certificate is listed on the CRLs in service; always false without CRLs.
+     */
+    public boolean isRevoked(X509Certificate certificate) {
+        CrlRevocationChecker checker = revocationChecker;
+        return checker != null && checker.isRevoked(certificate);
+    }
 
-        LoadingCacheResult() {
-            try (FileInputStream fileInputStream = new FileInputStream(System.getProperty(CONFIG_FILE))) {
-                Map<String, List<String>> compiledYaml = yaml.load(fileInputStream);
-                generateMultiMaps(compiledYaml);
-            } catch (Throwable e) {
-                throw new IllegalStateException(e);
-            }
+    /**
+     * @return false if the leaf certificate is revoked or, with a trust configuration, the chain does not
+     * validate against it; both checks are answered from their caches for a chain seen before.
+     */
+    public boolean isTrusted(X509Certificate[] chain) {
+        if (chain == null || chain.length == 0 || isRevoked(chain[0])) {
+            return false;
         }
+        ChainValidator validator = chainValidator;
+        return validator == null || validator.validate(chain).isValid();
+    }
 
-        private void generateMultiMaps(Map<String, List<String>> compiledYaml) {
-            for (Map.Entry<String, List<String>>  entry : compiledYaml.entrySet()) {
-                String role = entry.getKey();
-                for (String dn : entry.getValue()) {
-                    String normalizedDn = normalizeDn(dn);
-                    dnToRoleMultimap.put(normalizedDn, role);
-                    roleToDnMultimap.put(normalizedDn, dn);
-                }
-            }
+    /**
+     * A new mapping is published before the entries it affects are evicted, so an entry computed from the
+     * previous mapping may be cached after the eviction has passed it; such an entry is dropped again here.
+     */
+    @Override
+    protected AuthorizationInfo getAuthorizationInfo(PrincipalCollection principals) {
+        X509DnMetrics.get().authorizationRequested();
+        DnRoleMapping mapping = mappingReloader.getMapping();
+        AuthorizationInfo authorizationInfo = super.getAuthorizationInfo(principals);
+        if (mappingReloader.getMapping() != mapping) {
+            clearCachedAuthorizationInfo(principals);
         }
+        return authorizationInfo;
+    }
 
-        public Multimap<String, String> getRoleToDnMultimap() {
-            return roleToDnMultimap;
+    @Override
+    protected AuthorizationInfo doGetAuthorizationInfo(PrincipalCollection principals) {
+        if (AnonymousPrincipalCollection.class.isInstance(principals)) {
+            return ANONYMOUS_AUTHORIZATION_INFO;
+        }
+        long start = System.nanoTime();
+        String subjectDn = (String) principals.getPrimaryPrincipal();
+        DnRoleMapping mapping = mappingReloader.getMapping();
+        if (mapping.isKnownUnmapped(subjectDn)) {
+            long latency = System.nanoTime() - start;
+            X509DnMetrics.get().authorizationComputed(latency, true);
+            auditLog.record(subjectDn, ANONYMOUS_AUTHORIZATION_INFO.getRoles(), true, latency);
+            return ANONYMOUS_AUTHORIZATION_INFO;
         }
+        String normalizeDn = DnNormalizer.getInstance().normalize(subjectDn);
+        AuthorizationInfo authorizationInfo = mapping.getAuthorizationInfo(normalizeDn);
+        if (authorizationInfo == null) {
+            mapping.rememberUnmapped(subjectDn);
+        } else {
+            // a DN left without roles by its issuers is mapped all the same, and may present other issuers later
+            authorizationInfo = restrict(authorizationInfo, getIssuerDns(principals));
+        }
+        boolean anonymousFallback = authorizationInfo == null;
+        if (anonymousFallback) {
+            authorizationInfo = ANONYMOUS_AUTHORIZATION_INFO;
+        }
+        long latency = System.nanoTime() - start;
+        X509DnMetrics.get().authorizationComputed(latency, anonymousFallback);
+        auditLog.record(normalizeDn, authorizationInfo.getRoles(), anonymousFallback, latency);
+        return authorizationInfo;
+    }
 
-        public Multimap<String, String> getDnToRoleMultimap() {
-            return dnToRoleMultimap;
+    /**
+     * @return the roles of the DN for a login without known issuers, leaving out roles pinned to issuers, or
+     * null if it is not mapped or none of its roles are allowed.
+     */
+    AuthorizationInfo computeAuthorizationInfo(DnRoleMapping mapping, String normalizedDn) {
+        AuthorizationInfo authorizationInfo = mapping.getAuthorizationInfo(normalizedDn);
+        return authorizationInfo != null ? restrict(authorizationInfo, ImmutableSet.<String>of()) : null;
+    }
+
+    /**
+     * @return the roles allowed for the issuers, or null if none are.
+     */
+    private AuthorizationInfo restrict(AuthorizationInfo authorizationInfo, Set<String> issuerDns) {
+        ChainValidator validator = chainValidator;
+        if (validator == null) {
+            return authorizationInfo;
         }
+        return validator.getTrustConfig().restrict(authorizationInfo, issuerDns);
+    }
+
+    /**
+     * @return the issuers of the chain the principals logged in with, or an empty set if they carry none.
+     */
+    private static Set<String> getIssuerDns(PrincipalCollection principals) {
+        ChainIssuers chainIssuers = principals.oneByType(ChainIssuers.class);
+        return chainIssuers != null ? chainIssuers.getIssuerDns() : ImmutableSet.<String>of();
+    }
+
+    private static boolean isIssuerPinningEnabled(ChainValidator validator) {
+        return validator != null && !validator.getTrustConfig().getPinnedIssuers().isEmpty();
     }
 
 }
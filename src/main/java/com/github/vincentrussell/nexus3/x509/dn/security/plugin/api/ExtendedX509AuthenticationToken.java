@@ -1,11 +1,14 @@
 package com.github.vincentrussell.nexus3.x509.dn.security.plugin.api;
 
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.DnNormalizer;
 import org.apache.shiro.authc.x509.X509AuthenticationToken;
 
 import java.security.cert.X509Certificate;
 
 public class ExtendedX509AuthenticationToken extends X509AuthenticationToken {
 
+    private transient String normalizedSubjectDn;
+
     public ExtendedX509AuthenticationToken(X509Certificate[] clientCertChain, String host) {
         super(clientCertChain, host);
     }
@@ -15,4 +18,16 @@ public class ExtendedX509AuthenticationToken extends X509AuthenticationToken {
     {
         return getSubjectDN().getName();
     }
+
+    /**
+     * The subject DN in canonical form, computed once per token rather than once per layer that needs it.
+     */
+    public String getNormalizedSubjectDn() {
+        String result = normalizedSubjectDn;
+        if (result == null) {
+            result = DnNormalizer.getInstance().normalize(getSubjectDN());
+            normalizedSubjectDn = result;
+        }
+        return result;
+    }
 }
@@ -0,0 +1,146 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.audit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A dedicated audit channel for authorization decisions. Request threads only offer a record to a
+ * bounded, lock-free {@link RingBuffer}; a background thread formats the records and writes them to the
+ * {@code com.github.vincentrussell.nexus3.x509.dn.security.plugin.audit} logger. Each DN is audited at
+ * most once per sample interval, and records are dropped rather than blocking when the buffer is full.
+ */
+public class AuditLog implements Closeable {
+
+    private static final Logger AUDIT = LoggerFactory.getLogger(AuditLog.class.getPackage().getName());
+
+    public static final String ENABLED = "X509DnAuthenticatingRealm.audit.enabled";
+    public static final String SAMPLE_INTERVAL = "X509DnAuthenticatingRealm.audit.sample.interval";
+    public static final String BUFFER_SIZE = "X509DnAuthenticatingRealm.audit.buffer.size";
+
+    private static final long DRAIN_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int MAX_SAMPLED_DNS = 100000;
+
+    private final RingBuffer<AuditRecord> buffer;
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder sampledOut = new LongAdder();
+    private volatile boolean enabled;
+    private volatile long sampleIntervalSeconds;
+    private volatile Cache<String, Boolean> recentlyAudited;
+    private volatile boolean closed;
+    private volatile Thread writer;
+
+    public AuditLog(boolean enabled, long sampleIntervalSeconds, int bufferSize) {
+        this.buffer = new RingBuffer<>(bufferSize);
+        this.enabled = enabled;
+        setSampleIntervalSeconds(sampleIntervalSeconds);
+    }
+
+    public static AuditLog fromSystemProperties() {
+        return new AuditLog(Boolean.parseBoolean(System.getProperty(ENABLED, "true")),
+                Long.getLong(SAMPLE_INTERVAL, 60), Integer.getInteger(BUFFER_SIZE, 8192));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getSampleIntervalSeconds() {
+        return sampleIntervalSeconds;
+    }
+
+    /**
+     * @param sampleIntervalSeconds 0 audits every decision.
+     */
+    public synchronized void setSampleIntervalSeconds(long sampleIntervalSeconds) {
+        this.sampleIntervalSeconds = sampleIntervalSeconds;
+        this.recentlyAudited = sampleIntervalSeconds <= 0 ? null : CacheBuilder.newBuilder()
+                .maximumSize(MAX_SAMPLED_DNS)
+                .expireAfterWrite(sampleIntervalSeconds, TimeUnit.SECONDS)
+                .<String, Boolean>build();
+    }
+
+    /**
+     * Never blocks and allocates nothing when the DN has already been audited in this sample interval.
+     */
+    public void record(String dn, Collection<String> roles, boolean anonymousFallback, long latencyNanos) {
+        if (!enabled) {
+            return;
+        }
+        Cache<String, Boolean> sample = recentlyAudited;
+        if (sample != null && sample.asMap().putIfAbsent(dn, Boolean.TRUE) != null) {
+            sampledOut.increment();
+            return;
+        }
+        if (buffer.offer(new AuditRecord(System.currentTimeMillis(), dn, roles, anonymousFallback, latencyNanos))) {
+            startWriter();
+        } else {
+            dropped.increment();
+        }
+    }
+
+    public long getWrittenCount() {
+        return written.sum();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getSampledOutCount() {
+        return sampledOut.sum();
+    }
+
+    private void startWriter() {
+        if (writer != null) {
+            return;
+        }
+        synchronized (this) {
+            if (writer != null || closed) {
+                return;
+            }
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writeLoop();
+                }
+            }, "x509-dn-audit-writer");
+            thread.setDaemon(true);
+            thread.start();
+            writer = thread;
+        }
+    }
+
+    private void writeLoop() {
+        while (!closed) {
+            drain();
+            LockSupport.parkNanos(this, DRAIN_INTERVAL_NANOS);
+        }
+        drain();
+    }
+
+    void drain() {
+        AuditRecord record;
+        while ((record = buffer.poll()) != null) {
+            AUDIT.info("{}", record);
+            written.increment();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.audit;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One authorization decision.
+ */
+public final class AuditRecord {
+
+    private final long timestamp;
+    private final String dn;
+    private final Collection<String> roles;
+    private final boolean anonymousFallback;
+    private final long latencyNanos;
+
+    public AuditRecord(long timestamp, String dn, Collection<String> roles, boolean anonymousFallback,
+                       long latencyNanos) {
+        this.timestamp = timestamp;
+        this.dn = dn;
+        this.roles = roles;
+        this.anonymousFallback = anonymousFallback;
+        this.latencyNanos = latencyNanos;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getDn() {
+        return dn;
+    }
+
+    public Collection<String> getRoles() {
+        return roles;
+    }
+
+    public boolean isAnonymousFallback() {
+        return anonymousFallback;
+    }
+
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    /**
+     * @return the record as space separated key=value pairs.
+     */
+    @Override
+    public String toString() {
+        return "timestamp=" + timestamp
+                + " dn=\"" + dn.replace("\"", "\\\"") + "\""
+                + " roles=" + roles
+                + " anonymousFallback=" + anonymousFallback
+                + " latencyMicros=" + TimeUnit.NANOSECONDS.toMicros(latencyNanos);
+    }
+}
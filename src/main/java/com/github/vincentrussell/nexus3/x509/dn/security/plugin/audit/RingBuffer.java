@@ -0,0 +1,65 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.audit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free ring buffer for many producers and a single consumer. Producers claim a slot with
+ * a compare-and-set on the tail and never block; when the buffer is full {@link #offer(Object)} returns
+ * false and the element is dropped.
+ */
+final class RingBuffer<T> {
+
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity rounded up to the next power of two.
+     */
+    RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    int capacity() {
+        return slots.length();
+    }
+
+    boolean offer(T element) {
+        while (true) {
+            long currentTail = tail.get();
+            if (currentTail - head.get() >= slots.length()) {
+                return false;
+            }
+            if (tail.compareAndSet(currentTail, currentTail + 1)) {
+                slots.lazySet((int) currentTail & mask, element);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Only called from the consumer thread.
+     *
+     * @return the next element, or null if the buffer is empty or the next slot has been claimed but not
+     * yet filled.
+     */
+    T poll() {
+        long currentHead = head.get();
+        int index = (int) currentHead & mask;
+        T element = slots.get(index);
+        if (element == null) {
+            return null;
+        }
+        slots.lazySet(index, null);
+        head.lazySet(currentHead + 1);
+        return element;
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+}
@@ -0,0 +1,134 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.capability;
+
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.X509DnAuthenticatingRealm;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.DnNormalizer;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.servlet.ExtendedX509AuthenticationFilter;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.servlet.TlsSessionLoginCache;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.util.TunableCache;
+import org.apache.shiro.cache.Cache;
+import org.apache.shiro.mgt.RealmSecurityManager;
+import org.apache.shiro.realm.Realm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonatype.nexus.capability.CapabilitySupport;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.Map;
+
+/**
+ * Applies the {@link X509DnTuningConfiguration} to the realm, the filter and the DN normalizer whenever the
+ * capability is activated or its configuration is updated while active. Caches are reconfigured in place,
+ * keeping as many entries as fit, so clients stay warm.
+ */
+@Named(X509DnTuningCapabilityDescriptor.TYPE_ID)
+public class X509DnTuningCapability extends CapabilitySupport<X509DnTuningConfiguration> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(X509DnTuningCapability.class);
+
+    static final long DEFAULT_CACHE_SIZE = 10000;
+
+    private final RealmSecurityManager realmSecurityManager;
+    private final ExtendedX509AuthenticationFilter filter;
+
+    @Inject
+    public X509DnTuningCapability(RealmSecurityManager realmSecurityManager, ExtendedX509AuthenticationFilter filter) {
+        this.realmSecurityManager = realmSecurityManager;
+        this.filter = filter;
+    }
+
+    @Override
+    protected X509DnTuningConfiguration createConfig(Map<String, String> properties) {
+        return new X509DnTuningConfiguration(properties);
+    }
+
+    @Override
+    protected void onActivate(X509DnTuningConfiguration config) {
+        apply(config);
+    }
+
+    @Override
+    protected void onUpdate(X509DnTuningConfiguration config) {
+        if (context().isActive()) {
+            apply(config);
+        }
+    }
+
+    @Override
+    protected String renderStatus() {
+        X509DnAuthenticatingRealm realm = getRealm();
+        if (realm == null) {
+            return "The X509-Dn Authenticating Realm is not enabled.";
+        }
+        return "Mapping version " + realm.getMappingVersion() + ", " + realm.getMapping().size() + " DNs; "
+                + DnNormalizer.getInstance().size() + " normalized DNs and "
+                + filter.getTlsSessionLoginCache().size() + " TLS sessions cached.";
+    }
+
+    void apply(X509DnTuningConfiguration config) {
+        if (config.getNormalizationCacheSize() != null) {
+            DnNormalizer.getInstance().setMaximumSize(config.getNormalizationCacheSize());
+        }
+        TlsSessionLoginCache sessions = filter.getTlsSessionLoginCache();
+        if (config.getSessionCacheSize() != null || config.getSessionCacheTtlSeconds() != null) {
+            sessions.configure(valueOr(config.getSessionCacheSize(), sessions.getMaximumSize()),
+                    valueOr(config.getSessionCacheTtlSeconds(), sessions.getTtlSeconds()));
+        }
+        if (config.getSessionCacheEnabled() != null) {
+            filter.setSessionCacheEnabled(config.getSessionCacheEnabled());
+        }
+
+        X509DnAuthenticatingRealm realm = getRealm();
+        if (realm == null) {
+            LOGGER.warn("the X509-Dn Authenticating Realm is not enabled; its settings are applied the next time "
+                    + "this capability is activated or updated");
+            return;
+        }
+        if (config.getReloadIntervalSeconds() != null) {
+            realm.setReloadInterval(config.getReloadIntervalSeconds());
+        }
+        if (config.getWatchEnabled() != null) {
+            realm.setWatchEnabled(config.getWatchEnabled());
+        }
+        if (config.getAuthenticationCacheSize() != null || config.getAuthenticationCacheTtlSeconds() != null) {
+            Cache<?, ?> current = realm.getAuthenticationCache();
+            realm.configureAuthenticationCache(
+                    valueOr(config.getAuthenticationCacheSize(), maximumSize(current)),
+                    valueOr(config.getAuthenticationCacheTtlSeconds(), ttlSeconds(current)));
+        }
+        if (config.getAuthorizationCacheSize() != null || config.getAuthorizationCacheTtlSeconds() != null) {
+            Cache<?, ?> current = realm.getAuthorizationCache();
+            realm.configureAuthorizationCache(
+                    valueOr(config.getAuthorizationCacheSize(), maximumSize(current)),
+                    valueOr(config.getAuthorizationCacheTtlSeconds(), ttlSeconds(current)));
+        }
+        if (config.getAuditEnabled() != null) {
+            realm.getAuditLog().setEnabled(config.getAuditEnabled());
+        }
+        if (config.getAuditSampleIntervalSeconds() != null) {
+            realm.getAuditLog().setSampleIntervalSeconds(config.getAuditSampleIntervalSeconds());
+        }
+        LOGGER.info("applied tuning to the X509-Dn Authenticating Realm");
+    }
+
+    private X509DnAuthenticatingRealm getRealm() {
+        for (Realm realm : realmSecurityManager.getRealms()) {
+            if (realm instanceof X509DnAuthenticatingRealm) {
+                return (X509DnAuthenticatingRealm) realm;
+            }
+        }
+        return null;
+    }
+
+    private static long maximumSize(Cache<?, ?> cache) {
+        return cache instanceof TunableCache ? ((TunableCache<?, ?>) cache).getMaximumSize() : DEFAULT_CACHE_SIZE;
+    }
+
+    private static long ttlSeconds(Cache<?, ?> cache) {
+        return cache instanceof TunableCache ? ((TunableCache<?, ?>) cache).getTtlSeconds() : 0;
+    }
+
+    private static long valueOr(Long value, long defaultValue) {
+        return value != null ? value : defaultValue;
+    }
+}
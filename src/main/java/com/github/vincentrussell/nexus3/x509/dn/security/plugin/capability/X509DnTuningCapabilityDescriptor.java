@@ -0,0 +1,92 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.capability;
+
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.X509DnAuthenticatingRealm;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.audit.AuditLog;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.servlet.ExtendedX509AuthenticationFilter;
+import com.google.common.collect.ImmutableList;
+import org.sonatype.nexus.capability.CapabilityDescriptorSupport;
+import org.sonatype.nexus.capability.CapabilityType;
+import org.sonatype.nexus.formfields.CheckboxFormField;
+import org.sonatype.nexus.formfields.FormField;
+import org.sonatype.nexus.formfields.NumberTextFormField;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.List;
+import java.util.Map;
+
+import static org.sonatype.nexus.capability.CapabilityType.capabilityType;
+
+/**
+ * Describes the {@link X509DnTuningCapability} and its form in _Administration > System > Capabilities_.
+ */
+@Named(X509DnTuningCapabilityDescriptor.TYPE_ID)
+@Singleton
+public class X509DnTuningCapabilityDescriptor extends CapabilityDescriptorSupport<X509DnTuningConfiguration> {
+
+    public static final String TYPE_ID = "x509dn.tuning";
+    public static final CapabilityType TYPE = capabilityType(TYPE_ID);
+
+    private static final String BLANK_UNCHANGED = " Leave blank to keep the current setting.";
+
+    // switches start out as the system properties set them, so a new capability does not turn them around
+    private final List<FormField> formFields = ImmutableList.<FormField>of(
+            new NumberTextFormField(X509DnTuningConfiguration.RELOAD_INTERVAL, "Reload interval",
+                    "Seconds between polls of the mapping and CRL files." + BLANK_UNCHANGED, FormField.OPTIONAL),
+            new CheckboxFormField(X509DnTuningConfiguration.WATCH_ENABLED, "Watch files",
+                    "Watch the mapping and CRL files for changes instead of only polling them.", FormField.OPTIONAL)
+                    .withInitialValue(Boolean.parseBoolean(
+                            System.getProperty(X509DnAuthenticatingRealm.WATCH_ENABLED, "true"))),
+            new NumberTextFormField(X509DnTuningConfiguration.AUTHENTICATION_CACHE_SIZE, "Authentication cache size",
+                    "Authenticated certificates kept by the realm." + BLANK_UNCHANGED, FormField.OPTIONAL),
+            new NumberTextFormField(X509DnTuningConfiguration.AUTHENTICATION_CACHE_TTL, "Authentication cache expiry",
+                    "Seconds an authenticated certificate is kept; 0 keeps it until it is evicted for size."
+                            + BLANK_UNCHANGED, FormField.OPTIONAL),
+            new NumberTextFormField(X509DnTuningConfiguration.AUTHORIZATION_CACHE_SIZE, "Authorization cache size",
+                    "Role sets kept by the realm." + BLANK_UNCHANGED, FormField.OPTIONAL),
+            new NumberTextFormField(X509DnTuningConfiguration.AUTHORIZATION_CACHE_TTL, "Authorization cache expiry",
+                    "Seconds a role set is kept; 0 keeps it until it is evicted for size or the mapping changes."
+                            + BLANK_UNCHANGED, FormField.OPTIONAL),
+            new NumberTextFormField(X509DnTuningConfiguration.NORMALIZATION_CACHE_SIZE, "Normalization cache size",
+                    "Normalized DNs remembered." + BLANK_UNCHANGED, FormField.OPTIONAL),
+            new CheckboxFormField(X509DnTuningConfiguration.SESSION_CACHE_ENABLED, "TLS session cache",
+                    "Skip the login for requests on a TLS session that has already logged in.", FormField.OPTIONAL)
+                    .withInitialValue(Boolean.getBoolean(ExtendedX509AuthenticationFilter.SESSION_CACHE_ENABLED)),
+            new NumberTextFormField(X509DnTuningConfiguration.SESSION_CACHE_SIZE, "TLS session cache size",
+                    "TLS sessions remembered." + BLANK_UNCHANGED, FormField.OPTIONAL),
+            new NumberTextFormField(X509DnTuningConfiguration.SESSION_CACHE_TTL, "TLS session cache expiry",
+                    "Seconds a TLS session is remembered." + BLANK_UNCHANGED, FormField.OPTIONAL),
+            new CheckboxFormField(X509DnTuningConfiguration.AUDIT_ENABLED, "Audit log",
+                    "Write authorization decisions to the audit logger.", FormField.OPTIONAL)
+                    .withInitialValue(Boolean.parseBoolean(System.getProperty(AuditLog.ENABLED, "true"))),
+            new NumberTextFormField(X509DnTuningConfiguration.AUDIT_SAMPLE_INTERVAL, "Audit sample interval",
+                    "Seconds during which a DN is audited at most once; 0 audits every decision."
+                            + BLANK_UNCHANGED, FormField.OPTIONAL));
+
+    @Override
+    public CapabilityType type() {
+        return TYPE;
+    }
+
+    @Override
+    public String name() {
+        return "X509-Dn: Tuning";
+    }
+
+    @Override
+    public List<FormField> formFields() {
+        return formFields;
+    }
+
+    @Override
+    protected String renderAbout() {
+        return "Tunes the caches, reload policy and audit sampling of the X509-Dn Authenticating Realm without a "
+                + "restart. Caches are resized in place, keeping as many warm entries as fit. Settings stay in "
+                + "effect until they are changed or Nexus is restarted.";
+    }
+
+    @Override
+    protected X509DnTuningConfiguration createConfig(Map<String, String> properties) {
+        return new X509DnTuningConfiguration(properties);
+    }
+}
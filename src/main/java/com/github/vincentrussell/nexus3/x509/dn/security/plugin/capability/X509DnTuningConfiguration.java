@@ -0,0 +1,133 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.capability;
+
+import java.util.Map;
+
+/**
+ * The settings of the {@link X509DnTuningCapability}. Settings left blank or missing, numbers and switches
+ * alike, leave the corresponding setting as it is, which may have been given as a system property.
+ */
+public class X509DnTuningConfiguration {
+
+    public static final String RELOAD_INTERVAL = "reloadIntervalSeconds";
+    public static final String WATCH_ENABLED = "watchEnabled";
+    public static final String AUTHENTICATION_CACHE_SIZE = "authenticationCacheSize";
+    public static final String AUTHENTICATION_CACHE_TTL = "authenticationCacheTtlSeconds";
+    public static final String AUTHORIZATION_CACHE_SIZE = "authorizationCacheSize";
+    public static final String AUTHORIZATION_CACHE_TTL = "authorizationCacheTtlSeconds";
+    public static final String NORMALIZATION_CACHE_SIZE = "normalizationCacheSize";
+    public static final String SESSION_CACHE_ENABLED = "sessionCacheEnabled";
+    public static final String SESSION_CACHE_SIZE = "sessionCacheSize";
+    public static final String SESSION_CACHE_TTL = "sessionCacheTtlSeconds";
+    public static final String AUDIT_ENABLED = "auditEnabled";
+    public static final String AUDIT_SAMPLE_INTERVAL = "auditSampleIntervalSeconds";
+
+    private final Long reloadIntervalSeconds;
+    private final Boolean watchEnabled;
+    private final Long authenticationCacheSize;
+    private final Long authenticationCacheTtlSeconds;
+    private final Long authorizationCacheSize;
+    private final Long authorizationCacheTtlSeconds;
+    private final Long normalizationCacheSize;
+    private final Boolean sessionCacheEnabled;
+    private final Long sessionCacheSize;
+    private final Long sessionCacheTtlSeconds;
+    private final Boolean auditEnabled;
+    private final Long auditSampleIntervalSeconds;
+
+    /**
+     * @throws IllegalStateException if a number is malformed or out of range.
+     */
+    public X509DnTuningConfiguration(Map<String, String> properties) {
+        reloadIntervalSeconds = getNumber(properties, RELOAD_INTERVAL, 1);
+        watchEnabled = getBoolean(properties, WATCH_ENABLED);
+        authenticationCacheSize = getNumber(properties, AUTHENTICATION_CACHE_SIZE, 1);
+        authenticationCacheTtlSeconds = getNumber(properties, AUTHENTICATION_CACHE_TTL, 0);
+        authorizationCacheSize = getNumber(properties, AUTHORIZATION_CACHE_SIZE, 1);
+        authorizationCacheTtlSeconds = getNumber(properties, AUTHORIZATION_CACHE_TTL, 0);
+        normalizationCacheSize = getNumber(properties, NORMALIZATION_CACHE_SIZE, 1);
+        sessionCacheEnabled = getBoolean(properties, SESSION_CACHE_ENABLED);
+        sessionCacheSize = getNumber(properties, SESSION_CACHE_SIZE, 1);
+        sessionCacheTtlSeconds = getNumber(properties, SESSION_CACHE_TTL, 1);
+        auditEnabled = getBoolean(properties, AUDIT_ENABLED);
+        auditSampleIntervalSeconds = getNumber(properties, AUDIT_SAMPLE_INTERVAL, 0);
+    }
+
+    private static Long getNumber(Map<String, String> properties, String key, long minimum) {
+        String value = properties.get(key);
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        long number;
+        try {
+            number = Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException(key + " is not a number: " + value);
+        }
+        if (number < minimum) {
+            throw new IllegalStateException(key + " must be at least " + minimum + ": " + value);
+        }
+        return number;
+    }
+
+    private static Boolean getBoolean(Map<String, String> properties, String key) {
+        String value = properties.get(key);
+        return value == null || value.trim().isEmpty() ? null : Boolean.valueOf(value.trim());
+    }
+
+    public Long getReloadIntervalSeconds() {
+        return reloadIntervalSeconds;
+    }
+
+    public Boolean getWatchEnabled() {
+        return watchEnabled;
+    }
+
+    public Long getAuthenticationCacheSize() {
+        return authenticationCacheSize;
+    }
+
+    /**
+     * @return the expiry of authentication cache entries; 0 keeps them until they are evicted for size.
+     */
+    public Long getAuthenticationCacheTtlSeconds() {
+        return authenticationCacheTtlSeconds;
+    }
+
+    public Long getAuthorizationCacheSize() {
+        return authorizationCacheSize;
+    }
+
+    /**
+     * @return the expiry of authorization cache entries; 0 keeps them until they are evicted for size.
+     */
+    public Long getAuthorizationCacheTtlSeconds() {
+        return authorizationCacheTtlSeconds;
+    }
+
+    public Long getNormalizationCacheSize() {
+        return normalizationCacheSize;
+    }
+
+    public Boolean getSessionCacheEnabled() {
+        return sessionCacheEnabled;
+    }
+
+    public Long getSessionCacheSize() {
+        return sessionCacheSize;
+    }
+
+    public Long getSessionCacheTtlSeconds() {
+        return sessionCacheTtlSeconds;
+    }
+
+    public Boolean getAuditEnabled() {
+        return auditEnabled;
+    }
+
+    /**
+     * @return seconds during which a DN is audited at most once; 0 audits every decision.
+     */
+    public Long getAuditSampleIntervalSeconds() {
+        return auditSampleIntervalSeconds;
+    }
+}
@@ -0,0 +1,20 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+/**
+ * A {@link MappingBackend} shared by several nodes, whose snapshots are due at a moment agreed on by all of
+ * them rather than as soon as they are loaded.
+ */
+public interface CoordinatedMappingBackend extends MappingBackend {
+
+    /**
+     * @return the wall-clock time in milliseconds at which the snapshot returned by the last
+     * {@link #load(long)} is to be put into service; 0 or a past time means at once.
+     */
+    long getActivationTimeMillis();
+
+    /**
+     * @return the wall-clock time in milliseconds at which the snapshot, as last loaded or saved, is to be put
+     * into service; 0 or a past time means at once.
+     */
+    long getActivationTimeMillis(DnRoleMapping mapping);
+}
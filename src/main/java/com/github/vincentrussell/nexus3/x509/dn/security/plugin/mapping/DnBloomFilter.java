@@ -0,0 +1,55 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import java.util.Collection;
+
+/**
+ * A Bloom filter over DN strings. Probe positions are derived from {@link String#hashCode()}, which the
+ * string caches, so {@link #mightContain(String)} neither allocates nor re-reads the characters of a DN
+ * it has seen before. At ten bits per DN and four probes roughly one unmapped DN in a hundred gets past it.
+ */
+final class DnBloomFilter {
+
+    private static final int BITS_PER_ENTRY = 10;
+    private static final int PROBES = 4;
+
+    private final long[] bits;
+    private final int mask;
+
+    DnBloomFilter(Collection<String> dns) {
+        int size = Integer.highestOneBit(Math.max(64, dns.size() * BITS_PER_ENTRY - 1)) << 1;
+        this.bits = new long[size >>> 6];
+        this.mask = size - 1;
+        for (String dn : dns) {
+            int h1 = dn.hashCode();
+            int h2 = spread(h1);
+            for (int i = 0; i < PROBES; i++) {
+                int bit = (h1 + i * h2) & mask;
+                bits[bit >>> 6] |= 1L << bit;
+            }
+        }
+    }
+
+    boolean mightContain(String dn) {
+        int h1 = dn.hashCode();
+        int h2 = spread(h1);
+        for (int i = 0; i < PROBES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The finalizer of MurmurHash3, forced odd so that successive probes never coincide.
+     */
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h | 1;
+    }
+}
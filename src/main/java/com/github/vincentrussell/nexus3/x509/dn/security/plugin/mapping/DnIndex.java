@@ -0,0 +1,25 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import org.apache.shiro.authz.AuthorizationInfo;
+
+import java.util.Set;
+
+/**
+ * The exact entries of a {@link DnRoleMapping}, keyed on normalized DN. Implementations are immutable.
+ */
+public interface DnIndex {
+
+    /**
+     * @return the shared authorization info of the DN, or null if it has no exact entry.
+     */
+    AuthorizationInfo get(String normalizedDn);
+
+    /**
+     * @return the DNs that have an exact entry; may be a view that reads them on demand.
+     */
+    Set<String> getDns();
+
+    int size();
+
+    int getDistinctRoleSets();
+}
@@ -0,0 +1,104 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import javax.security.auth.x500.X500Principal;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Turns DNs into their canonical RFC 2253 form. Parsing and re-rendering an {@link X500Principal} is
+ * ASN.1 work, and the same few hundred client identities are seen over and over, so results are kept in
+ * a bounded, concurrent memo keyed on the raw subject string.
+ */
+public final class DnNormalizer {
+
+    public static final String CACHE_SIZE = "X509DnAuthenticatingRealm.normalization.cache.size";
+    public static final long DEFAULT_CACHE_SIZE = 10000;
+
+    private static final DnNormalizer INSTANCE = new DnNormalizer(Long.getLong(CACHE_SIZE, DEFAULT_CACHE_SIZE));
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile long maximumSize;
+    private volatile Cache<String, String> cache;
+
+    DnNormalizer(long maximumSize) {
+        this.maximumSize = maximumSize;
+        this.cache = newCache(maximumSize);
+    }
+
+    public static DnNormalizer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Normalizes without touching the memo; used when loading mapping files so that thousands of
+     * configured DNs do not evict the identities that are actually connecting.
+     */
+    public static String canonicalize(String dn) {
+        return new X500Principal(dn).getName();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the DN cannot be parsed.
+     */
+    public String normalize(String dn) {
+        String normalized = cache.getIfPresent(dn);
+        if (normalized != null) {
+            hits.increment();
+            return normalized;
+        }
+        misses.increment();
+        normalized = canonicalize(dn);
+        cache.put(dn, normalized);
+        return normalized;
+    }
+
+    /**
+     * An {@link X500Principal} already caches its RFC 2253 rendering; the result is remembered so that
+     * later lookups by the same string are hits.
+     */
+    public String normalize(X500Principal principal) {
+        String normalized = principal.getName();
+        if (cache.getIfPresent(normalized) == null) {
+            cache.put(normalized, normalized);
+        }
+        return normalized;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Replaces the memo with one of the new size, carrying over as many entries as fit.
+     */
+    public synchronized void setMaximumSize(long maximumSize) {
+        if (maximumSize == this.maximumSize) {
+            return;
+        }
+        Cache<String, String> resized = newCache(maximumSize);
+        resized.putAll(cache.asMap());
+        this.maximumSize = maximumSize;
+        this.cache = resized;
+    }
+
+    private static Cache<String, String> newCache(long maximumSize) {
+        return CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .build();
+    }
+}
@@ -0,0 +1,349 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.SetMultimap;
+import org.apache.shiro.authz.AuthorizationInfo;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An immutable snapshot of the role to DN mapping file. Snapshots are built off the request path and
+ * published as a whole, so a reader always sees one consistent version of the mapping.
+ * <p>
+ * Every normalized DN maps to a pre-built {@link AuthorizationInfo}; DNs with identical role sets share
+ * the same instance. The exact entries live in a {@link DnIndex}: on the heap, where a lookup is a single
+ * hash probe that allocates nothing, or in a {@link MappedDnIndex} file for very large mappings. DNs
+ * without an exact entry fall through to the wildcard and subtree rules in an {@link RdnTrie}.
+ * <p>
+ * Composite roles are expanded through the {@link RoleHierarchy} while the snapshot is built, so every
+ * pre-built {@link AuthorizationInfo} already holds the implied roles and a lookup does no expansion. The
+ * roles each DN was declared with are kept alongside, so updates and saves work on what was granted.
+ * <p>
+ * Unmapped DNs take a shorter path: the heap index puts a {@link DnBloomFilter} in front of its map, and
+ * subjects that turned out to be unmapped are remembered, as presented and before normalization, in a
+ * bounded negative cache. Both belong to the snapshot, so they are rebuilt on every reload.
+ */
+public final class DnRoleMapping {
+
+    public static final String NEGATIVE_CACHE_SIZE = "X509DnAuthenticatingRealm.negative.cache.size";
+    public static final long DEFAULT_NEGATIVE_CACHE_SIZE = 10000;
+
+    private final long version;
+    private final DnIndex entries;
+    private final Cache<String, Boolean> unmappedSubjects;
+    private final RdnTrie rules;
+    private final ImmutableSetMultimap<String, String> rulePatterns;
+    private final RoleHierarchy roleHierarchy;
+    private final int distinctRoleSets;
+    private final ConcurrentMap<Set<String>, AuthorizationInfo> mergedRuleResults = new ConcurrentHashMap<>();
+    private final Function<Set<String>, AuthorizationInfo> mergedRuleInterner = new Function<Set<String>, AuthorizationInfo>() {
+        @Override
+        public AuthorizationInfo apply(Set<String> roles) {
+            AuthorizationInfo authorizationInfo = mergedRuleResults.get(roles);
+            if (authorizationInfo == null) {
+                RoleSetAuthorizationInfo created = new RoleSetAuthorizationInfo(roles);
+                authorizationInfo = mergedRuleResults.putIfAbsent(created.getRoles(), created);
+                if (authorizationInfo == null) {
+                    authorizationInfo = created;
+                }
+            }
+            return authorizationInfo;
+        }
+    };
+
+    private DnRoleMapping(long version, DnIndex entries, RdnTrie rules,
+                          ImmutableSetMultimap<String, String> rulePatterns, RoleHierarchy roleHierarchy,
+                          int distinctRoleSets) {
+        this.version = version;
+        this.entries = entries;
+        this.rules = rules;
+        this.rulePatterns = rulePatterns;
+        this.roleHierarchy = roleHierarchy;
+        this.distinctRoleSets = distinctRoleSets;
+        this.unmappedSubjects = CacheBuilder.newBuilder()
+                .maximumSize(Long.getLong(NEGATIVE_CACHE_SIZE, DEFAULT_NEGATIVE_CACHE_SIZE))
+                .build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return a number that increases every time a new mapping is published.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Exact entries take precedence; otherwise the roles of every matching rule are merged.
+     *
+     * @return the shared authorization info for the DN, or null if the DN is not mapped.
+     */
+    public AuthorizationInfo getAuthorizationInfo(String normalizedDn) {
+        AuthorizationInfo authorizationInfo = entries.get(normalizedDn);
+        if (authorizationInfo != null || rules.isEmpty()) {
+            return authorizationInfo;
+        }
+        return rules.match(normalizedDn, mergedRuleInterner);
+    }
+
+    /**
+     * @return the roles the DN is granted in the mapping, without the roles they imply, or null if the DN has
+     * no exact entry.
+     */
+    public Set<String> getDeclaredRoles(String normalizedDn) {
+        AuthorizationInfo authorizationInfo = entries.get(normalizedDn);
+        if (authorizationInfo instanceof RoleSetAuthorizationInfo) {
+            return ((RoleSetAuthorizationInfo) authorizationInfo).getDeclaredRoles();
+        }
+        return authorizationInfo != null ? ImmutableSet.copyOf(authorizationInfo.getRoles()) : null;
+    }
+
+    /**
+     * @return true if the subject, exactly as presented, was found to be unmapped in this snapshot.
+     */
+    public boolean isKnownUnmapped(String subjectDn) {
+        return unmappedSubjects.getIfPresent(subjectDn) != null;
+    }
+
+    /**
+     * Remembers that the subject, exactly as presented, is not mapped in this snapshot.
+     */
+    public void rememberUnmapped(String subjectDn) {
+        unmappedSubjects.put(subjectDn, Boolean.TRUE);
+    }
+
+    public long getNegativeCacheSize() {
+        return unmappedSubjects.size();
+    }
+
+    /**
+     * @return the DNs that have an exact entry.
+     */
+    public Set<String> getDns() {
+        return entries.getDns();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public DnIndex getIndex() {
+        return entries;
+    }
+
+    public int getRuleCount() {
+        return rules.getRuleCount();
+    }
+
+    /**
+     * @return the wildcard and subtree rules as written in the mapping file, with their roles.
+     */
+    public ImmutableSetMultimap<String, String> getRulePatterns() {
+        return rulePatterns;
+    }
+
+    public RoleHierarchy getRoleHierarchy() {
+        return roleHierarchy;
+    }
+
+    public int getDistinctRoleSets() {
+        return distinctRoleSets;
+    }
+
+    /**
+     * Copy-on-write: the returned snapshot shares this one's entries and only records the DNs the update
+     * touches, in an {@link OverlayDnIndex} that is folded into a heap index of its own once it has grown
+     * large. Neither the mapping file nor the untouched DNs are read again.
+     * Role sets already in use by the overlay or the touched DNs are reused rather than duplicated. Roles are
+     * granted and revoked on the roles the DN was declared with, so revoking a composite role keeps the roles
+     * it implies that were also granted directly.
+     */
+    public DnRoleMapping apply(MappingUpdate update, long version) {
+        Map<String, Set<String>> changedRoles = new HashMap<>();
+        SetMultimap<String, String> newRulePatterns = HashMultimap.create(rulePatterns);
+        for (MappingUpdate.Operation operation : update.getOperations()) {
+            if (operation.isRule()) {
+                if (operation.isAdd()) {
+                    newRulePatterns.put(operation.getDn(), operation.getRole());
+                } else {
+                    newRulePatterns.remove(operation.getDn(), operation.getRole());
+                }
+                continue;
+            }
+            Set<String> roles = changedRoles.get(operation.getDn());
+            if (roles == null) {
+                Set<String> declared = getDeclaredRoles(operation.getDn());
+                roles = declared != null ? new HashSet<>(declared) : new HashSet<String>();
+                changedRoles.put(operation.getDn(), roles);
+            }
+            if (operation.isAdd()) {
+                roles.add(operation.getRole());
+            } else {
+                roles.remove(operation.getRole());
+            }
+        }
+        Map<Set<String>, RoleSetAuthorizationInfo> interned = new HashMap<>();
+        Map<Set<String>, RoleSetAuthorizationInfo> byDeclaredRoles = new HashMap<>();
+        Iterable<AuthorizationInfo> inUse = entries instanceof OverlayDnIndex
+                ? ((OverlayDnIndex) entries).getOverrides() : Collections.<AuthorizationInfo>emptyList();
+        for (AuthorizationInfo authorizationInfo : Iterables.concat(inUse, Iterables.transform(changedRoles.keySet(),
+                new Function<String, AuthorizationInfo>() {
+                    @Override
+                    public AuthorizationInfo apply(String dn) {
+                        return entries.get(dn);
+                    }
+                }))) {
+            if (authorizationInfo instanceof RoleSetAuthorizationInfo) {
+                RoleSetAuthorizationInfo roleSet = (RoleSetAuthorizationInfo) authorizationInfo;
+                interned.put(roleSet.getRoles(), roleSet);
+                byDeclaredRoles.put(roleSet.getDeclaredRoles(), roleSet);
+            }
+        }
+        int reused = interned.size();
+        Function<Set<String>, RoleSetAuthorizationInfo> interner = Builder.interner(interned, byDeclaredRoles,
+                roleHierarchy);
+        Map<String, AuthorizationInfo> changes = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry : changedRoles.entrySet()) {
+            changes.put(entry.getKey(), entry.getValue().isEmpty() ? null : interner.apply(entry.getValue()));
+        }
+        Builder builder = builder().addImplications(roleHierarchy.getImplications());
+        for (Map.Entry<String, String> rule : newRulePatterns.entries()) {
+            builder.addRule(rule.getValue(), rule.getKey());
+        }
+        return builder.build(version, OverlayDnIndex.of(entries, changes, interned.size() - reused));
+    }
+
+    /**
+     * Collects (role, DN) pairs and rules and compiles them into a {@link DnRoleMapping}.
+     */
+    public static final class Builder {
+        private final SetMultimap<String, String> dnToRoleMultimap = HashMultimap.create();
+        private final RdnTrie.Builder rules = new RdnTrie.Builder();
+        private final ImmutableSetMultimap.Builder<String, String> rulePatterns = ImmutableSetMultimap.builder();
+        private final SetMultimap<String, String> roleImplications = HashMultimap.create();
+
+        private Builder() {
+        }
+
+        public Builder add(String role, String normalizedDn) {
+            dnToRoleMultimap.put(normalizedDn, role);
+            return this;
+        }
+
+        public Builder addAll(String normalizedDn, Collection<String> roles) {
+            dnToRoleMultimap.putAll(normalizedDn, roles);
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the pattern is not a valid rule.
+         */
+        public Builder addRule(String role, String rawPattern) {
+            rules.add(role, rawPattern);
+            rulePatterns.put(rawPattern.trim(), role);
+            return this;
+        }
+
+        /**
+         * Declares that every DN or rule granted the role is also granted the implied role.
+         */
+        public Builder addImplication(String role, String impliedRole) {
+            roleImplications.put(role, impliedRole);
+            return this;
+        }
+
+        public Builder addImplications(SetMultimap<String, String> implications) {
+            roleImplications.putAll(implications);
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the role implications contain a cycle.
+         */
+        public DnRoleMapping build(long version) {
+            RoleHierarchy roleHierarchy = RoleHierarchy.of(roleImplications);
+            Map<Set<String>, RoleSetAuthorizationInfo> interned = new HashMap<>();
+            Function<Set<String>, RoleSetAuthorizationInfo> interner = interner(interned,
+                    new HashMap<Set<String>, RoleSetAuthorizationInfo>(), roleHierarchy);
+            ImmutableMap.Builder<String, AuthorizationInfo> authorizationInfoByDn = ImmutableMap.builder();
+            for (Map.Entry<String, Collection<String>> entry : dnToRoleMultimap.asMap().entrySet()) {
+                authorizationInfoByDn.put(entry.getKey(), interner.apply((Set<String>) entry.getValue()));
+            }
+            RdnTrie compiledRules = rules.build(interner);
+            return new DnRoleMapping(version, new HeapDnIndex(authorizationInfoByDn.build(), interned.size()),
+                    compiledRules, rulePatterns.build(), roleHierarchy, interned.size());
+        }
+
+        /**
+         * Compiles only the rules of this builder; the exact entries come from the given index, whose role
+         * sets must already be expanded and keep the roles they were declared with.
+         *
+         * @throws IllegalArgumentException if the role implications contain a cycle.
+         */
+        public DnRoleMapping build(long version, DnIndex exactEntries) {
+            RoleHierarchy roleHierarchy = RoleHierarchy.of(roleImplications);
+            Map<Set<String>, RoleSetAuthorizationInfo> interned = new HashMap<>();
+            RdnTrie compiledRules = rules.build(interner(interned,
+                    new HashMap<Set<String>, RoleSetAuthorizationInfo>(), roleHierarchy));
+            return new DnRoleMapping(version, exactEntries, compiledRules, rulePatterns.build(), roleHierarchy,
+                    exactEntries.getDistinctRoleSets() + interned.size());
+        }
+
+        /**
+         * Expands each declared role set once and shares one set of roles per expanded set; declared sets that
+         * expand to more roles get an instance of their own around the shared set.
+         */
+        private static Function<Set<String>, RoleSetAuthorizationInfo> interner(
+                final Map<Set<String>, RoleSetAuthorizationInfo> interned,
+                final Map<Set<String>, RoleSetAuthorizationInfo> byDeclaredRoles, final RoleHierarchy roleHierarchy) {
+            if (roleHierarchy.isEmpty()) {
+                return new Function<Set<String>, RoleSetAuthorizationInfo>() {
+                    @Override
+                    public RoleSetAuthorizationInfo apply(Set<String> roles) {
+                        return intern(interned, roles);
+                    }
+                };
+            }
+            return new Function<Set<String>, RoleSetAuthorizationInfo>() {
+                @Override
+                public RoleSetAuthorizationInfo apply(Set<String> roles) {
+                    RoleSetAuthorizationInfo authorizationInfo = byDeclaredRoles.get(roles);
+                    if (authorizationInfo == null) {
+                        RoleSetAuthorizationInfo expanded = intern(interned, roleHierarchy.expand(roles));
+                        authorizationInfo = expanded.getDeclaredRoles().equals(roles) ? expanded
+                                : new RoleSetAuthorizationInfo(expanded, roles);
+                        byDeclaredRoles.put(authorizationInfo.getDeclaredRoles(), authorizationInfo);
+                    }
+                    return authorizationInfo;
+                }
+            };
+        }
+
+        private static RoleSetAuthorizationInfo intern(Map<Set<String>, RoleSetAuthorizationInfo> interned,
+                                                       Set<String> roles) {
+            RoleSetAuthorizationInfo authorizationInfo = interned.get(roles);
+            if (authorizationInfo == null) {
+                authorizationInfo = new RoleSetAuthorizationInfo(roles);
+                interned.put(authorizationInfo.getRoles(), authorizationInfo);
+            }
+            return authorizationInfo;
+        }
+    }
+}
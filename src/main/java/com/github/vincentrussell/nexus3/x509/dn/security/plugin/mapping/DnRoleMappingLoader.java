@@ -0,0 +1,402 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.util.FileWatcher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.SortedSetMultimap;
+import com.google.common.collect.TreeMultimap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.events.AliasEvent;
+import org.yaml.snakeyaml.events.DocumentStartEvent;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.MappingEndEvent;
+import org.yaml.snakeyaml.events.MappingStartEvent;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.events.SequenceEndEvent;
+import org.yaml.snakeyaml.events.SequenceStartEvent;
+import org.yaml.snakeyaml.events.StreamEndEvent;
+import org.yaml.snakeyaml.events.StreamStartEvent;
+import org.yaml.snakeyaml.nodes.MappingNode;
+import org.yaml.snakeyaml.nodes.Node;
+import org.yaml.snakeyaml.nodes.NodeTuple;
+import org.yaml.snakeyaml.nodes.ScalarNode;
+import org.yaml.snakeyaml.nodes.SequenceNode;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses the yaml mapping file into a {@link DnRoleMapping}.
+ * <p>
+ * The file is read with SnakeYAML's event API, so (role, DN) pairs are produced incrementally instead of
+ * materializing the whole document first. Pairs are normalized in batches on a fork-join pool and fed, in
+ * file order, straight into the {@link DnRoleMapping.Builder}; only a bounded number of batches are in
+ * flight at a time. A file that uses aliases ({@code *name}) is read again as a node tree, in which
+ * SnakeYAML has resolved them, and fed into the same pipeline.
+ * <p>
+ * The reserved top-level key {@value #ROLES_KEY} maps composite roles to the roles they imply, so a DN
+ * listed under a composite role does not have to be repeated under each implied role:
+ * <pre>
+ * _roles:
+ *     ci-deployer: [nx-deploy, nx-readonly]
+ * ci-deployer:
+ *     - CN=agent-17, OU=Build, O=Corp, C=US
+ * </pre>
+ * <p>
+ * When a {@link MappingSnapshotStore} is configured, a compiled snapshot whose hash matches the yaml is
+ * used instead of parsing it, and a fresh snapshot is written in the background whenever the yaml had
+ * to be parsed.
+ */
+public class DnRoleMappingLoader implements MappingBackend {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DnRoleMappingLoader.class);
+
+    /**
+     * The top-level key under which composite roles list the roles they imply.
+     */
+    public static final String ROLES_KEY = "_roles";
+
+    private static final int BATCH_SIZE = 2048;
+    private static final ForkJoinPool NORMALIZATION_POOL = new ForkJoinPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+
+    private final File configFile;
+    private final MappingSnapshotStore snapshotStore;
+
+    public DnRoleMappingLoader(File configFile) {
+        this(configFile, null);
+    }
+
+    public DnRoleMappingLoader(File configFile, MappingSnapshotStore snapshotStore) {
+        this.configFile = configFile;
+        this.snapshotStore = snapshotStore;
+    }
+
+    public File getConfigFile() {
+        return configFile;
+    }
+
+    @Override
+    public List<File> getWatchedFiles() {
+        return ImmutableList.of(configFile);
+    }
+
+    /**
+     * Writes the mapping as a map of roles to sorted lists of normalized DNs and rule patterns, with each DN
+     * listed under the roles it was declared with. Comments and the original
+     * spelling of the DNs are not preserved.
+     */
+    @Override
+    public Map<File, FileWatcher.Fingerprint> save(DnRoleMapping mapping) throws IOException {
+        RoleHierarchy roleHierarchy = mapping.getRoleHierarchy();
+        SortedSetMultimap<String, String> dnsByRole = TreeMultimap.create();
+        for (String dn : mapping.getDns()) {
+            for (String role : mapping.getDeclaredRoles(dn)) {
+                dnsByRole.put(role, dn);
+            }
+        }
+        for (Map.Entry<String, String> rule : mapping.getRulePatterns().entries()) {
+            dnsByRole.put(rule.getValue(), rule.getKey());
+        }
+        Map<String, Object> document = new LinkedHashMap<>();
+        if (!roleHierarchy.isEmpty()) {
+            Map<String, List<String>> implications = new TreeMap<>();
+            for (Map.Entry<String, Collection<String>> entry : roleHierarchy.getImplications().asMap().entrySet()) {
+                implications.put(entry.getKey(), new ArrayList<>(new TreeSet<>(entry.getValue())));
+            }
+            document.put(ROLES_KEY, implications);
+        }
+        for (String role : dnsByRole.keySet()) {
+            document.put(role, new ArrayList<>(dnsByRole.get(role)));
+        }
+        DumperOptions options = new DumperOptions();
+        options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+        File temporaryFile = new File(configFile.getAbsoluteFile().getParentFile(), configFile.getName() + ".tmp");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporaryFile),
+                StandardCharsets.UTF_8))) {
+            new Yaml(options).dump(document, writer);
+        }
+        FileWatcher.Fingerprint written = FileWatcher.Fingerprint.of(temporaryFile);
+        Files.move(temporaryFile.toPath(), configFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return ImmutableMap.of(configFile, written);
+    }
+
+    /**
+     * @throws IllegalStateException if the file cannot be read or is not a map of roles to lists of DNs.
+     */
+    @Override
+    public DnRoleMapping load(long version) {
+        if (snapshotStore == null) {
+            return parse(version);
+        }
+        long start = System.nanoTime();
+        byte[] sourceHash = hash();
+        DnRoleMapping snapshot = snapshotStore.readIfCurrent(sourceHash, version);
+        if (snapshot != null) {
+            LOGGER.info("loaded {} from snapshot {} ({} DNs, {} rules) in {} ms", configFile,
+                    snapshotStore.getSnapshotFile(), snapshot.size(), snapshot.getRuleCount(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return snapshot;
+        }
+        DnRoleMapping mapping = parse(version);
+        if (Arrays.equals(sourceHash, hash())) {
+            snapshotStore.writeAsync(mapping, sourceHash);
+        }
+        return mapping;
+    }
+
+    private byte[] hash() {
+        try {
+            return MappingSnapshotStore.sha256(configFile);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private DnRoleMapping parse(long version) {
+        long start = System.nanoTime();
+        try {
+            Pipeline pipeline = new Pipeline(DnRoleMapping.builder());
+            try (Reader reader = openConfigFile()) {
+                readDocument(new Yaml().parse(reader).iterator(), pipeline);
+            } catch (AliasFound e) {
+                LOGGER.debug("{} uses aliases, reading it as a node tree", configFile);
+                pipeline = new Pipeline(DnRoleMapping.builder());
+                try (Reader reader = openConfigFile()) {
+                    readTree(new Yaml().compose(reader), pipeline);
+                }
+            }
+            pipeline.finish();
+            DnRoleMapping mapping = pipeline.builder.build(version);
+            LOGGER.info("loaded {} with {} entries ({} DNs, {} rules, {} distinct role sets) in {} ms",
+                    configFile, pipeline.entries, mapping.size(), mapping.getRuleCount(),
+                    mapping.getDistinctRoleSets(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return mapping;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Reader openConfigFile() throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(configFile), StandardCharsets.UTF_8));
+    }
+
+    private static void readDocument(Iterator<Event> events, Pipeline pipeline)
+            throws ExecutionException, InterruptedException {
+        expect(events, StreamStartEvent.class);
+        expect(events, DocumentStartEvent.class);
+        expect(events, MappingStartEvent.class);
+        Event event = events.next();
+        while (!(event instanceof MappingEndEvent)) {
+            String role = scalar(event);
+            if (ROLES_KEY.equals(role)) {
+                readRoleImplications(events, pipeline.builder);
+                event = events.next();
+                continue;
+            }
+            expect(events, SequenceStartEvent.class);
+            for (event = events.next(); !(event instanceof SequenceEndEvent); event = events.next()) {
+                pipeline.add(role, scalar(event));
+            }
+            event = events.next();
+        }
+        events.next();
+        if (!(events.next() instanceof StreamEndEvent)) {
+            throw new IllegalStateException("the mapping file must contain a single document");
+        }
+    }
+
+    private static void readRoleImplications(Iterator<Event> events, DnRoleMapping.Builder builder) {
+        expect(events, MappingStartEvent.class);
+        for (Event event = events.next(); !(event instanceof MappingEndEvent); event = events.next()) {
+            String role = scalar(event);
+            expect(events, SequenceStartEvent.class);
+            for (event = events.next(); !(event instanceof SequenceEndEvent); event = events.next()) {
+                builder.addImplication(role, scalar(event));
+            }
+        }
+    }
+
+    /**
+     * Reads a document in which SnakeYAML has already resolved the aliases; same structure as
+     * {@link #readDocument(Iterator, Pipeline)}.
+     */
+    private static void readTree(Node document, Pipeline pipeline) throws ExecutionException, InterruptedException {
+        for (NodeTuple entry : mapping(document).getValue()) {
+            String role = scalar(entry.getKeyNode());
+            if (ROLES_KEY.equals(role)) {
+                for (NodeTuple implication : mapping(entry.getValueNode()).getValue()) {
+                    String composite = scalar(implication.getKeyNode());
+                    for (Node implied : sequence(implication.getValueNode()).getValue()) {
+                        pipeline.builder.addImplication(composite, scalar(implied));
+                    }
+                }
+                continue;
+            }
+            for (Node dn : sequence(entry.getValueNode()).getValue()) {
+                pipeline.add(role, scalar(dn));
+            }
+        }
+    }
+
+    private static MappingNode mapping(Node node) {
+        if (!(node instanceof MappingNode)) {
+            throw new IllegalStateException("expected a map but found " + node);
+        }
+        return (MappingNode) node;
+    }
+
+    private static SequenceNode sequence(Node node) {
+        if (!(node instanceof SequenceNode)) {
+            throw new IllegalStateException("expected a list but found " + node);
+        }
+        return (SequenceNode) node;
+    }
+
+    private static String scalar(Node node) {
+        if (!(node instanceof ScalarNode)) {
+            throw new IllegalStateException("expected a scalar but found " + node);
+        }
+        return ((ScalarNode) node).getValue();
+    }
+
+    private static String scalar(Event event) {
+        if (event instanceof AliasEvent) {
+            throw new AliasFound();
+        }
+        if (!(event instanceof ScalarEvent)) {
+            throw new IllegalStateException("expected a scalar but found " + event);
+        }
+        return ((ScalarEvent) event).getValue();
+    }
+
+    private static void expect(Iterator<Event> events, Class<? extends Event> type) {
+        if (!events.hasNext()) {
+            throw new IllegalStateException("unexpected end of the mapping file");
+        }
+        Event event = events.next();
+        if (event instanceof AliasEvent) {
+            throw new AliasFound();
+        }
+        if (!type.isInstance(event)) {
+            throw new IllegalStateException("expected " + type.getSimpleName() + " but found " + event);
+        }
+    }
+
+    /**
+     * Thrown by the streaming reader when it meets an alias, which it does not resolve.
+     */
+    private static final class AliasFound extends RuntimeException {
+        AliasFound() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Batches pairs, normalizes the batches in parallel and drains them into the builder in order.
+     */
+    private static final class Pipeline {
+        private final DnRoleMapping.Builder builder;
+        private final Deque<NormalizeBatch> inFlight = new ArrayDeque<>();
+        private final int maxInFlight = NORMALIZATION_POOL.getParallelism() * 2;
+        private NormalizeBatch current = new NormalizeBatch();
+        private long entries;
+
+        Pipeline(DnRoleMapping.Builder builder) {
+            this.builder = builder;
+        }
+
+        void add(String role, String dn) throws ExecutionException, InterruptedException {
+            entries++;
+            if (RdnTrie.isPattern(dn)) {
+                builder.addRule(role, dn);
+                return;
+            }
+            current.add(role, dn);
+            if (current.count == BATCH_SIZE) {
+                submit();
+            }
+        }
+
+        void finish() throws ExecutionException, InterruptedException {
+            if (current.count > 0) {
+                submit();
+            }
+            while (!inFlight.isEmpty()) {
+                drain(inFlight.removeFirst());
+            }
+        }
+
+        private void submit() throws ExecutionException, InterruptedException {
+            inFlight.addLast(current);
+            NORMALIZATION_POOL.execute(current);
+            current = new NormalizeBatch();
+            if (inFlight.size() > maxInFlight) {
+                drain(inFlight.removeFirst());
+            }
+        }
+
+        private void drain(NormalizeBatch batch) throws ExecutionException, InterruptedException {
+            batch.get();
+            for (int i = 0; i < batch.count; i++) {
+                builder.add(batch.roles[i], batch.dns[i]);
+            }
+        }
+    }
+
+    private static final class NormalizeBatch extends RecursiveAction {
+        private final String[] roles = new String[BATCH_SIZE];
+        private final String[] dns = new String[BATCH_SIZE];
+        private int count;
+
+        void add(String role, String dn) {
+            roles[count] = role;
+            dns[count] = dn;
+            count++;
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = 0; i < count; i++) {
+                try {
+                    dns[i] = DnNormalizer.canonicalize(dns[i]);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("invalid DN for role " + roles[i] + ": " + dns[i], e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.shiro.authz.AuthorizationInfo;
+
+import java.util.Set;
+
+/**
+ * Keeps every exact entry on the heap, behind a {@link DnBloomFilter} that answers most misses without
+ * probing the map.
+ */
+final class HeapDnIndex implements DnIndex {
+
+    private final ImmutableMap<String, AuthorizationInfo> authorizationInfoByDn;
+    private final DnBloomFilter dnFilter;
+    private final int distinctRoleSets;
+
+    HeapDnIndex(ImmutableMap<String, AuthorizationInfo> authorizationInfoByDn, int distinctRoleSets) {
+        this.authorizationInfoByDn = authorizationInfoByDn;
+        this.dnFilter = new DnBloomFilter(authorizationInfoByDn.keySet());
+        this.distinctRoleSets = distinctRoleSets;
+    }
+
+    @Override
+    public AuthorizationInfo get(String normalizedDn) {
+        return dnFilter.mightContain(normalizedDn) ? authorizationInfoByDn.get(normalizedDn) : null;
+    }
+
+    @Override
+    public Set<String> getDns() {
+        return authorizationInfoByDn.keySet();
+    }
+
+    @Override
+    public int size() {
+        return authorizationInfoByDn.size();
+    }
+
+    @Override
+    public int getDistinctRoleSets() {
+        return distinctRoleSets;
+    }
+}
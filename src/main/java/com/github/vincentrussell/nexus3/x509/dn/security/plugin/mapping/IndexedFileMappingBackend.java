@@ -0,0 +1,86 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.util.FileWatcher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the mapping from a {@link MappedDnIndex} file instead of the yaml, for mappings too large to keep
+ * on the heap. The index file is the source of truth and is watched for changes; if it does not exist yet
+ * it is created once from the yaml mapping file.
+ */
+public class IndexedFileMappingBackend implements MappingBackend {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexedFileMappingBackend.class);
+
+    public static final long DEFAULT_HOT_CACHE_SIZE = 10000;
+
+    private final File indexFile;
+    private final File yamlFile;
+    private final long hotCacheSize;
+
+    /**
+     * @param yamlFile imported when the index file does not exist; may be null.
+     */
+    public IndexedFileMappingBackend(File indexFile, File yamlFile, long hotCacheSize) {
+        this.indexFile = indexFile;
+        this.yamlFile = yamlFile;
+        this.hotCacheSize = hotCacheSize;
+    }
+
+    public static File nextTo(File configFile) {
+        return new File(configFile.getAbsoluteFile().getParentFile(), configFile.getName() + ".index");
+    }
+
+    public File getIndexFile() {
+        return indexFile;
+    }
+
+    @Override
+    public DnRoleMapping load(long version) {
+        if (!indexFile.isFile()) {
+            importYaml(version);
+        }
+        long start = System.nanoTime();
+        MappedDnIndex index = MappedDnIndex.open(indexFile, hotCacheSize);
+        DnRoleMapping.Builder builder = DnRoleMapping.builder().addImplications(index.getRoleImplications());
+        for (Map.Entry<String, String> rule : index.getRulePatterns().entries()) {
+            builder.addRule(rule.getValue(), rule.getKey());
+        }
+        DnRoleMapping mapping = builder.build(version, index);
+        LOGGER.info("opened {} ({} DNs, {} rules) in {} ms", indexFile, mapping.size(), mapping.getRuleCount(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return mapping;
+    }
+
+    private void importYaml(long version) {
+        if (yamlFile == null || !yamlFile.isFile()) {
+            throw new IllegalStateException("DN index " + indexFile + " does not exist and there is no yaml to import");
+        }
+        DnRoleMapping mapping = new DnRoleMappingLoader(yamlFile).load(version);
+        try {
+            MappedDnIndex.write(indexFile, mapping);
+        } catch (IOException e) {
+            throw new IllegalStateException("could not write " + indexFile + ": " + e.getMessage(), e);
+        }
+        LOGGER.info("imported {} into {}", yamlFile, indexFile);
+    }
+
+    @Override
+    public Map<File, FileWatcher.Fingerprint> save(DnRoleMapping mapping) throws IOException {
+        return ImmutableMap.of(indexFile, MappedDnIndex.write(indexFile, mapping));
+    }
+
+    @Override
+    public List<File> getWatchedFiles() {
+        return ImmutableList.of(indexFile);
+    }
+}
@@ -0,0 +1,404 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.util.FileWatcher;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSetMultimap;
+import org.apache.shiro.authz.AuthorizationInfo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An on-disk {@link DnIndex}: an open-addressing hash table over the normalized DNs, read through a
+ * read-only memory mapping, so that mappings with millions of entries do not live on the heap. Only the
+ * distinct role sets, the rules and a small cache of recently looked up DNs are kept in memory.
+ * <p>
+ * Layout (big endian): a header with magic, format version, counts and section offsets; the role table,
+ * the table of distinct role sets as indexes into the role table, the wildcard rules with their roles and,
+ * since format version 2, the role implications as pairs of role indexes;
+ * the slot table, two ints per slot holding the hash of the DN and the offset of its record, or 0 if the
+ * slot is empty; and the records, each the index of its role set followed by the length and UTF-8 bytes of
+ * the DN. Files are limited to 2 GB.
+ * <p>
+ * Since format version 2 the role sets are stored as declared and expanded through the implications when
+ * the index is opened; version 1 files have no implications, so their role sets are taken as they are.
+ */
+public final class MappedDnIndex implements DnIndex {
+
+    static final int MAGIC = 0x58444e49;
+    static final int FORMAT_VERSION = 2;
+    private static final int HEADER_LENGTH = 40;
+    private static final int SLOT_LENGTH = 8;
+    private static final int RECORD_HEADER_LENGTH = 8;
+
+    private final File file;
+    private final ByteBuffer buffer;
+    private final int entries;
+    private final int slotMask;
+    private final int slotsOffset;
+    private final int dataOffset;
+    private final RoleSetAuthorizationInfo[] roleSets;
+    private final int distinctRoleSets;
+    private final ImmutableSetMultimap<String, String> rulePatterns;
+    private final ImmutableSetMultimap<String, String> roleImplications;
+    private final Cache<String, AuthorizationInfo> hotEntries;
+    private final Set<String> dns = new AbstractSet<String>() {
+        @Override
+        public Iterator<String> iterator() {
+            return new RecordIterator();
+        }
+
+        @Override
+        public int size() {
+            return entries;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof String && probe((String) o) != null;
+        }
+    };
+
+    private MappedDnIndex(File file, ByteBuffer buffer, long hotCacheSize) {
+        this.file = file;
+        this.buffer = buffer;
+        int formatVersion = buffer.getInt(4);
+        if (buffer.limit() < HEADER_LENGTH || buffer.getInt(0) != MAGIC || formatVersion < 1
+                || formatVersion > FORMAT_VERSION) {
+            throw new IllegalStateException(file + " is not a DN index");
+        }
+        entries = buffer.getInt(8);
+        int slotCount = buffer.getInt(12);
+        int roleCount = buffer.getInt(16);
+        int roleSetCount = buffer.getInt(20);
+        int ruleCount = buffer.getInt(24);
+        int metaOffset = buffer.getInt(28);
+        slotsOffset = buffer.getInt(32);
+        dataOffset = buffer.getInt(36);
+        slotMask = slotCount - 1;
+        if (Integer.bitCount(slotCount) != 1 || dataOffset < slotsOffset || dataOffset > buffer.limit()) {
+            throw new IllegalStateException(file + " has a corrupt header");
+        }
+
+        ByteBuffer meta = buffer.duplicate();
+        meta.position(metaOffset);
+        String[] roles = new String[roleCount];
+        for (int i = 0; i < roleCount; i++) {
+            roles[i] = readString(meta);
+        }
+        List<Set<String>> declaredRoleSets = new ArrayList<>(roleSetCount);
+        for (int i = 0; i < roleSetCount; i++) {
+            String[] roleSet = new String[meta.getInt()];
+            for (int j = 0; j < roleSet.length; j++) {
+                roleSet[j] = roles[meta.getInt()];
+            }
+            declaredRoleSets.add(new HashSet<>(Arrays.asList(roleSet)));
+        }
+        ImmutableSetMultimap.Builder<String, String> rules = ImmutableSetMultimap.builder();
+        for (int i = 0; i < ruleCount; i++) {
+            String pattern = readString(meta);
+            rules.put(pattern, roles[meta.getInt()]);
+        }
+        rulePatterns = rules.build();
+        ImmutableSetMultimap.Builder<String, String> implications = ImmutableSetMultimap.builder();
+        for (int i = formatVersion > 1 ? meta.getInt() : 0; i > 0; i--) {
+            String role = roles[meta.getInt()];
+            implications.put(role, roles[meta.getInt()]);
+        }
+        roleImplications = implications.build();
+        RoleHierarchy roleHierarchy = formatVersion > 1 ? RoleHierarchy.of(roleImplications) : RoleHierarchy.empty();
+        Map<Set<String>, RoleSetAuthorizationInfo> expandedRoleSets = new HashMap<>();
+        roleSets = new RoleSetAuthorizationInfo[roleSetCount];
+        for (int i = 0; i < roleSetCount; i++) {
+            Set<String> declared = declaredRoleSets.get(i);
+            Set<String> expandedRoles = roleHierarchy.expand(declared);
+            RoleSetAuthorizationInfo expanded = expandedRoleSets.get(expandedRoles);
+            if (expanded == null) {
+                expanded = new RoleSetAuthorizationInfo(expandedRoles);
+                expandedRoleSets.put(expanded.getRoles(), expanded);
+            }
+            roleSets[i] = expanded.getRoles().equals(declared) ? expanded
+                    : new RoleSetAuthorizationInfo(expanded, declared);
+        }
+        distinctRoleSets = expandedRoleSets.size();
+        hotEntries = CacheBuilder.newBuilder()
+                .maximumSize(hotCacheSize)
+                .build();
+    }
+
+    /**
+     * @param hotCacheSize the number of recently looked up DNs kept on the heap.
+     * @throws IllegalStateException if the file cannot be read or is not a DN index.
+     */
+    public static MappedDnIndex open(File file, long hotCacheSize) {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedDnIndex(file, buffer, hotCacheSize);
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalStateException("could not open " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes the exact entries and rules of the mapping to the file, replacing it atomically. The DNs are
+     * read twice and written straight into a mapping of the new file, so this needs no more heap than the
+     * mapping itself.
+     *
+     * @return the fingerprint of the content written.
+     * @throws IllegalStateException if the index would exceed 2 GB.
+     */
+    public static FileWatcher.Fingerprint write(File file, DnRoleMapping mapping) throws IOException {
+        Map<String, Integer> roleIndexes = new HashMap<>();
+        List<String> roles = new ArrayList<>();
+        Map<Set<String>, Integer> roleSetIndexes = new HashMap<>();
+        List<Set<String>> roleSets = new ArrayList<>();
+        long dataLength = 0;
+        int entries = 0;
+        for (String dn : mapping.getDns()) {
+            Set<String> roleSet = roles(mapping, dn);
+            if (!roleSetIndexes.containsKey(roleSet)) {
+                roleSetIndexes.put(roleSet, roleSets.size());
+                roleSets.add(roleSet);
+                for (String role : roleSet) {
+                    indexOf(role, roleIndexes, roles);
+                }
+            }
+            dataLength += RECORD_HEADER_LENGTH + dn.getBytes(StandardCharsets.UTF_8).length;
+            entries++;
+        }
+        for (String role : mapping.getRulePatterns().values()) {
+            indexOf(role, roleIndexes, roles);
+        }
+        ImmutableSetMultimap<String, String> implications = mapping.getRoleHierarchy().getImplications();
+        for (Map.Entry<String, String> implication : implications.entries()) {
+            indexOf(implication.getKey(), roleIndexes, roles);
+            indexOf(implication.getValue(), roleIndexes, roles);
+        }
+
+        ByteArrayOutputStream metaBytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(metaBytes)) {
+            for (String role : roles) {
+                writeString(out, role);
+            }
+            for (Set<String> roleSet : roleSets) {
+                out.writeInt(roleSet.size());
+                for (String role : roleSet) {
+                    out.writeInt(roleIndexes.get(role));
+                }
+            }
+            for (Map.Entry<String, String> rule : mapping.getRulePatterns().entries()) {
+                writeString(out, rule.getKey());
+                out.writeInt(roleIndexes.get(rule.getValue()));
+            }
+            out.writeInt(implications.size());
+            for (Map.Entry<String, String> implication : implications.entries()) {
+                out.writeInt(roleIndexes.get(implication.getKey()));
+                out.writeInt(roleIndexes.get(implication.getValue()));
+            }
+        }
+        int slotCount = Integer.highestOneBit(Math.max(8, entries * 2 - 1)) << 1;
+        long slotsOffset = HEADER_LENGTH + metaBytes.size();
+        long dataOffset = slotsOffset + (long) slotCount * SLOT_LENGTH;
+        long length = dataOffset + dataLength;
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalStateException("a DN index of " + entries + " entries would exceed 2 GB");
+        }
+
+        File temporaryFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(temporaryFile, "rw");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            randomAccessFile.setLength(0);
+            randomAccessFile.setLength(length);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(entries).putInt(slotCount).putInt(roles.size())
+                    .putInt(roleSets.size()).putInt(mapping.getRulePatterns().size()).putInt(HEADER_LENGTH)
+                    .putInt((int) slotsOffset).putInt((int) dataOffset);
+            buffer.put(metaBytes.toByteArray());
+            int mask = slotCount - 1;
+            int position = (int) dataOffset;
+            for (String dn : mapping.getDns()) {
+                byte[] bytes = dn.getBytes(StandardCharsets.UTF_8);
+                buffer.putInt(position, roleSetIndexes.get(roles(mapping, dn)));
+                buffer.putInt(position + 4, bytes.length);
+                buffer.position(position + RECORD_HEADER_LENGTH);
+                buffer.put(bytes);
+                int hash = hash(dn);
+                int slot = hash & mask;
+                while (buffer.getInt((int) slotsOffset + slot * SLOT_LENGTH + 4) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                buffer.putInt((int) slotsOffset + slot * SLOT_LENGTH, hash);
+                buffer.putInt((int) slotsOffset + slot * SLOT_LENGTH + 4, position);
+                position += RECORD_HEADER_LENGTH + bytes.length;
+            }
+            buffer.force();
+        }
+        FileWatcher.Fingerprint written = FileWatcher.Fingerprint.of(temporaryFile);
+        Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return written;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the wildcard and subtree rules stored with the index, with their roles.
+     */
+    public ImmutableSetMultimap<String, String> getRulePatterns() {
+        return rulePatterns;
+    }
+
+    /**
+     * @return the role implications stored with the index, already applied to the role sets it returns.
+     */
+    public ImmutableSetMultimap<String, String> getRoleImplications() {
+        return roleImplications;
+    }
+
+    @Override
+    public AuthorizationInfo get(String normalizedDn) {
+        AuthorizationInfo authorizationInfo = hotEntries.getIfPresent(normalizedDn);
+        if (authorizationInfo == null) {
+            authorizationInfo = probe(normalizedDn);
+            if (authorizationInfo != null) {
+                hotEntries.put(normalizedDn, authorizationInfo);
+            }
+        }
+        return authorizationInfo;
+    }
+
+    @Override
+    public Set<String> getDns() {
+        return dns;
+    }
+
+    @Override
+    public int size() {
+        return entries;
+    }
+
+    @Override
+    public int getDistinctRoleSets() {
+        return distinctRoleSets;
+    }
+
+    public long getHotEntryCount() {
+        return hotEntries.size();
+    }
+
+    private AuthorizationInfo probe(String dn) {
+        int hash = hash(dn);
+        byte[] bytes = null;
+        for (int slot = hash & slotMask; ; slot = (slot + 1) & slotMask) {
+            int base = slotsOffset + slot * SLOT_LENGTH;
+            int position = buffer.getInt(base + 4);
+            if (position == 0) {
+                return null;
+            }
+            if (buffer.getInt(base) == hash) {
+                if (bytes == null) {
+                    bytes = dn.getBytes(StandardCharsets.UTF_8);
+                }
+                if (matches(position, bytes)) {
+                    return roleSets[buffer.getInt(position)];
+                }
+            }
+        }
+    }
+
+    private boolean matches(int position, byte[] bytes) {
+        if (buffer.getInt(position + 4) != bytes.length) {
+            return false;
+        }
+        int start = position + RECORD_HEADER_LENGTH;
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(start + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Set<String> roles(DnRoleMapping mapping, String dn) {
+        return mapping.getDeclaredRoles(dn);
+    }
+
+    private static int hash(String dn) {
+        int h = dn.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int indexOf(String role, Map<String, Integer> roleIndexes, List<String> roles) {
+        Integer index = roleIndexes.get(role);
+        if (index == null) {
+            index = roles.size();
+            roleIndexes.put(role, index);
+            roles.add(role);
+        }
+        return index;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private final class RecordIterator implements Iterator<String> {
+        private int position = dataOffset;
+        private int remaining = entries;
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public String next() {
+            if (remaining == 0) {
+                throw new NoSuchElementException();
+            }
+            byte[] bytes = new byte[buffer.getInt(position + 4)];
+            ByteBuffer record = buffer.duplicate();
+            record.position(position + RECORD_HEADER_LENGTH);
+            record.get(bytes);
+            position += RECORD_HEADER_LENGTH + bytes.length;
+            remaining--;
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
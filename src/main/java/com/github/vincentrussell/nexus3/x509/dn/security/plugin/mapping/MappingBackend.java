@@ -0,0 +1,34 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.util.FileWatcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where the {@link MappingReloader} gets its snapshots from.
+ */
+public interface MappingBackend {
+
+    /**
+     * @throws IllegalStateException if the mapping cannot be loaded.
+     */
+    DnRoleMapping load(long version);
+
+    /**
+     * @return the files whose changes trigger a reload.
+     */
+    List<File> getWatchedFiles();
+
+    /**
+     * Writes the mapping back, replacing the watched files atomically.
+     *
+     * @return the watched files replaced, each with the fingerprint of the content written to it, taken
+     * before it was moved into place.
+     * @throws MappingConflictException if the backend was changed by someone else since the mapping the
+     * snapshot was built on was loaded from it, and nothing was written.
+     */
+    Map<File, FileWatcher.Fingerprint> save(DnRoleMapping mapping) throws IOException;
+}
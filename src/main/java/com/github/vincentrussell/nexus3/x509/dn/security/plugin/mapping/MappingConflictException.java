@@ -0,0 +1,17 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a {@link MappingBackend} that refuses to save a snapshot because the mapping it holds was changed
+ * by someone else since the snapshot's base was loaded. Nothing has been written; the caller is expected to
+ * load the new mapping and apply its changes again on top of it.
+ */
+public class MappingConflictException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public MappingConflictException(String message) {
+        super(message);
+    }
+}
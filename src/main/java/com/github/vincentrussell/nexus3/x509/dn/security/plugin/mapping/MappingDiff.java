@@ -0,0 +1,132 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import org.apache.shiro.authz.AuthorizationInfo;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The differences between two versions of the mapping: which exact DNs gained or lost which roles, and
+ * whether the wildcard rules changed.
+ * <p>
+ * After a full reload the DNs are not compared up front, which would cost a pass over both mappings on
+ * every reload; {@link #affects(String)} compares the one DN it is asked about, and the full list of
+ * changes is worked out on the first call to {@link #getChanges()}.
+ */
+public final class MappingDiff {
+
+    private final DnRoleMapping previous;
+    private final DnRoleMapping current;
+    private final boolean rulesChanged;
+    private volatile ImmutableMap<String, Change> changes;
+
+    private MappingDiff(DnRoleMapping previous, DnRoleMapping current, ImmutableMap<String, Change> changes) {
+        this.previous = previous;
+        this.current = current;
+        this.changes = changes;
+        this.rulesChanged = !previous.getRulePatterns().equals(current.getRulePatterns())
+                || !previous.getRoleHierarchy().equals(current.getRoleHierarchy());
+    }
+
+    /**
+     * Compares DNs lazily, see above.
+     */
+    public static MappingDiff compute(DnRoleMapping previous, DnRoleMapping current) {
+        return new MappingDiff(previous, current, null);
+    }
+
+    /**
+     * Compares only the given DNs, at once; used when the caller knows which DNs a change could have touched.
+     */
+    public static MappingDiff compute(DnRoleMapping previous, DnRoleMapping current, Iterable<String> dns) {
+        return new MappingDiff(previous, current, compare(previous, current, dns));
+    }
+
+    private static ImmutableMap<String, Change> compare(DnRoleMapping previous, DnRoleMapping current,
+                                                        Iterable<String> dns) {
+        ImmutableMap.Builder<String, Change> changes = ImmutableMap.builder();
+        for (String dn : dns) {
+            Set<String> before = roles(previous, dn);
+            Set<String> after = roles(current, dn);
+            if (!before.equals(after)) {
+                changes.put(dn, new Change(Sets.difference(after, before).immutableCopy(),
+                        Sets.difference(before, after).immutableCopy()));
+            }
+        }
+        return changes.build();
+    }
+
+    /**
+     * @return the exact DNs whose roles changed; compares every DN of both versions the first time it is
+     * called after a full reload.
+     */
+    public Map<String, Change> getChanges() {
+        ImmutableMap<String, Change> result = changes;
+        if (result == null) {
+            result = compare(previous, current, Sets.union(previous.getDns(), current.getDns()));
+            changes = result;
+        }
+        return result;
+    }
+
+    public boolean isRulesChanged() {
+        return rulesChanged;
+    }
+
+    public boolean isEmpty() {
+        return !rulesChanged && getChanges().isEmpty();
+    }
+
+    /**
+     * @return true if the roles granted to the DN differ between the two versions.
+     */
+    public boolean affects(String normalizedDn) {
+        ImmutableMap<String, Change> known = changes;
+        if (known != null && !rulesChanged) {
+            return known.containsKey(normalizedDn);
+        }
+        return !roles(previous, normalizedDn).equals(roles(current, normalizedDn));
+    }
+
+    private static Set<String> roles(DnRoleMapping mapping, String normalizedDn) {
+        AuthorizationInfo authorizationInfo = mapping.getAuthorizationInfo(normalizedDn);
+        if (authorizationInfo == null) {
+            return Collections.emptySet();
+        }
+        Collection<String> roles = authorizationInfo.getRoles();
+        return roles instanceof Set ? (Set<String>) roles : ImmutableSet.copyOf(roles);
+    }
+
+    @Override
+    public String toString() {
+        ImmutableMap<String, Change> known = changes;
+        return (known != null ? known.size() + " DNs changed" : previous.size() + " -> " + current.size() + " DNs")
+                + (rulesChanged ? ", rules changed" : "");
+    }
+
+    /**
+     * The roles a DN gained and lost.
+     */
+    public static final class Change {
+        private final Set<String> added;
+        private final Set<String> removed;
+
+        Change(Set<String> added, Set<String> removed) {
+            this.added = added;
+            this.removed = removed;
+        }
+
+        public Set<String> getAdded() {
+            return added;
+        }
+
+        public Set<String> getRemoved() {
+            return removed;
+        }
+    }
+}
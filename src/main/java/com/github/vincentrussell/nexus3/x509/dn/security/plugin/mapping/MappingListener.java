@@ -0,0 +1,9 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+/**
+ * Notified on the reload thread after a new version of the mapping has been published.
+ */
+public interface MappingListener {
+
+    void mappingChanged(DnRoleMapping previous, DnRoleMapping current, MappingDiff diff);
+}
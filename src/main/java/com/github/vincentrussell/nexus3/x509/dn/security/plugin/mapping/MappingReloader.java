@@ -0,0 +1,365 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.metrics.X509DnMetrics;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.util.FileWatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the current {@link DnRoleMapping} up to date with its {@link MappingBackend}. The backend's files
+ * are watched on a background thread; a new snapshot is loaded there and published with a single volatile
+ * write, so request threads never parse yaml and never wait on a reload. If the files are malformed the
+ * last good snapshot stays in service.
+ * <p>
+ * Batches applied through {@link #apply(MappingUpdate)} are kept until they are saved. A reload in the
+ * meantime, or a save that finds the files changed by someone else, applies them again on top of what was
+ * loaded, so neither the batches nor the other change are lost.
+ */
+public class MappingReloader implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappingReloader.class);
+
+    public static final long DEFAULT_POLL_INTERVAL_SECONDS = 30;
+
+    private final MappingBackend backend;
+    private final FileWatcher fileWatcher;
+    private final AtomicLong versions = new AtomicLong();
+    private final List<MappingListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicReference<DnRoleMapping> pendingSave = new AtomicReference<>();
+    private final List<MappingUpdate> unsaved = new ArrayList<>();
+    private final ExecutorService saver = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "x509-dn-mapping-writer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private ScheduledExecutorService activator;
+    private final List<DnRoleMapping> pendingActivations = new ArrayList<>();
+    private DnRoleMapping appliedAhead;
+    private volatile DnRoleMapping mapping;
+
+    /**
+     * Loads the initial snapshot on the calling thread.
+     *
+     * @throws IllegalStateException if the initial load fails.
+     */
+    public MappingReloader(MappingBackend backend, long pollIntervalSeconds, boolean watchEnabled) {
+        this.backend = backend;
+        this.mapping = backend.load(versions.incrementAndGet());
+        this.fileWatcher = new FileWatcher("mapping", backend.getWatchedFiles(),
+                TimeUnit.SECONDS.toMillis(pollIntervalSeconds), watchEnabled, new Runnable() {
+                    @Override
+                    public void run() {
+                        reload();
+                    }
+                });
+    }
+
+    public void start() {
+        fileWatcher.start();
+    }
+
+    public DnRoleMapping getMapping() {
+        return mapping;
+    }
+
+    public void addListener(MappingListener listener) {
+        listeners.add(listener);
+    }
+
+    public MappingBackend getBackend() {
+        return backend;
+    }
+
+    public FileWatcher getFileWatcher() {
+        return fileWatcher;
+    }
+
+    /**
+     * Loads the mapping from the backend and publishes it, at the activation time of a
+     * {@link CoordinatedMappingBackend}.
+     *
+     * A version number is only consumed by a successful load.
+     *
+     * @return true if a new snapshot was published, false if the file could not be loaded.
+     */
+    public synchronized boolean reload() {
+        long start = System.nanoTime();
+        DnRoleMapping newMapping;
+        try {
+            newMapping = backend.load(versions.get() + 1);
+            versions.incrementAndGet();
+            X509DnMetrics.get().reloadSucceeded(System.nanoTime() - start);
+        } catch (IllegalStateException e) {
+            X509DnMetrics.get().reloadFailed();
+            LOGGER.error("could not reload {}, keeping version {} of the mapping: {}",
+                    backend.getWatchedFiles(), mapping.getVersion(), e.getMessage());
+            return false;
+        }
+        appliedAhead = null;
+        DnRoleMapping rebased = rebase(newMapping);
+        if (backend instanceof CoordinatedMappingBackend) {
+            activateAt(newMapping, ((CoordinatedMappingBackend) backend).getActivationTimeMillis());
+            if (rebased != newMapping) {
+                appliedAhead = rebased;
+            }
+        } else {
+            activate(rebased, null);
+        }
+        if (rebased != newMapping) {
+            queueSave(rebased);
+        }
+        return true;
+    }
+
+    /**
+     * @return the snapshot with the batches that have not been saved yet applied on top of it, or the
+     * snapshot itself if there are none. A batch that no longer applies is dropped.
+     */
+    private DnRoleMapping rebase(DnRoleMapping loaded) {
+        if (unsaved.isEmpty()) {
+            return loaded;
+        }
+        long version = versions.incrementAndGet();
+        DnRoleMapping rebased = loaded;
+        for (Iterator<MappingUpdate> iterator = unsaved.iterator(); iterator.hasNext(); ) {
+            MappingUpdate update = iterator.next();
+            try {
+                rebased = rebased.apply(update, version);
+            } catch (IllegalArgumentException e) {
+                LOGGER.error("dropped a batch of {} changes that no longer applies to version {} of the mapping: {}",
+                        update.getOperations().size(), loaded.getVersion(), e.getMessage());
+                iterator.remove();
+            }
+        }
+        LOGGER.info("applied {} unsaved batches on top of version {} of the mapping", unsaved.size(),
+                loaded.getVersion());
+        return rebased;
+    }
+
+    private void activateAt(DnRoleMapping newMapping, long activationTimeMillis) {
+        long delay = activationTimeMillis - System.currentTimeMillis();
+        if (delay > 0) {
+            scheduleActivation(newMapping, delay);
+        } else {
+            activate(newMapping, null);
+        }
+    }
+
+    /**
+     * Holds a loaded snapshot back until the moment the other nodes switch to it as well. Snapshots already
+     * waiting still go into service at their own time, unless a later one has gone into service first.
+     */
+    private void scheduleActivation(final DnRoleMapping newMapping, long delayMillis) {
+        if (activator == null) {
+            activator = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "x509-dn-mapping-activator");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        pendingActivations.add(newMapping);
+        activator.schedule(new Runnable() {
+            @Override
+            public void run() {
+                activateIfPending(newMapping);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+        LOGGER.info("version {} of the mapping is due in {} ms", newMapping.getVersion(), delayMillis);
+    }
+
+    private synchronized void activateIfPending(DnRoleMapping newMapping) {
+        int index = pendingActivations.indexOf(newMapping);
+        if (index >= 0) {
+            List<DnRoleMapping> later = new ArrayList<>(pendingActivations.subList(index + 1,
+                    pendingActivations.size()));
+            activate(newMapping, null);
+            pendingActivations.addAll(later);
+        }
+    }
+
+    private void activate(DnRoleMapping newMapping, Set<String> touched) {
+        pendingActivations.clear();
+        if (appliedAhead == newMapping) {
+            appliedAhead = null;
+        }
+        publish(newMapping, touched);
+    }
+
+    /**
+     * Applies a batch of changes to the current snapshot and publishes the result as one new version.
+     * Request threads see either none or all of the batch. The backend is written on a background thread;
+     * if several batches arrive while a write is running only the latest snapshot is written.
+     * <p>
+     * With a {@link CoordinatedMappingBackend} the new version is not put into service here: once it is
+     * written it is scheduled for the activation time it was published with, like a version loaded from the
+     * backend, so this node changes over together with the others. The batch is built on the newest snapshot
+     * known here, whether it is in service, waiting for its activation time after a load, or applied on this
+     * node and not put into service yet, so that it rolls back none of them; the snapshots waiting are not put
+     * into service early.
+     *
+     * @return the new snapshot.
+     */
+    public synchronized DnRoleMapping apply(MappingUpdate update) {
+        unsaved.add(update);
+        if (backend instanceof CoordinatedMappingBackend) {
+            DnRoleMapping base = appliedAhead != null ? appliedAhead
+                    : !pendingActivations.isEmpty() ? pendingActivations.get(pendingActivations.size() - 1) : mapping;
+            appliedAhead = base.apply(update, versions.incrementAndGet());
+            queueSave(appliedAhead);
+            return appliedAhead;
+        }
+        DnRoleMapping newMapping = mapping.apply(update, versions.incrementAndGet());
+        Set<String> touched = new HashSet<>();
+        for (MappingUpdate.Operation operation : update.getOperations()) {
+            if (!operation.isRule()) {
+                touched.add(operation.getDn());
+            }
+        }
+        activate(newMapping, touched);
+        queueSave(newMapping);
+        return newMapping;
+    }
+
+    private void queueSave(DnRoleMapping newMapping) {
+        if (pendingSave.getAndSet(newMapping) == null) {
+            saver.execute(new Runnable() {
+                @Override
+                public void run() {
+                    save();
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs under the same lock as {@link #reload()}, so a reload never reads files that are half written.
+     * If the files were changed by someone else since they were last read or written, they are reloaded
+     * first and the unsaved batches applied on top, rather than written over; if they cannot be loaded,
+     * nothing is saved. A backend that finds itself changed only while saving refuses the save with a
+     * {@link MappingConflictException}, and the same happens then. Only the content written here is accepted by the file watcher; an edit made by
+     * someone else while the save runs still triggers a reload. A snapshot saved to a
+     * {@link CoordinatedMappingBackend} is scheduled for the activation time it was published with.
+     * <p>
+     * Batches that could not be saved stay in service and are saved with the next batch or reload.
+     */
+    private void save() {
+        DnRoleMapping toSave = pendingSave.get();
+        try {
+            synchronized (this) {
+                if (fileWatcher.hasChanged() && !reload()) {
+                    LOGGER.error("not saving {} unsaved batches over {}, which was changed and cannot be loaded",
+                            unsaved.size(), backend.getWatchedFiles());
+                    return;
+                }
+                toSave = pendingSave.get();
+                try {
+                    fileWatcher.accept(backend.save(toSave));
+                } catch (MappingConflictException e) {
+                    LOGGER.info("not saving version {} of the mapping: {}; applying {} unsaved batches on top "
+                            + "of the new mapping", toSave.getVersion(), e.getMessage(), unsaved.size());
+                    if (!reload()) {
+                        LOGGER.error("not saving {} unsaved batches over {}, which cannot be loaded",
+                                unsaved.size(), backend.getWatchedFiles());
+                    }
+                    return;
+                }
+                unsaved.clear();
+                if (backend instanceof CoordinatedMappingBackend) {
+                    activateAt(toSave, ((CoordinatedMappingBackend) backend).getActivationTimeMillis(toSave));
+                } else if (mapping == toSave && toSave.getIndex() instanceof OverlayDnIndex
+                        && ((OverlayDnIndex) toSave.getIndex()).isOutgrown()) {
+                    reopen();
+                }
+            }
+            LOGGER.info("saved version {} of the mapping to {}", toSave.getVersion(), backend.getWatchedFiles());
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("could not save version " + toSave.getVersion() + " of the mapping to "
+                    + backend.getWatchedFiles() + ", keeping its changes in service until the next batch or reload: "
+                    + e.getMessage(), e);
+        } finally {
+            if (!pendingSave.compareAndSet(toSave, null)) {
+                saver.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        save();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Replaces a snapshot whose changes have outgrown their overlay with the same content loaded from the
+     * backend, which has just saved it. No DN changes, so no listener evicts anything.
+     */
+    private void reopen() {
+        try {
+            DnRoleMapping reopened = backend.load(versions.get() + 1);
+            versions.incrementAndGet();
+            publish(reopened, Collections.<String>emptySet());
+        } catch (IllegalStateException e) {
+            LOGGER.warn("could not reopen {} after saving it, keeping the changes in an overlay: {}",
+                    backend.getWatchedFiles(), e.getMessage());
+        }
+    }
+
+    private void publish(DnRoleMapping newMapping) {
+        publish(newMapping, null);
+    }
+
+    /**
+     * @param touched the only DNs that can have changed, or null to compare the whole mapping.
+     */
+    private void publish(DnRoleMapping newMapping, Set<String> touched) {
+        DnRoleMapping previous = mapping;
+        mapping = newMapping;
+        if (listeners.isEmpty()) {
+            LOGGER.info("published version {} of the mapping", newMapping.getVersion());
+            return;
+        }
+        MappingDiff diff = touched == null ? MappingDiff.compute(previous, newMapping)
+                : MappingDiff.compute(previous, newMapping, touched);
+        LOGGER.info("published version {} of the mapping: {}", newMapping.getVersion(), diff);
+        for (MappingListener listener : listeners) {
+            try {
+                listener.mappingChanged(previous, newMapping, diff);
+            } catch (RuntimeException e) {
+                LOGGER.error("mapping listener " + listener + " failed: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        fileWatcher.close();
+        saver.shutdown();
+        synchronized (this) {
+            if (activator != null) {
+                activator.shutdownNow();
+            }
+        }
+    }
+}
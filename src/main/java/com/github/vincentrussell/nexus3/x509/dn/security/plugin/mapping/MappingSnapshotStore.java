@@ -0,0 +1,275 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import com.google.common.collect.ImmutableSetMultimap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Reads and writes a compiled, binary snapshot of a {@link DnRoleMapping} next to the yaml file it was
+ * built from, so that a restart can skip parsing and normalizing a large mapping file.
+ * <p>
+ * Layout (big endian): magic, format version, SHA-256 of the yaml, the role table, the table of distinct
+ * role sets as declared, without the roles they imply, as indexes into the role table, the DNs with the
+ * index of their role set, the wildcard rules with their roles, the role implications as pairs of role
+ * indexes, and a trailing CRC32 of everything before it. The file is read through a read-only
+ * memory mapping. Snapshots of format version 2 held expanded role sets and are ignored.
+ */
+public class MappingSnapshotStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappingSnapshotStore.class);
+
+    static final int MAGIC = 0x58354e44;
+    static final int FORMAT_VERSION = 3;
+    private static final int HASH_LENGTH = 32;
+
+    private final File snapshotFile;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "x509-dn-snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public MappingSnapshotStore(File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    public static MappingSnapshotStore nextTo(File configFile) {
+        return new MappingSnapshotStore(new File(configFile.getAbsoluteFile().getParentFile(),
+                configFile.getName() + ".snapshot"));
+    }
+
+    public File getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    public static byte[] sha256(File file) throws IOException {
+        MessageDigest messageDigest = newSha256();
+        try (InputStream inputStream = new FileInputStream(file)) {
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                messageDigest.update(buffer, 0, read);
+            }
+        }
+        return messageDigest.digest();
+    }
+
+    /**
+     * @return the snapshot if it exists, is intact and was built from yaml with the given hash; otherwise null.
+     */
+    public DnRoleMapping readIfCurrent(byte[] sourceHash, long version) {
+        if (!snapshotFile.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(snapshotFile, "r");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < 8 + HASH_LENGTH + 8 || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                LOGGER.info("ignoring snapshot {} with an unknown format", snapshotFile);
+                return null;
+            }
+            byte[] hash = new byte[HASH_LENGTH];
+            buffer.get(hash);
+            if (!Arrays.equals(hash, sourceHash)) {
+                return null;
+            }
+            if (!checksumMatches(buffer)) {
+                LOGGER.warn("ignoring corrupt snapshot {}", snapshotFile);
+                return null;
+            }
+            return decode(buffer, version);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("could not read snapshot {}: {}", snapshotFile, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes the snapshot on a background thread, replacing any previous one atomically.
+     */
+    public void writeAsync(final DnRoleMapping mapping, final byte[] sourceHash) {
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(mapping, sourceHash);
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.warn("could not write snapshot {}: {}", snapshotFile, e.getMessage());
+                }
+            }
+        });
+    }
+
+    void write(DnRoleMapping mapping, byte[] sourceHash) throws IOException {
+        long start = System.nanoTime();
+        File temporaryFile = new File(snapshotFile.getParentFile(), snapshotFile.getName() + ".tmp");
+        CRC32 crc32 = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(
+                new FileOutputStream(temporaryFile), crc32)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.write(sourceHash);
+            encode(mapping, out);
+            out.flush();
+            out.writeLong(crc32.getValue());
+        }
+        Files.move(temporaryFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.debug("wrote snapshot {} in {} ms", snapshotFile, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private static void encode(DnRoleMapping mapping, DataOutputStream out) throws IOException {
+        Map<String, Integer> roleIndexes = new HashMap<>();
+        List<String> roles = new ArrayList<>();
+        Map<Set<String>, Integer> roleSetIndexes = new HashMap<>();
+        List<Set<String>> roleSets = new ArrayList<>();
+        for (String dn : mapping.getDns()) {
+            Set<String> declaredRoles = mapping.getDeclaredRoles(dn);
+            if (!roleSetIndexes.containsKey(declaredRoles)) {
+                roleSetIndexes.put(declaredRoles, roleSets.size());
+                roleSets.add(declaredRoles);
+                for (String role : declaredRoles) {
+                    indexOf(role, roleIndexes, roles);
+                }
+            }
+        }
+        for (String role : mapping.getRulePatterns().values()) {
+            indexOf(role, roleIndexes, roles);
+        }
+        ImmutableSetMultimap<String, String> implications = mapping.getRoleHierarchy().getImplications();
+        for (Map.Entry<String, String> implication : implications.entries()) {
+            indexOf(implication.getKey(), roleIndexes, roles);
+            indexOf(implication.getValue(), roleIndexes, roles);
+        }
+
+        out.writeInt(roles.size());
+        for (String role : roles) {
+            writeString(out, role);
+        }
+        out.writeInt(roleSets.size());
+        for (Set<String> roleSet : roleSets) {
+            out.writeInt(roleSet.size());
+            for (String role : roleSet) {
+                out.writeInt(roleIndexes.get(role));
+            }
+        }
+        out.writeInt(mapping.size());
+        for (String dn : mapping.getDns()) {
+            writeString(out, dn);
+            out.writeInt(roleSetIndexes.get(mapping.getDeclaredRoles(dn)));
+        }
+        ImmutableSetMultimap<String, String> rulePatterns = mapping.getRulePatterns();
+        out.writeInt(rulePatterns.size());
+        for (Map.Entry<String, String> rule : rulePatterns.entries()) {
+            writeString(out, rule.getKey());
+            out.writeInt(roleIndexes.get(rule.getValue()));
+        }
+        out.writeInt(implications.size());
+        for (Map.Entry<String, String> implication : implications.entries()) {
+            out.writeInt(roleIndexes.get(implication.getKey()));
+            out.writeInt(roleIndexes.get(implication.getValue()));
+        }
+    }
+
+    private static DnRoleMapping decode(ByteBuffer buffer, long version) {
+        DnRoleMapping.Builder builder = DnRoleMapping.builder();
+        String[] roles = new String[buffer.getInt()];
+        for (int i = 0; i < roles.length; i++) {
+            roles[i] = readString(buffer);
+        }
+        List<Collection<String>> roleSets = new ArrayList<>();
+        for (int i = buffer.getInt(); i > 0; i--) {
+            String[] roleSet = new String[buffer.getInt()];
+            for (int j = 0; j < roleSet.length; j++) {
+                roleSet[j] = roles[buffer.getInt()];
+            }
+            roleSets.add(Arrays.asList(roleSet));
+        }
+        for (int i = buffer.getInt(); i > 0; i--) {
+            String dn = readString(buffer);
+            builder.addAll(dn, roleSets.get(buffer.getInt()));
+        }
+        for (int i = buffer.getInt(); i > 0; i--) {
+            String pattern = readString(buffer);
+            builder.addRule(roles[buffer.getInt()], pattern);
+        }
+        for (int i = buffer.getInt(); i > 0; i--) {
+            String role = roles[buffer.getInt()];
+            builder.addImplication(role, roles[buffer.getInt()]);
+        }
+        return builder.build(version);
+    }
+
+    private static boolean checksumMatches(ByteBuffer buffer) {
+        int end = buffer.limit() - 8;
+        ByteBuffer content = buffer.duplicate();
+        content.position(0);
+        content.limit(end);
+        CRC32 crc32 = new CRC32();
+        crc32.update(content);
+        return crc32.getValue() == buffer.getLong(end);
+    }
+
+    private static int indexOf(String role, Map<String, Integer> roleIndexes, List<String> roles) {
+        Integer index = roleIndexes.get(role);
+        if (index == null) {
+            index = roles.size();
+            roleIndexes.put(role, index);
+            roles.add(role);
+        }
+        return index;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * A validated batch of role grants and revocations, applied to the mapping as one atomic change. DNs are
+ * normalized and rules checked when they are added to the builder, so a batch that builds cannot fail to
+ * apply.
+ */
+public final class MappingUpdate {
+
+    private final ImmutableList<Operation> operations;
+
+    private MappingUpdate(ImmutableList<Operation> operations) {
+        this.operations = operations;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public List<Operation> getOperations() {
+        return operations;
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return operations.size() + " operations";
+    }
+
+    /**
+     * Grants or revokes one role for one DN or rule.
+     */
+    public static final class Operation {
+        private final boolean add;
+        private final String role;
+        private final String dn;
+        private final boolean rule;
+
+        Operation(boolean add, String role, String dn, boolean rule) {
+            this.add = add;
+            this.role = role;
+            this.dn = dn;
+            this.rule = rule;
+        }
+
+        public boolean isAdd() {
+            return add;
+        }
+
+        public String getRole() {
+            return role;
+        }
+
+        /**
+         * @return the normalized DN, or the trimmed pattern of a rule.
+         */
+        public String getDn() {
+            return dn;
+        }
+
+        public boolean isRule() {
+            return rule;
+        }
+    }
+
+    public static final class Builder {
+        private final ImmutableList.Builder<Operation> operations = ImmutableList.builder();
+
+        private Builder() {
+        }
+
+        /**
+         * @throws IllegalArgumentException if the role is blank, or the DN or rule is invalid.
+         */
+        public Builder add(String role, String rawDn) {
+            operations.add(operation(true, role, rawDn));
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the role is blank, or the DN or rule is invalid.
+         */
+        public Builder remove(String role, String rawDn) {
+            operations.add(operation(false, role, rawDn));
+            return this;
+        }
+
+        public MappingUpdate build() {
+            return new MappingUpdate(operations.build());
+        }
+
+        private static Operation operation(boolean add, String role, String rawDn) {
+            if (role == null || role.trim().isEmpty()) {
+                throw new IllegalArgumentException("a role is required");
+            }
+            if (rawDn == null || rawDn.trim().isEmpty()) {
+                throw new IllegalArgumentException("a DN is required");
+            }
+            if (RdnTrie.isPattern(rawDn)) {
+                new RdnTrie.Builder().add(role.trim(), rawDn);
+                return new Operation(add, role.trim(), rawDn.trim(), true);
+            }
+            return new Operation(add, role.trim(), DnNormalizer.canonicalize(rawDn), false);
+        }
+    }
+}
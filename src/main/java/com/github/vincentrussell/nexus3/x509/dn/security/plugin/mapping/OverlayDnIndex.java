@@ -0,0 +1,168 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import org.apache.shiro.authz.AuthorizationInfo;
+
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The entries of another {@link DnIndex} with a small set of DNs changed or removed, so that a batch of
+ * updates produces a new snapshot without copying the entries it does not touch. Overlays do not stack:
+ * applying a further batch merges its changes into a new overlay over the same base. Once the changes of an
+ * overlay over a heap index outgrow {@link #COMPACTION_THRESHOLD} and an eighth of the base, they are folded
+ * into a new heap index, so that each batch copies a bounded number of changes; other bases are folded away
+ * on the next full reload.
+ */
+final class OverlayDnIndex implements DnIndex {
+
+    static final int COMPACTION_THRESHOLD = 1024;
+
+    private static final AuthorizationInfo REMOVED = new RoleSetAuthorizationInfo(Collections.<String>emptySet());
+
+    private final DnIndex base;
+    private final ImmutableMap<String, AuthorizationInfo> overrides;
+    private final int size;
+    private final int distinctRoleSets;
+    private final Set<String> dns = new AbstractSet<String>() {
+        @Override
+        public Iterator<String> iterator() {
+            Iterator<String> unchanged = Iterators.filter(base.getDns().iterator(), new Predicate<String>() {
+                @Override
+                public boolean apply(String dn) {
+                    return !overrides.containsKey(dn);
+                }
+            });
+            Iterator<String> changed = Iterators.filter(overrides.keySet().iterator(), new Predicate<String>() {
+                @Override
+                public boolean apply(String dn) {
+                    return overrides.get(dn) != REMOVED;
+                }
+            });
+            return Iterators.concat(unchanged, changed);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof String && get((String) o) != null;
+        }
+    };
+
+    private OverlayDnIndex(DnIndex base, ImmutableMap<String, AuthorizationInfo> overrides, int size,
+                           int distinctRoleSets) {
+        this.base = base;
+        this.overrides = overrides;
+        this.size = size;
+        this.distinctRoleSets = distinctRoleSets;
+    }
+
+    /**
+     * Only the changed DNs are looked up, in the index they change; sizes and role set counts are carried
+     * over from it.
+     *
+     * @param changes the new authorization info of each changed DN, or null for DNs that lost their entry.
+     * @param newRoleSets role sets the changes introduce.
+     */
+    static DnIndex of(DnIndex index, Map<String, AuthorizationInfo> changes, int newRoleSets) {
+        DnIndex base = index;
+        Map<String, AuthorizationInfo> overrides = new HashMap<>();
+        if (index instanceof OverlayDnIndex) {
+            base = ((OverlayDnIndex) index).base;
+            overrides.putAll(((OverlayDnIndex) index).overrides);
+        }
+        int size = index.size();
+        for (Map.Entry<String, AuthorizationInfo> change : changes.entrySet()) {
+            boolean present = index.get(change.getKey()) != null;
+            if (change.getValue() == null && present) {
+                size--;
+            } else if (change.getValue() != null && !present) {
+                size++;
+            }
+            overrides.put(change.getKey(), change.getValue() != null ? change.getValue() : REMOVED);
+        }
+        OverlayDnIndex overlay = new OverlayDnIndex(base, ImmutableMap.copyOf(overrides), size,
+                index.getDistinctRoleSets() + newRoleSets);
+        if (base instanceof HeapDnIndex && overrides.size() > Math.max(COMPACTION_THRESHOLD, base.size() / 8)) {
+            return overlay.compact();
+        }
+        return overlay;
+    }
+
+    /**
+     * @return the entries of this overlay in a heap index of their own, with their role sets counted afresh.
+     */
+    HeapDnIndex compact() {
+        ImmutableMap.Builder<String, AuthorizationInfo> authorizationInfoByDn = ImmutableMap.builder();
+        Set<Set<String>> roleSets = new HashSet<>();
+        for (String dn : dns) {
+            AuthorizationInfo authorizationInfo = get(dn);
+            authorizationInfoByDn.put(dn, authorizationInfo);
+            roleSets.add(authorizationInfo instanceof RoleSetAuthorizationInfo
+                    ? ((RoleSetAuthorizationInfo) authorizationInfo).getRoles()
+                    : ImmutableSet.copyOf(authorizationInfo.getRoles()));
+        }
+        return new HeapDnIndex(authorizationInfoByDn.build(), roleSets.size());
+    }
+
+    @Override
+    public AuthorizationInfo get(String normalizedDn) {
+        AuthorizationInfo override = overrides.get(normalizedDn);
+        if (override != null) {
+            return override != REMOVED ? override : null;
+        }
+        return base.get(normalizedDn);
+    }
+
+    @Override
+    public Set<String> getDns() {
+        return dns;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int getDistinctRoleSets() {
+        return distinctRoleSets;
+    }
+
+    /**
+     * @return the authorization info of the changed DNs, with removed DNs left out.
+     */
+    Iterable<AuthorizationInfo> getOverrides() {
+        return Iterables.filter(overrides.values(), new Predicate<AuthorizationInfo>() {
+            @Override
+            public boolean apply(AuthorizationInfo authorizationInfo) {
+                return authorizationInfo != REMOVED;
+            }
+        });
+    }
+
+    int getOverrideCount() {
+        return overrides.size();
+    }
+
+    /**
+     * @return true if the changes over a base that is not compacted on the heap have grown large enough to
+     * open the base afresh once they are saved to it.
+     */
+    boolean isOutgrown() {
+        return !(base instanceof HeapDnIndex) && overrides.size() > COMPACTION_THRESHOLD;
+    }
+}
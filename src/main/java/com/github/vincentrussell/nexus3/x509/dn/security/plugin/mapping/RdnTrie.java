@@ -0,0 +1,254 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import org.apache.shiro.authz.AuthorizationInfo;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Wildcard and subtree DN rules compiled into a trie keyed on RDNs from the most significant (right-most)
+ * one down, so that matching a DN costs O(depth of the DN) no matter how many rules there are.
+ * <p>
+ * Two rule forms are supported:
+ * <ul>
+ * <li>{@code *,OU=Build,O=Corp,C=US} matches every DN strictly below {@code OU=Build,O=Corp,C=US}.</li>
+ * <li>{@code CN=ci-*,OU=Build,O=Corp,C=US} matches DNs directly below {@code OU=Build,O=Corp,C=US} whose
+ * left-most RDN starts with {@code CN=ci-}. Only the left-most RDN may carry a wildcard, and only at the
+ * end of its value.</li>
+ * <li>{@code CN=ci-*} on its own matches every DN whose left-most RDN starts with {@code CN=ci-}, wherever
+ * it sits in the tree. These rules are checked against the left-most RDN once per lookup.</li>
+ * </ul>
+ */
+public final class RdnTrie {
+
+    static final String SUBTREE_PREFIX = "*,";
+
+    private final Node root;
+    private final ImmutableList<PrefixRule> leafPrefixRules;
+    private final int ruleCount;
+
+    private RdnTrie(Node root, ImmutableList<PrefixRule> leafPrefixRules, int ruleCount) {
+        this.root = root;
+        this.leafPrefixRules = leafPrefixRules;
+        this.ruleCount = ruleCount;
+    }
+
+    /**
+     * @return true if the raw DN from the mapping file uses the wildcard or subtree syntax.
+     */
+    public static boolean isPattern(String rawDn) {
+        String trimmed = rawDn.trim();
+        if (trimmed.startsWith(SUBTREE_PREFIX)) {
+            return true;
+        }
+        return trimmed.substring(0, firstRdnEnd(trimmed)).trim().endsWith("*");
+    }
+
+    public boolean isEmpty() {
+        return ruleCount == 0;
+    }
+
+    public int getRuleCount() {
+        return ruleCount;
+    }
+
+    /**
+     * Collects the roles of every rule that matches the DN.
+     *
+     * @param normalizedDn a DN in RFC 2253 form.
+     * @param interner     used to share the result when more than one rule matches.
+     * @return the merged roles, or null if no rule matches.
+     */
+    AuthorizationInfo match(String normalizedDn, Function<Set<String>, ? extends AuthorizationInfo> interner) {
+        AuthorizationInfo first = null;
+        Set<String> merged = null;
+        if (!leafPrefixRules.isEmpty()) {
+            String leaf = normalizedDn.substring(0, firstRdnEnd(normalizedDn));
+            for (PrefixRule prefixRule : leafPrefixRules) {
+                if (leaf.startsWith(prefixRule.prefix)) {
+                    if (first == null) {
+                        first = prefixRule.authorizationInfo;
+                    } else {
+                        merged = merge(merged, first, prefixRule.authorizationInfo);
+                    }
+                }
+            }
+        }
+        Node node = root;
+        int end = normalizedDn.length();
+        while (node != null && end > 0) {
+            int start = rdnStart(normalizedDn, end);
+            String rdn = normalizedDn.substring(start, end);
+            if (node.subtree != null) {
+                if (first == null) {
+                    first = node.subtree;
+                } else {
+                    merged = merge(merged, first, node.subtree);
+                }
+            }
+            if (start == 0) {
+                for (PrefixRule prefixRule : node.prefixRules) {
+                    if (rdn.startsWith(prefixRule.prefix)) {
+                        if (first == null) {
+                            first = prefixRule.authorizationInfo;
+                        } else {
+                            merged = merge(merged, first, prefixRule.authorizationInfo);
+                        }
+                    }
+                }
+                break;
+            }
+            node = node.children.get(rdn);
+            end = start - 1;
+        }
+        return merged != null ? interner.apply(merged) : first;
+    }
+
+    private static Set<String> merge(Set<String> merged, AuthorizationInfo first, AuthorizationInfo next) {
+        if (merged == null) {
+            merged = new LinkedHashSet<>(first.getRoles());
+        }
+        merged.addAll(next.getRoles());
+        return merged;
+    }
+
+    /**
+     * @return the index of the first character of the RDN that ends at {@code end}.
+     */
+    static int rdnStart(String dn, int end) {
+        for (int i = end - 1; i >= 0; i--) {
+            if (dn.charAt(i) == ',' && !isEscaped(dn, i)) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private static int firstRdnEnd(String dn) {
+        for (int i = 0; i < dn.length(); i++) {
+            if (dn.charAt(i) == ',' && !isEscaped(dn, i)) {
+                return i;
+            }
+        }
+        return dn.length();
+    }
+
+    private static boolean isEscaped(String dn, int index) {
+        int backslashes = 0;
+        for (int i = index - 1; i >= 0 && dn.charAt(i) == '\\'; i--) {
+            backslashes++;
+        }
+        return backslashes % 2 == 1;
+    }
+
+    private static final class Node {
+        private final ImmutableMap<String, Node> children;
+        private final RoleSetAuthorizationInfo subtree;
+        private final ImmutableList<PrefixRule> prefixRules;
+
+        private Node(ImmutableMap<String, Node> children, RoleSetAuthorizationInfo subtree,
+                     ImmutableList<PrefixRule> prefixRules) {
+            this.children = children;
+            this.subtree = subtree;
+            this.prefixRules = prefixRules;
+        }
+    }
+
+    private static final class PrefixRule {
+        private final String prefix;
+        private final RoleSetAuthorizationInfo authorizationInfo;
+
+        private PrefixRule(String prefix, RoleSetAuthorizationInfo authorizationInfo) {
+            this.prefix = prefix;
+            this.authorizationInfo = authorizationInfo;
+        }
+    }
+
+    /**
+     * Collects rules; not thread safe.
+     */
+    public static final class Builder {
+        private final BuilderNode root = new BuilderNode();
+        private final Map<String, Set<String>> leafPrefixRoles = new LinkedHashMap<>();
+        private int ruleCount;
+
+        /**
+         * @throws IllegalArgumentException if the pattern is not a valid rule.
+         */
+        public Builder add(String role, String rawPattern) {
+            String pattern = rawPattern.trim();
+            if (pattern.startsWith(SUBTREE_PREFIX)) {
+                nodeFor(DnNormalizer.canonicalize(pattern.substring(SUBTREE_PREFIX.length()))).subtreeRoles.add(role);
+            } else {
+                int end = firstRdnEnd(pattern);
+                String leaf = DnNormalizer.canonicalize(pattern.substring(0, end));
+                String prefix = leaf.substring(0, leaf.length() - 1);
+                if (!leaf.endsWith("*") || prefix.indexOf('*') >= 0 || prefix.indexOf('=') < 0) {
+                    throw new IllegalArgumentException("only a trailing wildcard is supported: " + rawPattern);
+                }
+                Map<String, Set<String>> prefixRoles = end == pattern.length() ? leafPrefixRoles
+                        : nodeFor(DnNormalizer.canonicalize(pattern.substring(end + 1))).prefixRoles;
+                Set<String> roles = prefixRoles.get(prefix);
+                if (roles == null) {
+                    roles = new LinkedHashSet<>();
+                    prefixRoles.put(prefix, roles);
+                }
+                roles.add(role);
+            }
+            ruleCount++;
+            return this;
+        }
+
+        private BuilderNode nodeFor(String normalizedSuffix) {
+            BuilderNode node = root;
+            int end = normalizedSuffix.length();
+            while (end > 0) {
+                int start = rdnStart(normalizedSuffix, end);
+                String rdn = normalizedSuffix.substring(start, end);
+                BuilderNode child = node.children.get(rdn);
+                if (child == null) {
+                    child = new BuilderNode();
+                    node.children.put(rdn, child);
+                }
+                node = child;
+                end = start - 1;
+            }
+            return node;
+        }
+
+        RdnTrie build(Function<Set<String>, RoleSetAuthorizationInfo> interner) {
+            return new RdnTrie(root.build(interner), buildPrefixRules(leafPrefixRoles, interner), ruleCount);
+        }
+    }
+
+    private static final class BuilderNode {
+        private final Map<String, BuilderNode> children = new HashMap<>();
+        private final Set<String> subtreeRoles = Sets.newLinkedHashSet();
+        private final Map<String, Set<String>> prefixRoles = new LinkedHashMap<>();
+
+        Node build(Function<Set<String>, RoleSetAuthorizationInfo> interner) {
+            ImmutableMap.Builder<String, Node> builtChildren = ImmutableMap.builder();
+            for (Map.Entry<String, BuilderNode> entry : children.entrySet()) {
+                builtChildren.put(entry.getKey(), entry.getValue().build(interner));
+            }
+            return new Node(builtChildren.build(), subtreeRoles.isEmpty() ? null : interner.apply(subtreeRoles),
+                    buildPrefixRules(prefixRoles, interner));
+        }
+    }
+
+    private static ImmutableList<PrefixRule> buildPrefixRules(Map<String, Set<String>> prefixRoles,
+                                                            Function<Set<String>, RoleSetAuthorizationInfo> interner) {
+        ImmutableList.Builder<PrefixRule> builtPrefixRules = ImmutableList.builder();
+        for (Map.Entry<String, Set<String>> entry : prefixRoles.entrySet()) {
+            builtPrefixRules.add(new PrefixRule(entry.getKey(), interner.apply(entry.getValue())));
+        }
+        return builtPrefixRules.build();
+    }
+}
@@ -0,0 +1,128 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.SetMultimap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Composite roles declared in the mapping: a role implies every role listed under it, transitively. The
+ * closure of every role is computed once when the hierarchy is built, so expanding a role set is a union
+ * of precomputed sets.
+ */
+public final class RoleHierarchy {
+
+    private static final RoleHierarchy EMPTY = new RoleHierarchy(ImmutableSetMultimap.<String, String>of(),
+            ImmutableMap.<String, ImmutableSet<String>>of());
+
+    private final ImmutableSetMultimap<String, String> implications;
+    private final ImmutableMap<String, ImmutableSet<String>> closures;
+
+    private RoleHierarchy(ImmutableSetMultimap<String, String> implications,
+                          ImmutableMap<String, ImmutableSet<String>> closures) {
+        this.implications = implications;
+        this.closures = closures;
+    }
+
+    public static RoleHierarchy empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @param implications each role mapped to the roles it directly implies.
+     * @throws IllegalArgumentException if a role implies itself, directly or through other roles.
+     */
+    public static RoleHierarchy of(SetMultimap<String, String> implications) {
+        if (implications.isEmpty()) {
+            return EMPTY;
+        }
+        Map<String, ImmutableSet<String>> closures = new HashMap<>();
+        for (String role : implications.keySet()) {
+            closure(role, implications, closures, new LinkedHashSet<String>());
+        }
+        return new RoleHierarchy(ImmutableSetMultimap.copyOf(implications), ImmutableMap.copyOf(closures));
+    }
+
+    private static ImmutableSet<String> closure(String role, SetMultimap<String, String> implications,
+                                                Map<String, ImmutableSet<String>> closures, Set<String> path) {
+        ImmutableSet<String> closure = closures.get(role);
+        if (closure != null) {
+            return closure;
+        }
+        if (!path.add(role)) {
+            List<String> cycle = new ArrayList<>(path);
+            cycle = cycle.subList(cycle.indexOf(role), cycle.size());
+            throw new IllegalArgumentException("role cycle: " + Joiner.on(" -> ").join(cycle) + " -> " + role);
+        }
+        ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+        for (String implied : implications.get(role)) {
+            builder.add(implied);
+            builder.addAll(closure(implied, implications, closures, path));
+        }
+        path.remove(role);
+        closure = builder.build();
+        closures.put(role, closure);
+        return closure;
+    }
+
+    public boolean isEmpty() {
+        return implications.isEmpty();
+    }
+
+    /**
+     * @return each role mapped to the roles it directly implies, as declared.
+     */
+    public ImmutableSetMultimap<String, String> getImplications() {
+        return implications;
+    }
+
+    /**
+     * @return the roles and every role they imply; the given set itself if it implies nothing more.
+     */
+    public Set<String> expand(Set<String> roles) {
+        Set<String> expanded = null;
+        for (String role : roles) {
+            ImmutableSet<String> closure = closures.get(role);
+            if (closure != null && !roles.containsAll(closure)) {
+                if (expanded == null) {
+                    expanded = new HashSet<>(roles);
+                }
+                expanded.addAll(closure);
+            }
+        }
+        return expanded != null ? expanded : roles;
+    }
+
+    /**
+     * The inverse of {@link #expand(Set)}: drops every role that another role of the set implies.
+     */
+    public Set<String> reduce(Set<String> roles) {
+        Set<String> reduced = new HashSet<>(roles);
+        for (String role : roles) {
+            ImmutableSet<String> closure = closures.get(role);
+            if (closure != null) {
+                reduced.removeAll(closure);
+            }
+        }
+        return reduced;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof RoleHierarchy && implications.equals(((RoleHierarchy) o).implications);
+    }
+
+    @Override
+    public int hashCode() {
+        return implications.hashCode();
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import com.google.common.collect.ImmutableSet;
+import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.authz.Permission;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * An immutable {@link AuthorizationInfo} that only carries roles. One instance is shared by every DN
+ * that is granted the same set of roles; with composite roles, DNs whose declared roles differ but expand
+ * to the same roles hold separate instances that share the expanded set.
+ */
+public final class RoleSetAuthorizationInfo implements AuthorizationInfo {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ImmutableSet<String> roles;
+    private final ImmutableSet<String> declaredRoles;
+
+    RoleSetAuthorizationInfo(Set<String> roles) {
+        this.roles = ImmutableSet.copyOf(roles);
+        this.declaredRoles = this.roles;
+    }
+
+    /**
+     * @param expanded the shared instance holding the declared roles and every role they imply.
+     */
+    RoleSetAuthorizationInfo(RoleSetAuthorizationInfo expanded, Set<String> declaredRoles) {
+        this.roles = expanded.roles;
+        this.declaredRoles = ImmutableSet.copyOf(declaredRoles);
+    }
+
+    @Override
+    public Set<String> getRoles() {
+        return roles;
+    }
+
+    /**
+     * @return the roles as granted in the mapping, without the roles they imply.
+     */
+    Set<String> getDeclaredRoles() {
+        return declaredRoles;
+    }
+
+    @Override
+    public Collection<String> getStringPermissions() {
+        return ImmutableSet.of();
+    }
+
+    @Override
+    public Collection<Permission> getObjectPermissions() {
+        return ImmutableSet.of();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof RoleSetAuthorizationInfo && roles.equals(((RoleSetAuthorizationInfo) o).roles);
+    }
+
+    @Override
+    public int hashCode() {
+        return roles.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "RoleSetAuthorizationInfo" + roles;
+    }
+}
@@ -0,0 +1,372 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.util.FileWatcher;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.SetMultimap;
+import com.google.common.io.BaseEncoding;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the mapping of several Nexus nodes in step through a directory they all mount.
+ * <p>
+ * Every version of the mapping is published as an immutable yaml file, {@code mapping-<version>.yaml}, and
+ * a small {@code current} file names the version in service, the SHA-256 of its content and the moment
+ * nodes are to switch to it. Nodes only poll the {@code current} file, which is cheap even over NFS; when it
+ * names a new version they load it at once but keep serving the previous one until the activation time, so
+ * that all nodes change over together, within the accuracy of their clocks.
+ * <p>
+ * A node publishes a new version when its local mapping file changes, or when the mapping is changed
+ * through the REST API. Publication is serialized with a lock on {@code publish.lock} and is a
+ * compare-and-set on {@code current}: a version is only published if {@code current} still names the version
+ * it was built on. A snapshot saved from the REST API that finds another version published in the meantime is
+ * refused with a {@link MappingConflictException}, so that its batches are applied again on top of the new
+ * version; an edit of the local file is merged into the newest version, as the grants, rules and implications
+ * it adds to or removes from the file's previous content, rather than replacing it.
+ */
+public class SharedDirectoryMappingBackend implements CoordinatedMappingBackend {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SharedDirectoryMappingBackend.class);
+
+    public static final long DEFAULT_SWITCH_DELAY_SECONDS = 60;
+    public static final int DEFAULT_RETAINED_VERSIONS = 10;
+
+    static final String CURRENT_FILE = "current";
+    static final int PUBLISH_ATTEMPTS = 3;
+    private static final String LOCK_FILE = "publish.lock";
+    private static final Pattern VERSION_FILE = Pattern.compile("mapping-(\\d+)\\.yaml");
+
+    private final File directory;
+    private final File localFile;
+    private final long switchDelayMillis;
+    private final int retainedVersions;
+    private final Cache<Long, SharedMappingVersion> sharedVersions = CacheBuilder.newBuilder()
+            .maximumSize(16)
+            .build();
+    private byte[] localContentHash;
+    private DnRoleMapping localMapping;
+    private SharedMappingVersion base;
+    private volatile long activationTimeMillis;
+
+    /**
+     * @param localFile published whenever its content changes, and imported if the directory holds no
+     *                  version yet; may be null.
+     */
+    public SharedDirectoryMappingBackend(File directory, File localFile, long switchDelayMillis, int retainedVersions) {
+        this.directory = directory;
+        this.localFile = localFile;
+        this.switchDelayMillis = switchDelayMillis;
+        this.retainedVersions = Math.max(2, retainedVersions);
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @throws IllegalStateException if the directory holds no intact version and there is nothing to import.
+     */
+    @Override
+    public synchronized DnRoleMapping load(long version) {
+        try {
+            publishLocalChanges();
+            SharedMappingVersion current = readCurrent();
+            if (current == null) {
+                throw new IllegalStateException("no mapping has been published in " + directory);
+            }
+            DnRoleMapping mapping = load(current, version);
+            base = current;
+            sharedVersions.put(version, current);
+            activationTimeMillis = current.getActivationTimeMillis();
+            LOGGER.info("loaded shared mapping {} from {}", current, directory);
+            return mapping;
+        } catch (IOException e) {
+            throw new IllegalStateException("could not read the shared mapping in " + directory + ": "
+                    + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public long getActivationTimeMillis() {
+        return activationTimeMillis;
+    }
+
+    @Override
+    public long getActivationTimeMillis(DnRoleMapping mapping) {
+        SharedMappingVersion sharedVersion = getSharedVersion(mapping);
+        return sharedVersion != null ? sharedVersion.getActivationTimeMillis() : 0;
+    }
+
+    /**
+     * Publishes the mapping as a new shared version; other nodes switch to it at its activation time. The
+     * mapping is taken to be built on the version this node last loaded or published.
+     *
+     * @throws MappingConflictException if another version has been published since.
+     */
+    @Override
+    public synchronized Map<File, FileWatcher.Fingerprint> save(DnRoleMapping mapping) throws IOException {
+        Map<File, FileWatcher.Fingerprint> written = new HashMap<>();
+        SharedMappingVersion published = publish(mapping, base, written);
+        base = published;
+        sharedVersions.put(mapping.getVersion(), published);
+        return written;
+    }
+
+    /**
+     * @return the shared version the snapshot was loaded from or saved as, or null if it is not known.
+     */
+    public SharedMappingVersion getSharedVersion(DnRoleMapping mapping) {
+        return sharedVersions.getIfPresent(mapping.getVersion());
+    }
+
+    @Override
+    public List<File> getWatchedFiles() {
+        return localFile != null ? ImmutableList.of(new File(directory, CURRENT_FILE), localFile)
+                : ImmutableList.of(new File(directory, CURRENT_FILE));
+    }
+
+    /**
+     * The local file is only published once it has changed while this node is running, so a node started
+     * with a stale copy does not roll back the shared mapping. What the change adds to or removes from the
+     * file's previous content is merged into the newest shared version, so grants made through the REST API,
+     * on this node or another, which never reach the local file, are kept.
+     */
+    private void publishLocalChanges() throws IOException {
+        if (localFile == null || !localFile.isFile()) {
+            return;
+        }
+        byte[] hash = MappingSnapshotStore.sha256(localFile);
+        if (Arrays.equals(hash, localContentHash)) {
+            return;
+        }
+        byte[] previousHash = localContentHash;
+        localContentHash = hash;
+        DnRoleMapping local = new DnRoleMappingLoader(localFile).load(0);
+        DnRoleMapping previous = localMapping;
+        localMapping = local;
+        if (previous == null) {
+            if (readCurrent() == null) {
+                publish(localFile, null, new HashMap<File, FileWatcher.Fingerprint>());
+            }
+            return;
+        }
+        for (int attempt = 1; ; attempt++) {
+            SharedMappingVersion current = readCurrent();
+            try {
+                DnRoleMapping merged = current != null ? merge(load(current, 0), previous, local) : local;
+                publish(merged, current, new HashMap<File, FileWatcher.Fingerprint>());
+                return;
+            } catch (MappingConflictException e) {
+                if (attempt == PUBLISH_ATTEMPTS) {
+                    localContentHash = previousHash;
+                    localMapping = previous;
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies what changed between two contents of the local file to a shared version, the way a three-way
+     * merge would: the grants, rules and implications added to or removed from the file are added to or
+     * removed from the shared version, and everything else in it is kept.
+     *
+     * @throws IllegalStateException if the merged implications contain a cycle.
+     */
+    static DnRoleMapping merge(DnRoleMapping shared, DnRoleMapping previousLocal, DnRoleMapping local) {
+        SetMultimap<String, String> roles = merge(declaredRoles(shared), declaredRoles(previousLocal),
+                declaredRoles(local));
+        SetMultimap<String, String> rules = merge(shared.getRulePatterns(), previousLocal.getRulePatterns(),
+                local.getRulePatterns());
+        SetMultimap<String, String> implications = merge(shared.getRoleHierarchy().getImplications(),
+                previousLocal.getRoleHierarchy().getImplications(), local.getRoleHierarchy().getImplications());
+        DnRoleMapping.Builder builder = DnRoleMapping.builder().addImplications(implications);
+        for (Map.Entry<String, Collection<String>> entry : roles.asMap().entrySet()) {
+            builder.addAll(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, String> rule : rules.entries()) {
+            builder.addRule(rule.getValue(), rule.getKey());
+        }
+        try {
+            return builder.build(0);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("the local mapping cannot be merged into the shared mapping: "
+                    + e.getMessage(), e);
+        }
+    }
+
+    private static SetMultimap<String, String> merge(SetMultimap<String, String> shared,
+                                                     SetMultimap<String, String> previousLocal,
+                                                     SetMultimap<String, String> local) {
+        SetMultimap<String, String> merged = HashMultimap.create(shared);
+        for (Map.Entry<String, String> entry : previousLocal.entries()) {
+            if (!local.containsEntry(entry.getKey(), entry.getValue())) {
+                merged.remove(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Map.Entry<String, String> entry : local.entries()) {
+            if (!previousLocal.containsEntry(entry.getKey(), entry.getValue())) {
+                merged.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return merged;
+    }
+
+    private static SetMultimap<String, String> declaredRoles(DnRoleMapping mapping) {
+        SetMultimap<String, String> roles = HashMultimap.create();
+        for (String dn : mapping.getDns()) {
+            roles.putAll(dn, mapping.getDeclaredRoles(dn));
+        }
+        return roles;
+    }
+
+    private DnRoleMapping load(SharedMappingVersion sharedVersion, long version) throws IOException {
+        File versionFile = versionFile(sharedVersion.getVersion());
+        if (!sharedVersion.hasContent(MappingSnapshotStore.sha256(versionFile))) {
+            throw new IllegalStateException(versionFile + " does not match the hash in " + CURRENT_FILE);
+        }
+        return new DnRoleMappingLoader(versionFile).load(version);
+    }
+
+    private SharedMappingVersion publish(DnRoleMapping mapping, SharedMappingVersion expected,
+                                         Map<File, FileWatcher.Fingerprint> written) throws IOException {
+        File temporaryFile = new File(directory, "mapping-" + mapping.getVersion() + "-" + System.nanoTime() + ".tmp");
+        try {
+            new DnRoleMappingLoader(temporaryFile).save(mapping);
+            return publish(temporaryFile, expected, written);
+        } finally {
+            Files.deleteIfExists(temporaryFile.toPath());
+        }
+    }
+
+    /**
+     * @param expected the version {@code current} must still name, or null if the directory must hold none.
+     * @param written  receives the fingerprint of the {@code current} file if it is replaced.
+     * @return the published version; the current one if it already has the same content.
+     * @throws MappingConflictException if {@code current} names another version than the expected one.
+     */
+    private SharedMappingVersion publish(File source, SharedMappingVersion expected,
+                                         Map<File, FileWatcher.Fingerprint> written) throws IOException {
+        byte[] hash = MappingSnapshotStore.sha256(source);
+        try (RandomAccessFile lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+             FileChannel channel = lockFile.getChannel();
+             FileLock ignored = channel.lock()) {
+            SharedMappingVersion current = readCurrent();
+            if (current != null && current.hasContent(hash)) {
+                return current;
+            }
+            boolean unchanged = current == null ? expected == null
+                    : expected != null && current.getVersion() == expected.getVersion();
+            if (!unchanged) {
+                throw new MappingConflictException(directory + " has moved on to shared mapping " + current
+                        + " since " + (expected != null ? expected : "it was empty"));
+            }
+            long version = Math.max(current != null ? current.getVersion() : 0, highestVersion()) + 1;
+            while (true) {
+                try {
+                    Files.copy(source.toPath(), versionFile(version).toPath());
+                    break;
+                } catch (FileAlreadyExistsException e) {
+                    version++;
+                }
+            }
+            SharedMappingVersion published = new SharedMappingVersion(version, hash,
+                    System.currentTimeMillis() + switchDelayMillis);
+            written.put(new File(directory, CURRENT_FILE), writeCurrent(published));
+            pruneVersionsBefore(version - retainedVersions + 1);
+            LOGGER.info("published shared mapping {} in {}, due in {} s", published, directory,
+                    TimeUnit.MILLISECONDS.toSeconds(switchDelayMillis));
+            return published;
+        }
+    }
+
+    SharedMappingVersion readCurrent() throws IOException {
+        File file = new File(directory, CURRENT_FILE);
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream inputStream = new FileInputStream(file)) {
+            properties.load(inputStream);
+        }
+        try {
+            return new SharedMappingVersion(Long.parseLong(properties.getProperty("version")),
+                    BaseEncoding.base16().lowerCase().decode(properties.getProperty("sha256")),
+                    Long.parseLong(properties.getProperty("activateAt")));
+        } catch (RuntimeException e) {
+            throw new IOException(file + " is corrupt", e);
+        }
+    }
+
+    private FileWatcher.Fingerprint writeCurrent(SharedMappingVersion version) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("version", Long.toString(version.getVersion()));
+        properties.setProperty("sha256", version.getContentHash());
+        properties.setProperty("activateAt", Long.toString(version.getActivationTimeMillis()));
+        File temporaryFile = new File(directory, CURRENT_FILE + "." + System.nanoTime() + ".tmp");
+        try (OutputStream outputStream = new FileOutputStream(temporaryFile)) {
+            properties.store(outputStream, null);
+        }
+        FileWatcher.Fingerprint written = FileWatcher.Fingerprint.of(temporaryFile);
+        Files.move(temporaryFile.toPath(), new File(directory, CURRENT_FILE).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return written;
+    }
+
+    private long highestVersion() {
+        List<Long> versions = versions();
+        return versions.isEmpty() ? 0 : versions.get(versions.size() - 1);
+    }
+
+    private void pruneVersionsBefore(long oldestRetained) {
+        for (long version : versions()) {
+            if (version < oldestRetained && !versionFile(version).delete()) {
+                LOGGER.debug("could not delete {}", versionFile(version));
+            }
+        }
+    }
+
+    private List<Long> versions() {
+        List<Long> versions = new ArrayList<>();
+        String[] names = directory.list();
+        for (String name : names != null ? names : new String[0]) {
+            Matcher matcher = VERSION_FILE.matcher(name);
+            if (matcher.matches()) {
+                versions.add(Long.parseLong(matcher.group(1)));
+            }
+        }
+        Collections.sort(versions);
+        return versions;
+    }
+
+    private File versionFile(long version) {
+        return new File(directory, "mapping-" + version + ".yaml");
+    }
+}
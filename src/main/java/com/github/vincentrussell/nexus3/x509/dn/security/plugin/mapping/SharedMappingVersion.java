@@ -0,0 +1,43 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import com.google.common.io.BaseEncoding;
+
+import java.util.Arrays;
+
+/**
+ * One published version of a mapping in a {@link SharedDirectoryMappingBackend}: a number that increases
+ * with every publication, the SHA-256 of the mapping file and the moment nodes switch to it.
+ */
+public final class SharedMappingVersion {
+
+    private final long version;
+    private final byte[] contentHash;
+    private final long activationTimeMillis;
+
+    SharedMappingVersion(long version, byte[] contentHash, long activationTimeMillis) {
+        this.version = version;
+        this.contentHash = contentHash.clone();
+        this.activationTimeMillis = activationTimeMillis;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public String getContentHash() {
+        return BaseEncoding.base16().lowerCase().encode(contentHash);
+    }
+
+    public long getActivationTimeMillis() {
+        return activationTimeMillis;
+    }
+
+    boolean hasContent(byte[] hash) {
+        return Arrays.equals(contentHash, hash);
+    }
+
+    @Override
+    public String toString() {
+        return "version " + version + " (" + getContentHash().substring(0, 12) + ")";
+    }
+}
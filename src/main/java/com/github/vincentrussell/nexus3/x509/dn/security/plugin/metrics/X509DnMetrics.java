@@ -0,0 +1,178 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.DnNormalizer;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.MappingReloader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers, meters and gauges for the filter, the realm and the mapping reloader. They are registered in
+ * the shared {@code nexus} Dropwizard registry, so they show up on the Nexus metrics endpoint, and are
+ * also exposed through JMX under the {@value #JMX_DOMAIN} domain.
+ */
+public final class X509DnMetrics {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(X509DnMetrics.class);
+
+    public static final String PREFIX = "com.github.vincentrussell.nexus3.x509.dn.security.plugin";
+    public static final String JMX_DOMAIN = "nexus3-x509-dn-security-plugin";
+    private static final String NEXUS_REGISTRY = "nexus";
+
+    private static final X509DnMetrics INSTANCE = new X509DnMetrics(SharedMetricRegistries.getOrCreate(NEXUS_REGISTRY));
+
+    private final MetricRegistry registry;
+    private final Timer filterLatency;
+    private final Timer authorizationLatency;
+    private final Meter anonymousFallbacks;
+    private final Counter authorizationRequests;
+    private final Counter authorizationCacheMisses;
+    private final Timer reloadDuration;
+    private final Meter reloadFailures;
+    private final Meter revokedCertificates;
+
+    X509DnMetrics(MetricRegistry registry) {
+        this.registry = registry;
+        this.filterLatency = registry.timer(name("filter", "latency"));
+        this.authorizationLatency = registry.timer(name("authorization", "latency"));
+        this.anonymousFallbacks = registry.meter(name("authorization", "anonymous-fallbacks"));
+        this.authorizationRequests = registry.counter(name("authorization", "requests"));
+        this.authorizationCacheMisses = registry.counter(name("authorization", "cache-misses"));
+        this.reloadDuration = registry.timer(name("mapping", "reload", "duration"));
+        this.reloadFailures = registry.meter(name("mapping", "reload", "failures"));
+        this.revokedCertificates = registry.meter(name("authentication", "revoked-certificates"));
+        replace(name("authorization", "cache-hit-ratio"), new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                long requests = authorizationRequests.getCount();
+                return Ratio.of(requests - authorizationCacheMisses.getCount(), requests);
+            }
+        });
+        replace(name("normalization", "cache-hit-ratio"), new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                DnNormalizer dnNormalizer = DnNormalizer.getInstance();
+                long hits = dnNormalizer.getHitCount();
+                return Ratio.of(hits, hits + dnNormalizer.getMissCount());
+            }
+        });
+        replace(name("normalization", "cache-size"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return DnNormalizer.getInstance().size();
+            }
+        });
+        startJmxReporter();
+    }
+
+    public static X509DnMetrics get() {
+        return INSTANCE;
+    }
+
+    public static String name(String... names) {
+        return MetricRegistry.name(PREFIX, names);
+    }
+
+    public MetricRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * @param nanos the time the filter spent authenticating a request, excluding the rest of the chain.
+     */
+    public void filterRequest(long nanos) {
+        filterLatency.update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void authorizationRequested() {
+        authorizationRequests.inc();
+    }
+
+    /**
+     * @return the number of authorization requests served, cached or not.
+     */
+    public long getAuthorizationRequestCount() {
+        return authorizationRequests.getCount();
+    }
+
+    public void authorizationComputed(long nanos, boolean anonymousFallback) {
+        authorizationCacheMisses.inc();
+        authorizationLatency.update(nanos, TimeUnit.NANOSECONDS);
+        if (anonymousFallback) {
+            anonymousFallbacks.mark();
+        }
+    }
+
+    public void reloadSucceeded(long nanos) {
+        reloadDuration.update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void reloadFailed() {
+        reloadFailures.mark();
+    }
+
+    public void certificateRevoked() {
+        revokedCertificates.mark();
+    }
+
+    /**
+     * Registers gauges for the mapping currently in service, replacing those of a previous reloader.
+     */
+    public void registerMapping(final MappingReloader mappingReloader) {
+        replace(name("mapping", "version"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return mappingReloader.getMapping().getVersion();
+            }
+        });
+        replace(name("mapping", "dns"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return mappingReloader.getMapping().size();
+            }
+        });
+        replace(name("mapping", "rules"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return mappingReloader.getMapping().getRuleCount();
+            }
+        });
+    }
+
+    /**
+     * Registers a gauge, replacing any metric already registered under the name.
+     */
+    public <T extends Metric> T replace(String name, T metric) {
+        registry.remove(name);
+        return registry.register(name, metric);
+    }
+
+    private void startJmxReporter() {
+        try {
+            JmxReporter.forRegistry(registry)
+                    .inDomain(JMX_DOMAIN)
+                    .filter(new MetricFilter() {
+                        @Override
+                        public boolean matches(String name, Metric metric) {
+                            return name.startsWith(PREFIX);
+                        }
+                    })
+                    .convertDurationsTo(TimeUnit.MILLISECONDS)
+                    .build()
+                    .start();
+        } catch (RuntimeException e) {
+            LOGGER.warn("could not expose metrics through JMX: {}", e.getMessage());
+        }
+    }
+}
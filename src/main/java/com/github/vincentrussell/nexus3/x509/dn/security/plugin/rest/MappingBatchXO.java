@@ -0,0 +1,20 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A batch of mapping changes that is applied all or nothing.
+ */
+public class MappingBatchXO {
+
+    private List<MappingOperationXO> operations = new ArrayList<>();
+
+    public List<MappingOperationXO> getOperations() {
+        return operations;
+    }
+
+    public void setOperations(List<MappingOperationXO> operations) {
+        this.operations = operations;
+    }
+}
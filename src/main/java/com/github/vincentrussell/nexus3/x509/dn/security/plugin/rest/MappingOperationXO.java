@@ -0,0 +1,53 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.rest;
+
+/**
+ * One grant or revocation in a {@link MappingBatchXO}.
+ */
+public class MappingOperationXO {
+
+    public static final String ADD = "add";
+    public static final String REMOVE = "remove";
+
+    private String op;
+    private String role;
+    private String dn;
+
+    public MappingOperationXO() {
+    }
+
+    public MappingOperationXO(String op, String role, String dn) {
+        this.op = op;
+        this.role = role;
+        this.dn = dn;
+    }
+
+    /**
+     * @return {@value #ADD} or {@value #REMOVE}.
+     */
+    public String getOp() {
+        return op;
+    }
+
+    public void setOp(String op) {
+        this.op = op;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public void setRole(String role) {
+        this.role = role;
+    }
+
+    /**
+     * @return a DN, or a wildcard rule.
+     */
+    public String getDn() {
+        return dn;
+    }
+
+    public void setDn(String dn) {
+        this.dn = dn;
+    }
+}
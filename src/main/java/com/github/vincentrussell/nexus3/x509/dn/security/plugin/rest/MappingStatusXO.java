@@ -0,0 +1,83 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The mapping version in service after a request, with the errors that kept a batch from being applied.
+ */
+public class MappingStatusXO {
+
+    private long version;
+    private int dns;
+    private int rules;
+    private int applied;
+    private Long sharedVersion;
+    private String contentHash;
+    private List<String> errors = new ArrayList<>();
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public int getDns() {
+        return dns;
+    }
+
+    public void setDns(int dns) {
+        this.dns = dns;
+    }
+
+    public int getRules() {
+        return rules;
+    }
+
+    public void setRules(int rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * @return the number of operations applied by the request; 0 if it was rejected.
+     */
+    public int getApplied() {
+        return applied;
+    }
+
+    public void setApplied(int applied) {
+        this.applied = applied;
+    }
+
+    /**
+     * @return the version of the shared mapping this node serves; null unless the shared backend is used.
+     */
+    public Long getSharedVersion() {
+        return sharedVersion;
+    }
+
+    public void setSharedVersion(Long sharedVersion) {
+        this.sharedVersion = sharedVersion;
+    }
+
+    /**
+     * @return the SHA-256 of the shared mapping this node serves; null unless the shared backend is used.
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(List<String> errors) {
+        this.errors = errors;
+    }
+}
@@ -0,0 +1,147 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.rest;
+
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.X509DnAuthenticatingRealm;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.DnRoleMapping;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.MappingUpdate;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.SharedMappingVersion;
+import org.apache.shiro.authz.annotation.RequiresAuthentication;
+import org.apache.shiro.authz.annotation.RequiresPermissions;
+import org.apache.shiro.mgt.RealmSecurityManager;
+import org.apache.shiro.realm.Realm;
+import org.sonatype.nexus.rest.Resource;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lets administrators change the DN mapping without editing the mapping file. A batch of operations is
+ * validated as a whole and then applied as a single new mapping version, so that clients never observe a
+ * partially applied batch and the authorization cache is only invalidated for the DNs that changed.
+ * <p>
+ * {@code POST /service/rest/x509dn/mappings/batch} with
+ * {@code {"operations": [{"op": "add", "role": "nx-admin", "dn": "CN=..."}]}}; {@code GET} returns the
+ * version in service, and with the shared mapping backend the shared version and content hash this node
+ * serves, so that load balancer health checks can compare nodes.
+ */
+@Named
+@Singleton
+@Path(X509DnMappingResource.RESOURCE_URI)
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+public class X509DnMappingResource implements Resource {
+
+    public static final String RESOURCE_URI = "/x509dn/mappings";
+    public static final String MAX_BATCH_SIZE = "X509DnAuthenticatingRealm.rest.batch.max";
+    public static final int DEFAULT_MAX_BATCH_SIZE = 10000;
+
+    private final RealmSecurityManager realmSecurityManager;
+    private final int maxBatchSize;
+
+    @Inject
+    public X509DnMappingResource(RealmSecurityManager realmSecurityManager) {
+        this.realmSecurityManager = realmSecurityManager;
+        this.maxBatchSize = Integer.getInteger(MAX_BATCH_SIZE, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    @GET
+    @RequiresAuthentication
+    @RequiresPermissions("nexus:users:read")
+    public MappingStatusXO get() {
+        X509DnAuthenticatingRealm realm = getRealm();
+        MappingStatusXO status = status(realm.getMapping(), 0);
+        SharedMappingVersion sharedVersion = realm.getSharedMappingVersion();
+        if (sharedVersion != null) {
+            status.setSharedVersion(sharedVersion.getVersion());
+            status.setContentHash(sharedVersion.getContentHash());
+        }
+        return status;
+    }
+
+    /**
+     * @throws WebApplicationException with status 400 and the errors of all invalid operations if any
+     *                                  operation is invalid; nothing is applied in that case.
+     */
+    @POST
+    @Path("/batch")
+    @RequiresAuthentication
+    @RequiresPermissions("nexus:users:update")
+    public MappingStatusXO batch(MappingBatchXO batch) {
+        X509DnAuthenticatingRealm realm = getRealm();
+        List<String> errors = new ArrayList<>();
+        MappingUpdate update = toUpdate(batch, maxBatchSize, errors);
+        if (!errors.isEmpty()) {
+            throw badRequest(errors);
+        }
+        if (update.isEmpty()) {
+            return status(realm.getMapping(), 0);
+        }
+        return status(realm.updateMapping(update), update.getOperations().size());
+    }
+
+    /**
+     * @return the update, or null if any operation is invalid, in which case the reasons are added to errors.
+     */
+    static MappingUpdate toUpdate(MappingBatchXO batch, int maxBatchSize, List<String> errors) {
+        List<MappingOperationXO> operations = batch != null && batch.getOperations() != null
+                ? batch.getOperations() : new ArrayList<MappingOperationXO>();
+        if (operations.size() > maxBatchSize) {
+            errors.add("a batch may contain at most " + maxBatchSize + " operations");
+            return null;
+        }
+        MappingUpdate.Builder builder = MappingUpdate.builder();
+        for (int i = 0; i < operations.size(); i++) {
+            MappingOperationXO operation = operations.get(i);
+            try {
+                if (operation == null) {
+                    throw new IllegalArgumentException("an operation is required");
+                } else if (MappingOperationXO.ADD.equals(operation.getOp())) {
+                    builder.add(operation.getRole(), operation.getDn());
+                } else if (MappingOperationXO.REMOVE.equals(operation.getOp())) {
+                    builder.remove(operation.getRole(), operation.getDn());
+                } else {
+                    throw new IllegalArgumentException("op must be " + MappingOperationXO.ADD + " or "
+                            + MappingOperationXO.REMOVE);
+                }
+            } catch (IllegalArgumentException e) {
+                errors.add("operations[" + i + "]: " + e.getMessage());
+            }
+        }
+        return errors.isEmpty() ? builder.build() : null;
+    }
+
+    private static WebApplicationException badRequest(List<String> errors) {
+        MappingStatusXO status = new MappingStatusXO();
+        status.setErrors(errors);
+        return new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).entity(status)
+                .type(MediaType.APPLICATION_JSON).build());
+    }
+
+    private static MappingStatusXO status(DnRoleMapping mapping, int applied) {
+        MappingStatusXO status = new MappingStatusXO();
+        status.setVersion(mapping.getVersion());
+        status.setDns(mapping.size());
+        status.setRules(mapping.getRuleCount());
+        status.setApplied(applied);
+        return status;
+    }
+
+    private X509DnAuthenticatingRealm getRealm() {
+        for (Realm realm : realmSecurityManager.getRealms()) {
+            if (realm instanceof X509DnAuthenticatingRealm) {
+                return (X509DnAuthenticatingRealm) realm;
+            }
+        }
+        throw new WebApplicationException(Response.Status.SERVICE_UNAVAILABLE);
+    }
+}
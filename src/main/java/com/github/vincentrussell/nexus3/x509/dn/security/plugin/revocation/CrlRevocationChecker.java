@@ -0,0 +1,178 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.revocation;
+
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.util.FileWatcher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.security.auth.x500.X500Principal;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.cert.CRL;
+import java.security.cert.CRLException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks client certificates against locally configured CRL files. The files, PEM or DER and each holding
+ * one or more CRLs, are compiled into a {@link RevocationIndex}; the index is rebuilt on the file
+ * watcher's thread when any of them changes and published with a single volatile write. Every CRL must be
+ * signed by one of the given CA certificates, normally those of the trust store; if a changed file cannot
+ * be read or holds a CRL that is not, the previous index stays in service.
+ */
+public class CrlRevocationChecker implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CrlRevocationChecker.class);
+
+    private final List<File> crlFiles;
+    private final ImmutableListMultimap<X500Principal, X509Certificate> issuerCertificates;
+    private final boolean bloomEnabled;
+    private final FileWatcher fileWatcher;
+    private volatile RevocationIndex index;
+
+    /**
+     * Loads the initial index on the calling thread.
+     *
+     * @param issuerCertificates the CA certificates CRLs are verified against.
+     * @throws IllegalStateException if any of the CRL files cannot be read or is not signed by one of the CAs.
+     */
+    public CrlRevocationChecker(List<File> crlFiles, Collection<X509Certificate> issuerCertificates, boolean bloomEnabled,
+                                long pollIntervalSeconds, boolean watchEnabled) {
+        this.crlFiles = ImmutableList.copyOf(crlFiles);
+        ImmutableListMultimap.Builder<X500Principal, X509Certificate> issuers = ImmutableListMultimap.builder();
+        for (X509Certificate certificate : issuerCertificates) {
+            issuers.put(certificate.getSubjectX500Principal(), certificate);
+        }
+        this.issuerCertificates = issuers.build();
+        this.bloomEnabled = bloomEnabled;
+        this.index = load();
+        this.fileWatcher = new FileWatcher("crl", this.crlFiles, TimeUnit.SECONDS.toMillis(pollIntervalSeconds),
+                watchEnabled, new Runnable() {
+                    @Override
+                    public void run() {
+                        reload();
+                    }
+                });
+    }
+
+    public void start() {
+        fileWatcher.start();
+    }
+
+    public boolean isRevoked(X509Certificate certificate) {
+        return index.isRevoked(certificate);
+    }
+
+    public RevocationIndex getIndex() {
+        return index;
+    }
+
+    public FileWatcher getFileWatcher() {
+        return fileWatcher;
+    }
+
+    public List<File> getCrlFiles() {
+        return crlFiles;
+    }
+
+    /**
+     * @return true if a new index was published, false if the CRL files could not be read.
+     */
+    public synchronized boolean reload() {
+        try {
+            index = load();
+            return true;
+        } catch (IllegalStateException e) {
+            LOGGER.error("could not reload CRLs, keeping the previous revocation index: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private RevocationIndex load() {
+        long start = System.nanoTime();
+        RevocationIndex.Builder builder = RevocationIndex.builder();
+        CertificateFactory certificateFactory;
+        try {
+            certificateFactory = CertificateFactory.getInstance("X.509");
+        } catch (CertificateException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+        Date now = new Date();
+        for (File crlFile : crlFiles) {
+            Collection<? extends CRL> crls;
+            try (InputStream inputStream = new BufferedInputStream(new FileInputStream(crlFile))) {
+                crls = certificateFactory.generateCRLs(inputStream);
+            } catch (IOException | CRLException e) {
+                throw new IllegalStateException("could not read CRL file " + crlFile + ": " + e.getMessage(), e);
+            }
+            for (CRL crl : crls) {
+                verify((X509CRL) crl, crlFile);
+                addCrl(builder, (X509CRL) crl, crlFile, now);
+            }
+        }
+        RevocationIndex result = builder.build(bloomEnabled);
+        LOGGER.info("loaded {} revoked serial numbers for {} issuers from {} CRLs in {} ms", result.size(),
+                result.getIssuerCount(), result.getCrlCount(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return result;
+    }
+
+    /**
+     * A CA may hold several certificates under one name, e.g. across a key rollover, so each is tried.
+     */
+    private void verify(X509CRL crl, File crlFile) {
+        for (X509Certificate issuer : issuerCertificates.get(crl.getIssuerX500Principal())) {
+            boolean[] keyUsage = issuer.getKeyUsage();
+            // bit 6 of the key usage is cRLSign
+            if (keyUsage != null && !keyUsage[6]) {
+                continue;
+            }
+            try {
+                crl.verify(issuer.getPublicKey());
+                return;
+            } catch (GeneralSecurityException e) {
+                LOGGER.debug("CRL from {} is not signed by {}: {}", crlFile, issuer.getSubjectX500Principal(),
+                        e.getMessage());
+            }
+        }
+        throw new IllegalStateException("CRL from " + crlFile + " issued by " + crl.getIssuerX500Principal()
+                + " is not signed by a trusted CA");
+    }
+
+    private static void addCrl(RevocationIndex.Builder builder, X509CRL crl, File crlFile, Date now) {
+        builder.crlAdded();
+        if (crl.getNextUpdate() != null && crl.getNextUpdate().before(now)) {
+            LOGGER.warn("CRL from {} issued by {} was due to be updated at {}", crlFile, crl.getIssuerX500Principal(),
+                    crl.getNextUpdate());
+        }
+        if (crl.getRevokedCertificates() == null) {
+            return;
+        }
+        X500Principal issuer = crl.getIssuerX500Principal();
+        for (X509CRLEntry entry : crl.getRevokedCertificates()) {
+            // entries of an indirect CRL name their own issuer, which applies to the entries that follow
+            if (entry.getCertificateIssuer() != null) {
+                issuer = entry.getCertificateIssuer();
+            }
+            builder.add(issuer, entry.getSerialNumber());
+        }
+    }
+
+    @Override
+    public void close() {
+        fileWatcher.close();
+    }
+}
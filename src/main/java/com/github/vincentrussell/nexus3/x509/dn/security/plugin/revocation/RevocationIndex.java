@@ -0,0 +1,90 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.revocation;
+
+import com.google.common.collect.ImmutableMap;
+
+import javax.security.auth.x500.X500Principal;
+import java.math.BigInteger;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable index of revoked serial numbers per issuer, built from a set of CRLs. Lookups are a map
+ * probe on the issuer followed by a probe of a primitive hash set, with no I/O; only a long serial whose
+ * hash matches a revoked one is encoded, to confirm the match.
+ */
+public final class RevocationIndex {
+
+    public static final RevocationIndex EMPTY = new RevocationIndex(ImmutableMap.<X500Principal, SerialNumberSet>of(), 0);
+
+    private final ImmutableMap<X500Principal, SerialNumberSet> serialsByIssuer;
+    private final int crlCount;
+
+    private RevocationIndex(ImmutableMap<X500Principal, SerialNumberSet> serialsByIssuer, int crlCount) {
+        this.serialsByIssuer = serialsByIssuer;
+        this.crlCount = crlCount;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public boolean isRevoked(X509Certificate certificate) {
+        return isRevoked(certificate.getIssuerX500Principal(), certificate.getSerialNumber());
+    }
+
+    public boolean isRevoked(X500Principal issuer, BigInteger serialNumber) {
+        SerialNumberSet serials = serialsByIssuer.get(issuer);
+        return serials != null && serials.contains(serialNumber);
+    }
+
+    public int getIssuerCount() {
+        return serialsByIssuer.size();
+    }
+
+    public int getCrlCount() {
+        return crlCount;
+    }
+
+    /**
+     * @return the number of revoked serial numbers across all issuers.
+     */
+    public int size() {
+        int size = 0;
+        for (SerialNumberSet serials : serialsByIssuer.values()) {
+            size += serials.size();
+        }
+        return size;
+    }
+
+    public static final class Builder {
+        private final Map<X500Principal, SerialNumberSet.Builder> builders = new HashMap<>();
+        private int crlCount;
+
+        private Builder() {
+        }
+
+        public Builder add(X500Principal issuer, BigInteger serialNumber) {
+            SerialNumberSet.Builder builder = builders.get(issuer);
+            if (builder == null) {
+                builder = SerialNumberSet.builder();
+                builders.put(issuer, builder);
+            }
+            builder.add(serialNumber);
+            return this;
+        }
+
+        Builder crlAdded() {
+            crlCount++;
+            return this;
+        }
+
+        public RevocationIndex build(boolean bloomEnabled) {
+            ImmutableMap.Builder<X500Principal, SerialNumberSet> serialsByIssuer = ImmutableMap.builder();
+            for (Map.Entry<X500Principal, SerialNumberSet.Builder> entry : builders.entrySet()) {
+                serialsByIssuer.put(entry.getKey(), entry.getValue().build(bloomEnabled));
+            }
+            return new RevocationIndex(serialsByIssuer.build(), crlCount);
+        }
+    }
+}
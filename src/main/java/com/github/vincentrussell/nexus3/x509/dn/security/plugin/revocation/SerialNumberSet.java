@@ -0,0 +1,235 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.revocation;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable set of certificate serial numbers. Serials that fit in a long are kept in an open-addressing
+ * table of primitive longs, so a lookup neither allocates nor chases pointers. Longer serials, such as the
+ * random serials of 64 bits and more that most CAs issue, go to a second table keyed on a 64 bit hash of
+ * the serial; only a matching hash is confirmed against the encoded serial. An optional Bloom filter in
+ * front of both tables answers most negative lookups from a single cache line.
+ */
+final class SerialNumberSet {
+
+    private static final int BLOOM_BITS_PER_SERIAL = 10;
+    private static final int BLOOM_HASHES = 3;
+
+    private final long[] table;
+    private final int mask;
+    private final boolean containsZero;
+    private final long[] largeHashes;
+    private final byte[][] largeSerials;
+    private final int largeMask;
+    private final int size;
+    private final long[] bloom;
+    private final long bloomMask;
+
+    private SerialNumberSet(long[] serials, int count, List<BigInteger> largeSerials, boolean bloomEnabled) {
+        int capacity = capacity(count);
+        this.table = new long[capacity];
+        this.mask = capacity - 1;
+        int largeCapacity = capacity(largeSerials.size());
+        this.largeHashes = new long[largeCapacity];
+        this.largeSerials = new byte[largeCapacity][];
+        this.largeMask = largeCapacity - 1;
+        boolean zero = false;
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            long serial = serials[i];
+            if (serial == 0) {
+                distinct += zero ? 0 : 1;
+                zero = true;
+            } else if (insert(serial)) {
+                distinct++;
+            }
+        }
+        for (BigInteger serial : largeSerials) {
+            if (insertLarge(largeHash(serial), serial.toByteArray())) {
+                distinct++;
+            }
+        }
+        this.containsZero = zero;
+        this.size = distinct;
+        if (bloomEnabled && distinct > 0) {
+            int bits = Integer.highestOneBit(Math.max(64, distinct * BLOOM_BITS_PER_SERIAL - 1)) << 1;
+            this.bloom = new long[bits >>> 6];
+            this.bloomMask = bits - 1;
+            for (long serial : table) {
+                if (serial != 0) {
+                    addToBloom(mix(serial));
+                }
+            }
+            for (int i = 0; i < largeCapacity; i++) {
+                if (this.largeSerials[i] != null) {
+                    addToBloom(largeHashes[i]);
+                }
+            }
+        } else {
+            this.bloom = null;
+            this.bloomMask = 0;
+        }
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    boolean contains(BigInteger serial) {
+        if (serial.bitLength() > 63) {
+            return containsLarge(serial);
+        }
+        return contains(serial.longValue());
+    }
+
+    private boolean containsLarge(BigInteger serial) {
+        long hash = largeHash(serial);
+        if (bloom != null && !mightContain(hash)) {
+            return false;
+        }
+        byte[] encoded = null;
+        for (int i = (int) hash & largeMask; ; i = (i + 1) & largeMask) {
+            byte[] entry = largeSerials[i];
+            if (entry == null) {
+                return false;
+            }
+            if (largeHashes[i] == hash) {
+                if (encoded == null) {
+                    encoded = serial.toByteArray();
+                }
+                if (Arrays.equals(entry, encoded)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    boolean contains(long serial) {
+        if (serial == 0) {
+            return containsZero;
+        }
+        long hash = mix(serial);
+        if (bloom != null && !mightContain(hash)) {
+            return false;
+        }
+        for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+            long entry = table[i];
+            if (entry == serial) {
+                return true;
+            }
+            if (entry == 0) {
+                return false;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean hasBloomFilter() {
+        return bloom != null;
+    }
+
+    private boolean insert(long serial) {
+        for (int i = (int) mix(serial) & mask; ; i = (i + 1) & mask) {
+            long entry = table[i];
+            if (entry == serial) {
+                return false;
+            }
+            if (entry == 0) {
+                table[i] = serial;
+                return true;
+            }
+        }
+    }
+
+    private boolean insertLarge(long hash, byte[] serial) {
+        for (int i = (int) hash & largeMask; ; i = (i + 1) & largeMask) {
+            byte[] entry = largeSerials[i];
+            if (entry == null) {
+                largeHashes[i] = hash;
+                largeSerials[i] = serial;
+                return true;
+            }
+            if (largeHashes[i] == hash && Arrays.equals(entry, serial)) {
+                return false;
+            }
+        }
+    }
+
+    private void addToBloom(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= BLOOM_HASHES; i++) {
+            long bit = (h1 + i * h2) & bloomMask;
+            bloom[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    private boolean mightContain(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= BLOOM_HASHES; i++) {
+            long bit = (h1 + i * h2) & bloomMask;
+            if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int capacity(int count) {
+        return Integer.highestOneBit(Math.max(2, count * 2 - 1)) << 1;
+    }
+
+    /**
+     * Hashes the low 64 bits and the length of the serial, which {@link BigInteger} hands out without
+     * allocating; for random serials the low bits alone are as good as a hash of the whole serial.
+     */
+    private static long largeHash(BigInteger serial) {
+        return mix(serial.longValue() ^ ((long) serial.bitLength() << 56));
+    }
+
+    /**
+     * The finalizer of MurmurHash3; serials are often sequential, so they need spreading over the table.
+     */
+    private static long mix(long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    static final class Builder {
+        private long[] serials = new long[64];
+        private int count;
+        private final List<BigInteger> largeSerials = new ArrayList<>();
+
+        Builder add(BigInteger serial) {
+            if (serial.bitLength() > 63) {
+                largeSerials.add(serial);
+            } else {
+                add(serial.longValue());
+            }
+            return this;
+        }
+
+        Builder add(long serial) {
+            if (count == serials.length) {
+                serials = Arrays.copyOf(serials, count * 2);
+            }
+            serials[count++] = serial;
+            return this;
+        }
+
+        SerialNumberSet build(boolean bloomEnabled) {
+            return new SerialNumberSet(serials, count, largeSerials, bloomEnabled);
+        }
+    }
+}
@@ -2,12 +2,17 @@ package com.github.vincentrussell.nexus3.x509.dn.security.plugin.servlet;
 
 import com.github.vincentrussell.nexus3.x509.dn.security.plugin.X509DnAuthenticatingRealm;
 import com.github.vincentrussell.nexus3.x509.dn.security.plugin.api.ExtendedX509AuthenticationToken;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.metrics.X509DnMetrics;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
 import org.apache.shiro.authc.AuthenticationToken;
 import org.apache.shiro.mgt.RealmSecurityManager;
 import org.apache.shiro.realm.Realm;
+import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
 import org.apache.shiro.web.filter.authc.X509AuthenticationFilter;
+import org.apache.shiro.web.subject.WebSubject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,37 +34,142 @@ public class ExtendedX509AuthenticationFilter extends X509AuthenticationFilter {
 
     private static final Logger LOGGER = LoggerFactory.getLogger( ExtendedX509AuthenticationFilter.class );
     public static final String NAME = "ExtendedX509AuthenticationFilter";
+    public static final String SESSION_CACHE_ENABLED = NAME + ".session.cache.enabled";
+    public static final String SESSION_CACHE_SIZE = NAME + ".session.cache.size";
+    public static final String SESSION_CACHE_TTL = NAME + ".session.cache.ttl";
+    public static final String PROXY_HEADER = NAME + ".proxy.header";
+    public static final String PROXY_TRUSTED_ADDRESSES = NAME + ".proxy.trusted.addresses";
+    public static final String PROXY_CACHE_SIZE = NAME + ".proxy.cache.size";
+    private static final String SESSION_KEY_ATTRIBUTE = NAME + ".sessionKey";
+    private static final String FORWARDED_CHAIN_ATTRIBUTE = NAME + ".forwardedChain";
+    private static final X509Certificate[] NO_FORWARDED_CHAIN = new X509Certificate[0];
     private final RealmSecurityManager realmSecurityManager;
+    private final TlsSessionLoginCache tlsSessionLoginCache;
+    private final ForwardedClientCertificates forwardedClientCertificates;
+    private volatile boolean sessionCacheEnabled;
+    private volatile X509DnAuthenticatingRealm x509Realm;
 
     @Inject
     public ExtendedX509AuthenticationFilter(RealmSecurityManager realmSecurityManager) {
         this.realmSecurityManager = realmSecurityManager;
+        this.sessionCacheEnabled = Boolean.getBoolean(SESSION_CACHE_ENABLED);
+        this.tlsSessionLoginCache = new TlsSessionLoginCache(Long.getLong(SESSION_CACHE_SIZE, 10000),
+                Long.getLong(SESSION_CACHE_TTL, 300));
+        String proxyHeader = System.getProperty(PROXY_HEADER);
+        this.forwardedClientCertificates = proxyHeader != null && !proxyHeader.trim().isEmpty()
+                ? new ForwardedClientCertificates(proxyHeader.trim(),
+                        TrustedProxies.parse(System.getProperty(PROXY_TRUSTED_ADDRESSES)),
+                        Long.getLong(PROXY_CACHE_SIZE, 10000))
+                : null;
     }
 
+    public boolean isSessionCacheEnabled() {
+        return sessionCacheEnabled;
+    }
+
+    public void setSessionCacheEnabled(boolean sessionCacheEnabled) {
+        this.sessionCacheEnabled = sessionCacheEnabled;
+        if (!sessionCacheEnabled) {
+            tlsSessionLoginCache.invalidateAll();
+        }
+    }
+
+    public TlsSessionLoginCache getTlsSessionLoginCache() {
+        return tlsSessionLoginCache;
+    }
+
+    /**
+     * @return the reader of certificates forwarded by a proxy, or null if proxy header mode is off.
+     */
+    public ForwardedClientCertificates getForwardedClientCertificates() {
+        return forwardedClientCertificates;
+    }
+
+    /**
+     * Timed as the filter latency; the rest of the filter chain, i.e. serving the request, is not.
+     */
     @Override
     protected boolean onAccessDenied( ServletRequest request, ServletResponse response )
             throws Exception
     {
-        if (getClientCertChain(request)[0].getSubjectDN()
+        long start = System.nanoTime();
+        try {
+            return authenticate(request, response);
+        } finally {
+            X509DnMetrics.get().filterRequest(System.nanoTime() - start);
+        }
+    }
+
+    private boolean authenticate(ServletRequest request, ServletResponse response) throws Exception {
+        X509Certificate[] clientCertChain = getClientCertChain(request);
+        if (clientCertChain[0].getSubjectDN()
                 .equals(X509DnAuthenticatingRealm.DEFAULT_ANONYMOUS_CERT.getSubjectDN())) {
             return true;
         }
+        X509DnAuthenticatingRealm realm = x509Realm;
+        if (sessionCacheEnabled && realm != null) {
+            String sessionKey = tlsSessionLoginCache.getKey(request, clientCertChain);
+            if (sessionKey != null) {
+                PrincipalCollection principals = tlsSessionLoginCache.get(sessionKey, realm.getMappingVersion());
+                // the CRLs or the chain's validation may have changed since the session logged in
+                if (principals != null && !realm.isTrusted(clientCertChain)) {
+                    tlsSessionLoginCache.invalidate(sessionKey);
+                    principals = null;
+                }
+                if (principals != null) {
+                    ThreadContext.bind(new WebSubject.Builder(realmSecurityManager, request, response)
+                            .principals(principals)
+                            .authenticated(true)
+                            .sessionCreationEnabled(false)
+                            .buildWebSubject());
+                    return true;
+                }
+                request.setAttribute(SESSION_KEY_ATTRIBUTE, sessionKey);
+            }
+        }
         return executeLogin( request, response );
     }
 
+    @Override
+    protected boolean onLoginSuccess(AuthenticationToken token, Subject subject, ServletRequest request,
+                                     ServletResponse response) throws Exception {
+        Object sessionKey = request.getAttribute(SESSION_KEY_ATTRIBUTE);
+        X509DnAuthenticatingRealm realm = x509Realm;
+        if (sessionKey != null && realm != null) {
+            tlsSessionLoginCache.put((String) sessionKey, realm.getMappingVersion(), subject.getPrincipals());
+        }
+        return super.onLoginSuccess(token, subject, request, response);
+    }
+
     @Override
     protected AuthenticationToken createToken(ServletRequest request, ServletResponse response)
             throws Exception {
         X509Certificate[] clientCertChain = getClientCertChain(request);
-        LOGGER.info("X509AuthFilter.createToken() cert chain is {}", clientCertChain);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("X509AuthFilter.createToken() cert chain is {}", (Object) clientCertChain);
+        }
         return new ExtendedX509AuthenticationToken(clientCertChain, getHost(request));
     }
 
+    /**
+     * On a request from a trusted proxy the container's certificate is the proxy's own, so only the
+     * forwarded chain counts; without a usable header the request is anonymous.
+     */
     private X509Certificate[] getClientCertChain(ServletRequest request) throws CertificateException, IOException {
-        X509Certificate[] clientCertChain = (X509Certificate[]) request.getAttribute("javax.servlet.request.X509Certificate");
+        X509Certificate[] clientCertChain;
+        if (forwardedClientCertificates != null && forwardedClientCertificates.isFromTrustedProxy(request)) {
+            clientCertChain = (X509Certificate[]) request.getAttribute(FORWARDED_CHAIN_ATTRIBUTE);
+            if (clientCertChain == null) {
+                clientCertChain = forwardedClientCertificates.getChain(request);
+                request.setAttribute(FORWARDED_CHAIN_ATTRIBUTE,
+                        clientCertChain != null ? clientCertChain : NO_FORWARDED_CHAIN);
+            }
+        } else {
+            clientCertChain = (X509Certificate[]) request.getAttribute("javax.servlet.request.X509Certificate");
+        }
         if (clientCertChain == null || clientCertChain.length < 1) {
             clientCertChain = new X509Certificate[]{X509DnAuthenticatingRealm.DEFAULT_ANONYMOUS_CERT};
-            LOGGER.info("X509AuthFilter.createToken() cert chain is not found, using anonymous cert");
+            LOGGER.debug("X509AuthFilter.createToken() cert chain is not found, using anonymous cert");
         }
         return clientCertChain;
     }
@@ -75,6 +185,7 @@ public class ExtendedX509AuthenticationFilter extends X509AuthenticationFilter {
             }}),null);
 
         if (foundRealm != null) {
+            x509Realm = (X509DnAuthenticatingRealm) foundRealm;
             filterInternalForX509Realm(request, response, chain);
         } else {
             skipThisFilterAndContinueOnChain(request, response, chain);
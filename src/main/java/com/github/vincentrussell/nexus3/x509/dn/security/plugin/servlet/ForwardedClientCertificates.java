@@ -0,0 +1,155 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.servlet;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Reads the client certificate chain from a request header set by a TLS-terminating proxy. The header is
+ * only honoured on requests from {@link TrustedProxies}. The value may be PEM, with its line breaks kept
+ * or replaced by spaces or tabs as nginx and HAProxy do, URL-encoded PEM ({@code $ssl_client_escaped_cert}),
+ * or base64 DER. Parsing with {@link CertificateFactory} is costly, so parsed chains are kept in a bounded
+ * cache keyed on the SHA-256 of the header value.
+ */
+public class ForwardedClientCertificates {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ForwardedClientCertificates.class);
+
+    private static final String BEGIN = "-----BEGIN CERTIFICATE-----";
+    private static final String END = "-----END CERTIFICATE-----";
+
+    private final String headerName;
+    private final TrustedProxies trustedProxies;
+    private volatile Cache<HashCode, X509Certificate[]> cache;
+
+    public ForwardedClientCertificates(String headerName, TrustedProxies trustedProxies, long cacheSize) {
+        this.headerName = headerName;
+        this.trustedProxies = trustedProxies;
+        this.cache = newCache(cacheSize);
+        if (trustedProxies.isEmpty()) {
+            LOGGER.warn("client certificates in header {} will be ignored because no trusted proxy addresses are set",
+                    headerName);
+        }
+    }
+
+    public String getHeaderName() {
+        return headerName;
+    }
+
+    public TrustedProxies getTrustedProxies() {
+        return trustedProxies;
+    }
+
+    /**
+     * @return true if the request comes from a trusted proxy, whose own certificate is not the client's.
+     */
+    public boolean isFromTrustedProxy(ServletRequest request) {
+        return trustedProxies.contains(request.getRemoteAddr());
+    }
+
+    /**
+     * @return the forwarded chain, or null if the request carries none or does not come from a trusted proxy.
+     */
+    public X509Certificate[] getChain(ServletRequest request) {
+        if (!(request instanceof HttpServletRequest)) {
+            return null;
+        }
+        String value = ((HttpServletRequest) request).getHeader(headerName);
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        if (!isFromTrustedProxy(request)) {
+            LOGGER.debug("ignoring header {} from untrusted address {}", headerName, request.getRemoteAddr());
+            return null;
+        }
+        HashCode key = Hashing.sha256().hashString(value, StandardCharsets.UTF_8);
+        X509Certificate[] chain = cache.getIfPresent(key);
+        if (chain == null) {
+            try {
+                chain = parse(value);
+            } catch (CertificateException | IllegalArgumentException e) {
+                LOGGER.warn("could not parse the client certificate in header {} from {}: {}", headerName,
+                        request.getRemoteAddr(), e.getMessage());
+                return null;
+            }
+            cache.put(key, chain);
+        }
+        return chain.clone();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Replaces the cache with one of the new size, keeping as many entries as fit.
+     */
+    public void setCacheSize(long cacheSize) {
+        Cache<HashCode, X509Certificate[]> newCache = newCache(cacheSize);
+        newCache.putAll(cache.asMap());
+        cache = newCache;
+    }
+
+    static X509Certificate[] parse(String value) throws CertificateException {
+        String text = value.trim();
+        if (text.indexOf('%') >= 0) {
+            try {
+                // a '+' is base64, not an encoded space, except in the armor of an encoder that uses it for spaces
+                text = URLDecoder.decode(text.replace("+", "%2B"), "UTF-8")
+                        .replace("BEGIN+CERTIFICATE", "BEGIN CERTIFICATE")
+                        .replace("END+CERTIFICATE", "END CERTIFICATE");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        byte[] der = text.contains(BEGIN) ? pemToDer(text) : Base64.getMimeDecoder().decode(text);
+        Collection<? extends Certificate> certificates = CertificateFactory.getInstance("X.509")
+                .generateCertificates(new ByteArrayInputStream(der));
+        if (certificates.isEmpty()) {
+            throw new CertificateException("no certificate found");
+        }
+        List<X509Certificate> chain = new ArrayList<>();
+        for (Certificate certificate : certificates) {
+            chain.add((X509Certificate) certificate);
+        }
+        return chain.toArray(new X509Certificate[chain.size()]);
+    }
+
+    private static byte[] pemToDer(String pem) {
+        ByteArrayOutputStream der = new ByteArrayOutputStream();
+        int begin = pem.indexOf(BEGIN);
+        while (begin >= 0) {
+            int end = pem.indexOf(END, begin);
+            if (end < 0) {
+                throw new IllegalArgumentException("unterminated PEM certificate");
+            }
+            byte[] bytes = Base64.getMimeDecoder().decode(pem.substring(begin + BEGIN.length(), end));
+            der.write(bytes, 0, bytes.length);
+            begin = pem.indexOf(BEGIN, end);
+        }
+        return der.toByteArray();
+    }
+
+    private static Cache<HashCode, X509Certificate[]> newCache(long cacheSize) {
+        return CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+    }
+}
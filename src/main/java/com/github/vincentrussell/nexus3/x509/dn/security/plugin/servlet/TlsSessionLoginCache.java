@@ -0,0 +1,122 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.servlet;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.shiro.subject.PrincipalCollection;
+
+import javax.servlet.ServletRequest;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the principals of a successful login per TLS session so that later requests on the same
+ * mutual-TLS connection can skip token creation and the realm. Entries are keyed on the servlet
+ * container's TLS session id plus the fingerprint of the certificate chain, and are dropped as soon as
+ * the realm publishes a new version of the DN mapping. The CRLs and the chain's validity can change while
+ * a session is remembered, so the filter has the realm check the chain again before it accepts a
+ * remembered login.
+ */
+public class TlsSessionLoginCache {
+
+    static final String SSL_SESSION_ID = "javax.servlet.request.ssl_session_id";
+
+    private final Object lock = new Object();
+    private volatile long mappingVersion;
+    private volatile long maximumSize;
+    private volatile long ttlSeconds;
+    private volatile Cache<String, PrincipalCollection> cache;
+
+    public TlsSessionLoginCache(long maximumSize, long ttlSeconds) {
+        this.maximumSize = maximumSize;
+        this.ttlSeconds = ttlSeconds;
+        this.cache = newCache(maximumSize, ttlSeconds);
+    }
+
+    /**
+     * @return the key for this request, or null if the request did not arrive over TLS.
+     */
+    public String getKey(ServletRequest request, X509Certificate[] chain) {
+        Object sessionId = request.getAttribute(SSL_SESSION_ID);
+        if (sessionId == null) {
+            return null;
+        }
+        Hasher hasher = Hashing.sha256().newHasher();
+        try {
+            for (X509Certificate certificate : chain) {
+                byte[] encoded = certificate.getEncoded();
+                hasher.putInt(encoded.length).putBytes(encoded);
+            }
+        } catch (CertificateEncodingException e) {
+            return null;
+        }
+        return sessionId + ":" + hasher.hash();
+    }
+
+    public PrincipalCollection get(String key, long currentMappingVersion) {
+        checkMappingVersion(currentMappingVersion);
+        return cache.getIfPresent(key);
+    }
+
+    public void put(String key, long currentMappingVersion, PrincipalCollection principals) {
+        checkMappingVersion(currentMappingVersion);
+        cache.put(key, principals);
+    }
+
+    public void invalidate(String key) {
+        cache.invalidate(key);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    /**
+     * Replaces the cache with one of the new size and expiry, carrying over as many remembered sessions as
+     * fit; carried over sessions start a new expiry period.
+     */
+    public void configure(long maximumSize, long ttlSeconds) {
+        synchronized (lock) {
+            if (maximumSize == this.maximumSize && ttlSeconds == this.ttlSeconds) {
+                return;
+            }
+            Cache<String, PrincipalCollection> resized = newCache(maximumSize, ttlSeconds);
+            resized.putAll(cache.asMap());
+            this.maximumSize = maximumSize;
+            this.ttlSeconds = ttlSeconds;
+            this.cache = resized;
+        }
+    }
+
+    private void checkMappingVersion(long currentMappingVersion) {
+        if (currentMappingVersion != mappingVersion) {
+            synchronized (lock) {
+                if (currentMappingVersion != mappingVersion) {
+                    cache.invalidateAll();
+                    mappingVersion = currentMappingVersion;
+                }
+            }
+        }
+    }
+
+    private static Cache<String, PrincipalCollection> newCache(long maximumSize, long ttlSeconds) {
+        return CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+}
@@ -0,0 +1,113 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.servlet;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.InetAddresses;
+
+import java.net.InetAddress;
+import java.util.List;
+
+/**
+ * The source addresses that are allowed to forward client certificates, as a list of IP addresses and
+ * CIDR blocks such as {@code 10.0.0.0/8, 192.168.1.10, ::1}. Addresses are compared as literals; no
+ * name is ever resolved.
+ */
+public final class TrustedProxies {
+
+    private final ImmutableList<Block> blocks;
+
+    private TrustedProxies(ImmutableList<Block> blocks) {
+        this.blocks = blocks;
+    }
+
+    /**
+     * @throws IllegalStateException if an entry is not an IP address or CIDR block.
+     */
+    public static TrustedProxies parse(String addresses) {
+        ImmutableList.Builder<Block> blocks = ImmutableList.builder();
+        if (addresses != null) {
+            for (String entry : Splitter.on(',').trimResults().omitEmptyStrings().split(addresses)) {
+                blocks.add(Block.parse(entry));
+            }
+        }
+        return new TrustedProxies(blocks.build());
+    }
+
+    public boolean isEmpty() {
+        return blocks.isEmpty();
+    }
+
+    public boolean contains(String remoteAddress) {
+        if (remoteAddress == null || blocks.isEmpty() || !InetAddresses.isInetAddress(remoteAddress)) {
+            return false;
+        }
+        byte[] address = InetAddresses.forString(remoteAddress).getAddress();
+        for (Block block : blocks) {
+            if (block.contains(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return blocks.toString();
+    }
+
+    private static final class Block {
+        private final String text;
+        private final byte[] network;
+        private final int prefixLength;
+
+        private Block(String text, byte[] network, int prefixLength) {
+            this.text = text;
+            this.network = network;
+            this.prefixLength = prefixLength;
+        }
+
+        static Block parse(String entry) {
+            List<String> parts = Splitter.on('/').splitToList(entry);
+            if (parts.size() > 2 || !InetAddresses.isInetAddress(parts.get(0))) {
+                throw new IllegalStateException("invalid trusted proxy address " + entry);
+            }
+            InetAddress address = InetAddresses.forString(parts.get(0));
+            int maximumPrefixLength = address.getAddress().length * 8;
+            int prefixLength = maximumPrefixLength;
+            if (parts.size() == 2) {
+                try {
+                    prefixLength = Integer.parseInt(parts.get(1));
+                } catch (NumberFormatException e) {
+                    prefixLength = -1;
+                }
+                if (prefixLength < 0 || prefixLength > maximumPrefixLength) {
+                    throw new IllegalStateException("invalid prefix length in trusted proxy address " + entry);
+                }
+            }
+            return new Block(entry, address.getAddress(), prefixLength);
+        }
+
+        boolean contains(byte[] address) {
+            if (address.length != network.length) {
+                return false;
+            }
+            int fullBytes = prefixLength / 8;
+            for (int i = 0; i < fullBytes; i++) {
+                if (address[i] != network[i]) {
+                    return false;
+                }
+            }
+            int remainingBits = prefixLength % 8;
+            if (remainingBits == 0) {
+                return true;
+            }
+            int mask = 0xff << (8 - remainingBits);
+            return (address[fullBytes] & mask) == (network[fullBytes] & mask);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.trust;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.io.Serializable;
+
+/**
+ * A principal holding the normalized issuers of the chain a subject logged in with. It travels in the
+ * subject's principals, so roles pinned to issuers are worked out from the chain of that very login, and
+ * two chains with the same subject DN get authorization info of their own.
+ */
+public final class ChainIssuers implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ImmutableSet<String> issuerDns;
+
+    public ChainIssuers(ImmutableSet<String> issuerDns) {
+        this.issuerDns = issuerDns;
+    }
+
+    public ImmutableSet<String> getIssuerDns() {
+        return issuerDns;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ChainIssuers && issuerDns.equals(((ChainIssuers) o).issuerDns);
+    }
+
+    @Override
+    public int hashCode() {
+        return issuerDns.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "issuers" + issuerDns;
+    }
+}
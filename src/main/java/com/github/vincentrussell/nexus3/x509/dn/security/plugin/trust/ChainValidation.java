@@ -0,0 +1,54 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.trust;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * The outcome of validating one certificate chain; cached per distinct chain.
+ */
+public final class ChainValidation {
+
+    private final boolean valid;
+    private final String reason;
+    private final ImmutableSet<String> issuerDns;
+    private final long notAfter;
+
+    private ChainValidation(boolean valid, String reason, ImmutableSet<String> issuerDns, long notAfter) {
+        this.valid = valid;
+        this.reason = reason;
+        this.issuerDns = issuerDns;
+        this.notAfter = notAfter;
+    }
+
+    static ChainValidation valid(ImmutableSet<String> issuerDns, long notAfter) {
+        return new ChainValidation(true, null, issuerDns, notAfter);
+    }
+
+    static ChainValidation invalid(String reason, long notAfter) {
+        return new ChainValidation(false, reason, ImmutableSet.<String>of(), notAfter);
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * @return why the chain was rejected, or null if it is valid.
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * @return the normalized DNs of every CA in the validated path, including the trust anchor.
+     */
+    public ImmutableSet<String> getIssuerDns() {
+        return issuerDns;
+    }
+
+    /**
+     * @return the earliest notAfter in the chain, in epoch milliseconds; the result must not be used after it.
+     */
+    public long getNotAfter() {
+        return notAfter;
+    }
+}
@@ -0,0 +1,166 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.trust;
+
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.DnNormalizer;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.CertPathValidator;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.PKIXCertPathValidatorResult;
+import java.security.cert.PKIXParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validates client certificate chains against the trust store of a {@link TrustConfig} with the PKIX
+ * {@link CertPathValidator}. Results, good and bad, are cached on the SHA-256 of the chain, so the
+ * validator runs once per distinct client rather than once per request; a cached result is discarded
+ * once any certificate in its chain expires, and in any case after {@code revalidateAfterSeconds}.
+ */
+public class ChainValidator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChainValidator.class);
+
+    private final TrustConfig trustConfig;
+    private final Set<TrustAnchor> trustAnchors;
+    private final Set<X509Certificate> anchorCertificates;
+    private final Cache<HashCode, ChainValidation> validations;
+
+    /**
+     * @throws IllegalStateException if the trust store cannot be read or holds no certificates.
+     */
+    public ChainValidator(TrustConfig trustConfig) {
+        this.trustConfig = trustConfig;
+        this.anchorCertificates = loadAnchorCertificates(trustConfig);
+        Set<TrustAnchor> anchors = new HashSet<>();
+        for (X509Certificate certificate : anchorCertificates) {
+            anchors.add(new TrustAnchor(certificate, null));
+        }
+        this.trustAnchors = anchors;
+        this.validations = CacheBuilder.newBuilder()
+                .maximumSize(trustConfig.getCacheSize())
+                .expireAfterWrite(trustConfig.getRevalidateAfterSeconds(), TimeUnit.SECONDS)
+                .build();
+        LOGGER.info("validating client certificate chains against {} trust anchors from {}", anchors.size(),
+                trustConfig.getTrustStore());
+    }
+
+    public TrustConfig getTrustConfig() {
+        return trustConfig;
+    }
+
+    /**
+     * @return the certificates of the trust store.
+     */
+    public Set<X509Certificate> getAnchorCertificates() {
+        return anchorCertificates;
+    }
+
+    public ChainValidation validate(X509Certificate[] chain) {
+        if (chain == null || chain.length == 0) {
+            return ChainValidation.invalid("no certificate presented", 0);
+        }
+        HashCode key = fingerprint(chain);
+        ChainValidation validation = validations.getIfPresent(key);
+        if (validation != null && validation.getNotAfter() >= System.currentTimeMillis()) {
+            return validation;
+        }
+        validation = doValidate(chain);
+        validations.put(key, validation);
+        return validation;
+    }
+
+    public long size() {
+        return validations.size();
+    }
+
+    public void invalidateAll() {
+        validations.invalidateAll();
+    }
+
+    private ChainValidation doValidate(X509Certificate[] chain) {
+        long notAfter = Long.MAX_VALUE;
+        for (X509Certificate certificate : chain) {
+            notAfter = Math.min(notAfter, certificate.getNotAfter().getTime());
+        }
+        List<X509Certificate> path = new ArrayList<>(Arrays.asList(chain));
+        // the validator expects the path without its trust anchor
+        while (path.size() > 1 && anchorCertificates.contains(path.get(path.size() - 1))) {
+            path.remove(path.size() - 1);
+        }
+        try {
+            PKIXParameters parameters = new PKIXParameters(trustAnchors);
+            parameters.setRevocationEnabled(false);
+            parameters.setDate(new Date());
+            PKIXCertPathValidatorResult result = (PKIXCertPathValidatorResult) CertPathValidator.getInstance("PKIX")
+                    .validate(CertificateFactory.getInstance("X.509").generateCertPath(path), parameters);
+            ImmutableSet.Builder<String> issuerDns = ImmutableSet.builder();
+            for (int i = 1; i < path.size(); i++) {
+                issuerDns.add(DnNormalizer.getInstance().normalize(path.get(i).getSubjectX500Principal()));
+            }
+            issuerDns.add(DnNormalizer.getInstance().normalize(result.getTrustAnchor().getTrustedCert().getSubjectX500Principal()));
+            return ChainValidation.valid(issuerDns.build(), notAfter);
+        } catch (CertPathValidatorException e) {
+            LOGGER.debug("rejected certificate chain of {}: {}", chain[0].getSubjectX500Principal(), e.getMessage());
+            return ChainValidation.invalid(e.getMessage(), notAfter);
+        } catch (GeneralSecurityException e) {
+            LOGGER.warn("could not validate certificate chain of {}: {}", chain[0].getSubjectX500Principal(), e.getMessage());
+            return ChainValidation.invalid(e.getMessage(), notAfter);
+        }
+    }
+
+    private static HashCode fingerprint(X509Certificate[] chain) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        try {
+            for (X509Certificate certificate : chain) {
+                byte[] encoded = certificate.getEncoded();
+                hasher.putInt(encoded.length).putBytes(encoded);
+            }
+        } catch (CertificateEncodingException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+        return hasher.hash();
+    }
+
+    private static Set<X509Certificate> loadAnchorCertificates(TrustConfig trustConfig) {
+        Set<X509Certificate> certificates = new HashSet<>();
+        try (InputStream inputStream = new FileInputStream(trustConfig.getTrustStore())) {
+            KeyStore keyStore = KeyStore.getInstance(trustConfig.getTrustStoreType());
+            String password = trustConfig.getTrustStorePassword();
+            keyStore.load(inputStream, password != null ? password.toCharArray() : null);
+            for (String alias : Collections.list(keyStore.aliases())) {
+                if (keyStore.getCertificate(alias) instanceof X509Certificate) {
+                    certificates.add((X509Certificate) keyStore.getCertificate(alias));
+                }
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            throw new IllegalStateException("could not read trust store " + trustConfig.getTrustStore() + ": "
+                    + e.getMessage(), e);
+        }
+        if (certificates.isEmpty()) {
+            throw new IllegalStateException("trust store " + trustConfig.getTrustStore() + " holds no certificates");
+        }
+        return certificates;
+    }
+}
@@ -0,0 +1,171 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.trust;
+
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.DnNormalizer;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.authz.SimpleAuthorizationInfo;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The trust configuration for chain validation, read from a yaml file such as:
+ * <pre>
+ * trustStore: /opt/sonatype/nexus/etc/client-ca.jks
+ * trustStorePassword: changeit
+ * trustStoreType: JKS
+ * cacheSize: 10000
+ * revalidateAfterSeconds: 3600
+ * pinnedIssuers:
+ *     nx-deploy:
+ *         - CN=Build CA, O=Corp, C=US
+ * </pre>
+ * A role listed under {@code pinnedIssuers} is only granted to certificates whose validated chain
+ * contains one of the listed issuers; roles that are not listed are not restricted.
+ */
+public final class TrustConfig {
+
+    public static final long DEFAULT_CACHE_SIZE = 10000;
+    public static final long DEFAULT_REVALIDATE_AFTER_SECONDS = 3600;
+
+    private final File trustStore;
+    private final String trustStorePassword;
+    private final String trustStoreType;
+    private final long cacheSize;
+    private final long revalidateAfterSeconds;
+    private final ImmutableSetMultimap<String, String> pinnedIssuers;
+
+    TrustConfig(File trustStore, String trustStorePassword, String trustStoreType, long cacheSize,
+                long revalidateAfterSeconds, ImmutableSetMultimap<String, String> pinnedIssuers) {
+        this.trustStore = trustStore;
+        this.trustStorePassword = trustStorePassword;
+        this.trustStoreType = trustStoreType;
+        this.cacheSize = cacheSize;
+        this.revalidateAfterSeconds = revalidateAfterSeconds;
+        this.pinnedIssuers = pinnedIssuers;
+    }
+
+    /**
+     * @throws IllegalStateException if the file cannot be read or is not a valid trust configuration.
+     */
+    public static TrustConfig load(File file) {
+        Object document;
+        try (InputStream inputStream = new FileInputStream(file)) {
+            document = new Yaml().load(inputStream);
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalStateException("could not read trust configuration " + file + ": " + e.getMessage(), e);
+        }
+        if (!(document instanceof Map)) {
+            throw new IllegalStateException("trust configuration " + file + " must be a yaml mapping");
+        }
+        Map<?, ?> map = (Map<?, ?>) document;
+        Object trustStore = map.get("trustStore");
+        if (trustStore == null) {
+            throw new IllegalStateException("trust configuration " + file + " does not name a trustStore");
+        }
+        File trustStoreFile = new File(trustStore.toString());
+        if (!trustStoreFile.isAbsolute()) {
+            trustStoreFile = new File(file.getAbsoluteFile().getParentFile(), trustStore.toString());
+        }
+        return new TrustConfig(trustStoreFile,
+                map.get("trustStorePassword") != null ? map.get("trustStorePassword").toString() : null,
+                map.get("trustStoreType") != null ? map.get("trustStoreType").toString() : "JKS",
+                getLong(map, "cacheSize", DEFAULT_CACHE_SIZE, file),
+                getLong(map, "revalidateAfterSeconds", DEFAULT_REVALIDATE_AFTER_SECONDS, file),
+                getPinnedIssuers(map.get("pinnedIssuers"), file));
+    }
+
+    private static long getLong(Map<?, ?> map, String key, long defaultValue, File file) {
+        Object value = map.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (!(value instanceof Number)) {
+            throw new IllegalStateException(key + " in trust configuration " + file + " must be a number");
+        }
+        return ((Number) value).longValue();
+    }
+
+    private static ImmutableSetMultimap<String, String> getPinnedIssuers(Object pinnedIssuers, File file) {
+        ImmutableSetMultimap.Builder<String, String> builder = ImmutableSetMultimap.builder();
+        if (pinnedIssuers == null) {
+            return builder.build();
+        }
+        if (!(pinnedIssuers instanceof Map)) {
+            throw new IllegalStateException("pinnedIssuers in trust configuration " + file
+                    + " must map roles to lists of issuer DNs");
+        }
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) pinnedIssuers).entrySet()) {
+            if (!(entry.getValue() instanceof Collection)) {
+                throw new IllegalStateException("issuers pinned to " + entry.getKey() + " in trust configuration "
+                        + file + " must be a list");
+            }
+            for (Object issuer : (Collection<?>) entry.getValue()) {
+                try {
+                    builder.put(entry.getKey().toString(), DnNormalizer.canonicalize(issuer.toString()));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalStateException("invalid issuer DN " + issuer + " pinned to " + entry.getKey()
+                            + " in trust configuration " + file, e);
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    public File getTrustStore() {
+        return trustStore;
+    }
+
+    public String getTrustStorePassword() {
+        return trustStorePassword;
+    }
+
+    public String getTrustStoreType() {
+        return trustStoreType;
+    }
+
+    public long getCacheSize() {
+        return cacheSize;
+    }
+
+    public long getRevalidateAfterSeconds() {
+        return revalidateAfterSeconds;
+    }
+
+    public ImmutableSetMultimap<String, String> getPinnedIssuers() {
+        return pinnedIssuers;
+    }
+
+    /**
+     * Removes pinned roles whose issuers do not appear among the given normalized issuer DNs.
+     *
+     * @return the authorization info unchanged if nothing was removed, otherwise a copy without the
+     * removed roles; null if no roles remain.
+     */
+    public AuthorizationInfo restrict(AuthorizationInfo authorizationInfo, Set<String> issuerDns) {
+        Set<String> allowed = null;
+        for (String role : authorizationInfo.getRoles()) {
+            ImmutableSet<String> issuers = pinnedIssuers.get(role);
+            if (issuers.isEmpty() || !Collections.disjoint(issuers, issuerDns)) {
+                continue;
+            }
+            if (allowed == null) {
+                allowed = new HashSet<>(authorizationInfo.getRoles());
+            }
+            allowed.remove(role);
+        }
+        if (allowed == null) {
+            return authorizationInfo;
+        }
+        return allowed.isEmpty() ? null : new SimpleAuthorizationInfo(allowed);
+    }
+}
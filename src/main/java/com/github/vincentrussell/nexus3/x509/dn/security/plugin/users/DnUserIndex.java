@@ -0,0 +1,301 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.users;
+
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.DnRoleMapping;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Search indexes over the exactly mapped DNs of one {@link DnRoleMapping} snapshot, for listing and
+ * searching X509 identities without scanning or materializing all of them.
+ * <ul>
+ * <li>The DNs sorted case-insensitively, so a prefix search is a binary search for a range.</li>
+ * <li>For every role the sorted positions of its DNs, so role members are found without a scan.</li>
+ * <li>A trigram index, built on the first substring search, so substring searches of three or more
+ * characters only verify DNs that contain every trigram of the query.</li>
+ * </ul>
+ * DNs that are only matched by wildcard rules cannot be enumerated and are not indexed.
+ */
+public final class DnUserIndex {
+
+    public enum Match {
+        PREFIX, SUBSTRING
+    }
+
+    private static final int[] NONE = new int[0];
+
+    private final DnRoleMapping mapping;
+    private final String[] dns;
+    private final String[] keys;
+    private final ImmutableMap<String, int[]> positionsByRole;
+    private volatile Map<Long, int[]> trigrams;
+
+    public DnUserIndex(DnRoleMapping mapping) {
+        this.mapping = mapping;
+        final int size = mapping.size();
+        String[][] entries = new String[size][];
+        int i = 0;
+        for (String dn : mapping.getDns()) {
+            entries[i++] = new String[]{dn.toLowerCase(Locale.ROOT), dn};
+        }
+        Arrays.sort(entries, new Comparator<String[]>() {
+            @Override
+            public int compare(String[] a, String[] b) {
+                int result = a[0].compareTo(b[0]);
+                return result != 0 ? result : a[1].compareTo(b[1]);
+            }
+        });
+        this.dns = new String[size];
+        this.keys = new String[size];
+        Map<String, IntList> roles = new HashMap<>();
+        for (i = 0; i < size; i++) {
+            keys[i] = entries[i][0];
+            dns[i] = entries[i][1];
+            for (String role : mapping.getAuthorizationInfo(dns[i]).getRoles()) {
+                IntList positions = roles.get(role);
+                if (positions == null) {
+                    positions = new IntList();
+                    roles.put(role, positions);
+                }
+                positions.add(i);
+            }
+        }
+        ImmutableMap.Builder<String, int[]> positionsByRole = ImmutableMap.builder();
+        for (Map.Entry<String, IntList> entry : roles.entrySet()) {
+            positionsByRole.put(entry.getKey(), entry.getValue().toArray());
+        }
+        this.positionsByRole = positionsByRole.build();
+    }
+
+    public long getVersion() {
+        return mapping.getVersion();
+    }
+
+    public DnRoleMapping getMapping() {
+        return mapping;
+    }
+
+    public int size() {
+        return dns.length;
+    }
+
+    /**
+     * @param text  a DN prefix or substring, matched case-insensitively; null or empty matches every DN.
+     * @param roles if not empty, only DNs with at least one of these roles match.
+     * @return one page of the matching DNs in sorted order, and the total number of matches.
+     */
+    public Page search(String text, Match match, Collection<String> roles, int offset, int limit) {
+        String key = text != null ? text.trim().toLowerCase(Locale.ROOT) : "";
+        int from = 0;
+        int to = dns.length;
+        int[] candidates = null;
+        if (!key.isEmpty() && match == Match.PREFIX) {
+            from = lowerBound(key);
+            to = lowerBound(key + Character.MAX_VALUE);
+        } else if (!key.isEmpty()) {
+            candidates = containing(key);
+        }
+        if (roles != null && !roles.isEmpty()) {
+            int[] members = members(roles);
+            candidates = candidates == null ? members : intersect(candidates, members);
+        }
+        if (candidates != null) {
+            int start = lowerBound(candidates, from);
+            int end = lowerBound(candidates, to);
+            return page(candidates, start, end, offset, limit);
+        }
+        return page(null, from, to, offset, limit);
+    }
+
+    private Page page(int[] candidates, int start, int end, int offset, int limit) {
+        int total = end - start;
+        int first = start + Math.max(0, offset);
+        int last = (int) Math.min(end, (long) first + Math.max(0, limit));
+        ImmutableList.Builder<String> page = ImmutableList.builder();
+        for (int i = first; i < last; i++) {
+            page.add(dns[candidates != null ? candidates[i] : i]);
+        }
+        return new Page(page.build(), total);
+    }
+
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle].compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int lowerBound(int[] sorted, int value) {
+        int index = Arrays.binarySearch(sorted, value);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private int[] members(Collection<String> roles) {
+        int[] result = NONE;
+        for (String role : roles) {
+            int[] positions = positionsByRole.get(role);
+            if (positions != null) {
+                result = union(result, positions);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Queries shorter than a trigram are verified against every DN.
+     */
+    private int[] containing(String key) {
+        int[] candidates = null;
+        if (key.length() >= 3) {
+            Map<Long, int[]> index = getTrigrams();
+            for (int i = 0; i + 3 <= key.length(); i++) {
+                int[] positions = index.get(trigram(key, i));
+                if (positions == null) {
+                    return NONE;
+                }
+                candidates = candidates == null ? positions : intersect(candidates, positions);
+            }
+        }
+        IntList verified = new IntList();
+        int count = candidates != null ? candidates.length : keys.length;
+        for (int i = 0; i < count; i++) {
+            int position = candidates != null ? candidates[i] : i;
+            if (keys[position].contains(key)) {
+                verified.add(position);
+            }
+        }
+        return verified.toArray();
+    }
+
+    private Map<Long, int[]> getTrigrams() {
+        Map<Long, int[]> index = trigrams;
+        if (index == null) {
+            synchronized (this) {
+                index = trigrams;
+                if (index == null) {
+                    index = buildTrigrams();
+                    trigrams = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    private Map<Long, int[]> buildTrigrams() {
+        Map<Long, IntList> postings = new HashMap<>();
+        for (int position = 0; position < keys.length; position++) {
+            String key = keys[position];
+            for (int i = 0; i + 3 <= key.length(); i++) {
+                Long trigram = trigram(key, i);
+                IntList list = postings.get(trigram);
+                if (list == null) {
+                    list = new IntList();
+                    postings.put(trigram, list);
+                }
+                // positions are added in ascending order, so a repeat within one DN is always the last entry
+                if (list.size == 0 || list.values[list.size - 1] != position) {
+                    list.add(position);
+                }
+            }
+        }
+        Map<Long, int[]> index = new HashMap<>(postings.size() * 4 / 3 + 1);
+        for (Map.Entry<Long, IntList> entry : postings.entrySet()) {
+            index.put(entry.getKey(), entry.getValue().toArray());
+        }
+        return index;
+    }
+
+    private static long trigram(String key, int start) {
+        return ((long) key.charAt(start) << 32) | ((long) key.charAt(start + 1) << 16) | key.charAt(start + 2);
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        IntList result = new IntList();
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result.add(a[i]);
+                i++;
+                j++;
+            }
+        }
+        return result.toArray();
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        if (a.length == 0) {
+            return b;
+        }
+        IntList result = new IntList();
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                result.add(a[i++]);
+            } else if (i == a.length || b[j] < a[i]) {
+                result.add(b[j++]);
+            } else {
+                result.add(a[i++]);
+                j++;
+            }
+        }
+        return result.toArray();
+    }
+
+    /**
+     * One page of search results.
+     */
+    public static final class Page {
+        private final List<String> dns;
+        private final int total;
+
+        Page(List<String> dns, int total) {
+            this.dns = dns;
+            this.total = total;
+        }
+
+        public List<String> getDns() {
+            return dns;
+        }
+
+        /**
+         * @return the number of matches across all pages.
+         */
+        public int getTotal() {
+            return total;
+        }
+    }
+
+    private static final class IntList {
+        private int[] values = new int[8];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
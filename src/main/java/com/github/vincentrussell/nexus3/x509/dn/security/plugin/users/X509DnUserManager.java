@@ -0,0 +1,194 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.users;
+
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.X509DnAuthenticatingRealm;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.DnNormalizer;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.DnRoleMapping;
+import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.mgt.RealmSecurityManager;
+import org.apache.shiro.realm.Realm;
+import org.eclipse.sisu.Description;
+import org.sonatype.nexus.security.role.RoleIdentifier;
+import org.sonatype.nexus.security.user.AbstractReadOnlyUserManager;
+import org.sonatype.nexus.security.user.User;
+import org.sonatype.nexus.security.user.UserManager;
+import org.sonatype.nexus.security.user.UserNotFoundException;
+import org.sonatype.nexus.security.user.UserSearchCriteria;
+import org.sonatype.nexus.security.user.UserStatus;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Exposes the DNs mapped by the {@link X509DnAuthenticatingRealm} as read-only users, so that they can be
+ * listed and searched in the Nexus user administration. Users are identified by their normalized DN.
+ * <p>
+ * Searches are answered from a {@link DnUserIndex} that is rebuilt once per mapping version, and return at
+ * most {@link #SEARCH_LIMIT} users. DNs that are only matched by wildcard rules are found by
+ * {@link #getUser(String)} but not listed.
+ */
+@Singleton
+@Named(X509DnUserManager.SOURCE)
+@Description("X509-Dn")
+public class X509DnUserManager extends AbstractReadOnlyUserManager {
+
+    public static final String SOURCE = "X509Dn";
+    public static final String SEARCH_LIMIT = "X509DnAuthenticatingRealm.users.search.limit";
+    public static final int DEFAULT_SEARCH_LIMIT = 1000;
+
+    private final RealmSecurityManager realmSecurityManager;
+    private final int searchLimit;
+    private volatile DnUserIndex index;
+
+    @Inject
+    public X509DnUserManager(RealmSecurityManager realmSecurityManager) {
+        this.realmSecurityManager = realmSecurityManager;
+        this.searchLimit = Integer.getInteger(SEARCH_LIMIT, DEFAULT_SEARCH_LIMIT);
+    }
+
+    @Override
+    public String getSource() {
+        return SOURCE;
+    }
+
+    @Override
+    public String getAuthenticationRealmName() {
+        X509DnAuthenticatingRealm realm = getRealm();
+        return realm != null ? realm.getName() : null;
+    }
+
+    @Override
+    public Set<User> listUsers() {
+        DnUserIndex current = getIndex();
+        return current != null ? toUsers(current, current.search(null, DnUserIndex.Match.PREFIX, null, 0, searchLimit))
+                : Collections.<User>emptySet();
+    }
+
+    @Override
+    public Set<String> listUserIds() {
+        X509DnAuthenticatingRealm realm = getRealm();
+        return realm != null ? realm.getMapping().getDns() : Collections.<String>emptySet();
+    }
+
+    /**
+     * The user id of the criteria is matched as a case-insensitive DN prefix; users have no email address, so
+     * criteria with one never match.
+     */
+    @Override
+    public Set<User> searchUsers(UserSearchCriteria criteria) {
+        DnUserIndex current = getIndex();
+        if (current == null || (criteria.getSource() != null && !SOURCE.equals(criteria.getSource()))
+                || (criteria.getEmail() != null && !criteria.getEmail().isEmpty())) {
+            return Collections.emptySet();
+        }
+        return toUsers(current, current.search(criteria.getUserId(), DnUserIndex.Match.PREFIX,
+                criteria.getOneOfRoleIds(), 0, searchLimit));
+    }
+
+    /**
+     * One page of mapped DNs, for callers that page through the results themselves.
+     *
+     * @return an empty page if the realm is not enabled.
+     */
+    public DnUserIndex.Page search(String text, DnUserIndex.Match match, Collection<String> roles, int offset,
+                                   int limit) {
+        DnUserIndex current = getIndex();
+        return current != null ? current.search(text, match, roles, offset, Math.min(limit, searchLimit))
+                : new DnUserIndex.Page(Collections.<String>emptyList(), 0);
+    }
+
+    @Override
+    public User getUser(String userId) throws UserNotFoundException {
+        X509DnAuthenticatingRealm realm = getRealm();
+        if (realm == null || userId == null) {
+            throw new UserNotFoundException(userId);
+        }
+        String dn;
+        try {
+            dn = DnNormalizer.getInstance().normalize(userId);
+        } catch (IllegalArgumentException e) {
+            throw new UserNotFoundException(userId);
+        }
+        AuthorizationInfo authorizationInfo = realm.getMapping().getAuthorizationInfo(dn);
+        if (authorizationInfo == null) {
+            throw new UserNotFoundException(userId);
+        }
+        return toUser(dn, authorizationInfo.getRoles());
+    }
+
+    DnUserIndex getIndex() {
+        X509DnAuthenticatingRealm realm = getRealm();
+        if (realm == null) {
+            return null;
+        }
+        DnRoleMapping mapping = realm.getMapping();
+        DnUserIndex current = index;
+        if (current == null || current.getMapping() != mapping) {
+            synchronized (this) {
+                current = index;
+                if (current == null || current.getMapping() != mapping) {
+                    current = new DnUserIndex(mapping);
+                    index = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private X509DnAuthenticatingRealm getRealm() {
+        for (Realm realm : realmSecurityManager.getRealms()) {
+            if (realm instanceof X509DnAuthenticatingRealm) {
+                return (X509DnAuthenticatingRealm) realm;
+            }
+        }
+        return null;
+    }
+
+    private Set<User> toUsers(DnUserIndex current, DnUserIndex.Page page) {
+        List<String> dns = page.getDns();
+        Set<User> users = new LinkedHashSet<>(dns.size() * 4 / 3 + 1);
+        for (String dn : dns) {
+            users.add(toUser(dn, current.getMapping().getAuthorizationInfo(dn).getRoles()));
+        }
+        return users;
+    }
+
+    private User toUser(String dn, Collection<String> roles) {
+        User user = new User();
+        user.setUserId(dn);
+        user.setFirstName(commonName(dn));
+        user.setLastName("");
+        user.setEmailAddress("");
+        user.setSource(SOURCE);
+        user.setStatus(UserStatus.active);
+        user.setReadOnly(true);
+        Set<RoleIdentifier> roleIdentifiers = new LinkedHashSet<>();
+        for (String role : roles) {
+            roleIdentifiers.add(new RoleIdentifier(UserManager.DEFAULT_SOURCE, role));
+        }
+        user.setRoles(roleIdentifiers);
+        return user;
+    }
+
+    private static String commonName(String dn) {
+        try {
+            List<Rdn> rdns = new LdapName(dn).getRdns();
+            for (int i = rdns.size() - 1; i >= 0; i--) {
+                if ("CN".equalsIgnoreCase(rdns.get(i).getType())) {
+                    return String.valueOf(rdns.get(i).getValue());
+                }
+            }
+        } catch (InvalidNameException e) {
+            // fall through to the full DN
+        }
+        return dn;
+    }
+}
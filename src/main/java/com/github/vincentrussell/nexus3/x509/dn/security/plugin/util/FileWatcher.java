@@ -0,0 +1,278 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.util;
+
+import com.google.common.collect.ImmutableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Watches a set of files on a single daemon thread and runs a callback when the content of any of them
+ * changes. A {@link WatchService} on the parent directories gives prompt notification; a poll on
+ * modification time and size (confirmed with a CRC32 of the content) is used as a fallback for file
+ * systems that do not deliver watch events, e.g. NFS mounts.
+ */
+public class FileWatcher implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileWatcher.class);
+
+    private static final long DEBOUNCE_MILLIS = 250;
+
+    private final String name;
+    private final List<File> files;
+    private final Runnable onChange;
+    private final Map<File, Fingerprint> fingerprints = new HashMap<>();
+    private volatile long pollIntervalMillis;
+    private volatile boolean watchEnabled;
+    private volatile boolean closed;
+    private Thread thread;
+
+    public FileWatcher(String name, List<File> files, long pollIntervalMillis, boolean watchEnabled, Runnable onChange) {
+        this.name = name;
+        this.files = ImmutableList.copyOf(files);
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.watchEnabled = watchEnabled;
+        this.onChange = onChange;
+        for (File file : this.files) {
+            fingerprints.put(file, Fingerprint.of(file));
+        }
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watchLoop();
+            }
+        }, "x509-dn-file-watcher-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public long getPollIntervalMillis() {
+        return pollIntervalMillis;
+    }
+
+    public void setPollIntervalMillis(long pollIntervalMillis) {
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+    public boolean isWatchEnabled() {
+        return watchEnabled;
+    }
+
+    /**
+     * Changes take effect the next time the watch loop wakes up.
+     */
+    public void setWatchEnabled(boolean watchEnabled) {
+        this.watchEnabled = watchEnabled;
+    }
+
+    /**
+     * Takes content this process has written to watched files as seen, so that it does not fire the
+     * callback. Only the content written is accepted: if someone else changes a file at the same time, the
+     * change is still noticed.
+     *
+     * @param written watched files, each with the fingerprint of the content written to it.
+     */
+    public void accept(Map<File, Fingerprint> written) {
+        synchronized (fingerprints) {
+            for (Map.Entry<File, Fingerprint> entry : written.entrySet()) {
+                if (fingerprints.containsKey(entry.getKey())) {
+                    fingerprints.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the watched files on the calling thread, without taking any change as seen.
+     *
+     * @return true if the content of a watched file differs from what was last seen or accepted.
+     */
+    public boolean hasChanged() {
+        synchronized (fingerprints) {
+            for (File file : files) {
+                if (!Fingerprint.of(file).equals(fingerprints.get(file))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Thread current;
+        synchronized (this) {
+            current = thread;
+        }
+        if (current != null) {
+            current.interrupt();
+        }
+    }
+
+    private void watchLoop() {
+        WatchService watchService = null;
+        try {
+            while (!closed) {
+                if (watchEnabled && watchService == null) {
+                    watchService = openWatchService();
+                } else if (!watchEnabled && watchService != null) {
+                    closeQuietly(watchService);
+                    watchService = null;
+                }
+                boolean notified = false;
+                if (watchService != null) {
+                    WatchKey key = watchService.poll(pollIntervalMillis, TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        Thread.sleep(DEBOUNCE_MILLIS);
+                        drain(watchService, key);
+                        notified = true;
+                    }
+                } else {
+                    Thread.sleep(pollIntervalMillis);
+                }
+                checkForChanges(notified);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeQuietly(watchService);
+        }
+    }
+
+    private WatchService openWatchService() {
+        try {
+            WatchService watchService = FileSystems.getDefault().newWatchService();
+            Set<Path> directories = new HashSet<>();
+            for (File file : files) {
+                File parent = file.getAbsoluteFile().getParentFile();
+                if (parent != null && parent.isDirectory() && directories.add(parent.toPath())) {
+                    parent.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                }
+            }
+            return watchService;
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.warn("could not watch {} for changes, falling back to polling: {}", files, e.getMessage());
+            watchEnabled = false;
+            return null;
+        }
+    }
+
+    private static void drain(WatchService watchService, WatchKey key) {
+        while (key != null) {
+            key.pollEvents();
+            key.reset();
+            key = watchService.poll();
+        }
+    }
+
+    private void checkForChanges(boolean notified) {
+        boolean changed = false;
+        synchronized (fingerprints) {
+            for (File file : files) {
+                Fingerprint previous = fingerprints.get(file);
+                if (!notified && previous.sameTimestamp(file)) {
+                    continue;
+                }
+                Fingerprint current = Fingerprint.of(file);
+                fingerprints.put(file, current);
+                changed |= !current.equals(previous);
+            }
+        }
+        if (changed) {
+            try {
+                onChange.run();
+            } catch (RuntimeException e) {
+                LOGGER.error("change handler for " + name + " failed: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static void closeQuietly(WatchService watchService) {
+        if (watchService == null) {
+            return;
+        }
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            LOGGER.debug("could not close watch service", e);
+        }
+    }
+
+    /**
+     * The modification time, length and CRC32 of a file's content. A file keeps its modification time when
+     * it is moved into place, so the fingerprint of a temporary file is that of the file it replaces.
+     */
+    public static final class Fingerprint {
+        private final long lastModified;
+        private final long length;
+        private final long checksum;
+
+        private Fingerprint(long lastModified, long length, long checksum) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.checksum = checksum;
+        }
+
+        public static Fingerprint of(File file) {
+            if (!file.isFile()) {
+                return new Fingerprint(0, -1, 0);
+            }
+            long lastModified = file.lastModified();
+            long length = file.length();
+            CRC32 crc32 = new CRC32();
+            try (InputStream inputStream = new FileInputStream(file)) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    crc32.update(buffer, 0, read);
+                }
+            } catch (IOException e) {
+                return new Fingerprint(lastModified, length, -1);
+            }
+            return new Fingerprint(lastModified, length, crc32.getValue());
+        }
+
+        boolean sameTimestamp(File file) {
+            return file.lastModified() == lastModified && (length == -1 ? !file.isFile() : file.length() == length);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Fingerprint)) {
+                return false;
+            }
+            Fingerprint that = (Fingerprint) o;
+            return length == that.length && checksum == that.checksum;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (checksum ^ length);
+        }
+    }
+}
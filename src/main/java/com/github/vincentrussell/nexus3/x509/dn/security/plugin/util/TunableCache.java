@@ -0,0 +1,101 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.util;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.apache.shiro.cache.Cache;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Shiro {@link Cache} backed by a Guava cache whose capacity and expiry can be changed at runtime.
+ * Reconfiguring carries the current entries over to the new cache, as many as fit.
+ */
+public class TunableCache<K, V> implements Cache<K, V> {
+
+    private final String name;
+    private volatile long maximumSize;
+    private volatile long ttlSeconds;
+    private volatile com.google.common.cache.Cache<K, V> cache;
+
+    /**
+     * @param ttlSeconds 0 keeps entries until they are evicted for size.
+     */
+    public TunableCache(String name, long maximumSize, long ttlSeconds) {
+        this.name = name;
+        this.maximumSize = maximumSize;
+        this.ttlSeconds = ttlSeconds;
+        this.cache = newCache(maximumSize, ttlSeconds);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    /**
+     * Carried over entries start a new expiry period.
+     */
+    public synchronized void configure(long maximumSize, long ttlSeconds) {
+        if (maximumSize == this.maximumSize && ttlSeconds == this.ttlSeconds) {
+            return;
+        }
+        com.google.common.cache.Cache<K, V> resized = newCache(maximumSize, ttlSeconds);
+        resized.putAll(cache.asMap());
+        this.maximumSize = maximumSize;
+        this.ttlSeconds = ttlSeconds;
+        this.cache = resized;
+    }
+
+    @Override
+    public V get(K key) {
+        return key != null ? cache.getIfPresent(key) : null;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return cache.asMap().put(key, value);
+    }
+
+    @Override
+    public V remove(K key) {
+        return cache.asMap().remove(key);
+    }
+
+    @Override
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public int size() {
+        return (int) cache.size();
+    }
+
+    @Override
+    public Set<K> keys() {
+        return ImmutableSet.copyOf(cache.asMap().keySet());
+    }
+
+    @Override
+    public Collection<V> values() {
+        return ImmutableList.copyOf(cache.asMap().values());
+    }
+
+    private static <K, V> com.google.common.cache.Cache<K, V> newCache(long maximumSize, long ttlSeconds) {
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().maximumSize(maximumSize);
+        if (ttlSeconds > 0) {
+            builder.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS);
+        }
+        return builder.build();
+    }
+}
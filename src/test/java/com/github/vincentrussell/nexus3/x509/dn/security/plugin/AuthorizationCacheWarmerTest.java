@@ -0,0 +1,105 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin;
+
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.DnRoleMapping;
+import org.apache.commons.io.IOUtils;
+import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.cache.MapCache;
+import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.function.LongSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class AuthorizationCacheWarmerTest {
+
+    private static final String FIRST_DN = "CN=first,OU=Build,O=Corp,C=US";
+    private static final String SECOND_DN = "CN=second,OU=Build,O=Corp,C=US";
+    private static final LongSupplier IDLE = new LongSupplier() {
+        @Override
+        public long getAsLong() {
+            return 0;
+        }
+    };
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private X509DnAuthenticatingRealm realm;
+    private MapCache<Object, AuthorizationInfo> cache;
+
+    @Before
+    public void createRealm() throws IOException {
+        File configFile = temporaryFolder.newFile();
+        try (FileOutputStream fileOutputStream = new FileOutputStream(configFile)) {
+            IOUtils.write("" +
+                    "nx-deploy:\n" +
+                    "    - " + FIRST_DN + "\n" +
+                    "    - " + SECOND_DN + "\n" +
+                    "nx-admin:\n" +
+                    "    - " + SECOND_DN + "\n", fileOutputStream);
+        }
+        System.setProperty(X509DnAuthenticatingRealm.CONFIG_FILE, configFile.getAbsolutePath());
+        System.setProperty(X509DnAuthenticatingRealm.WATCH_ENABLED, "false");
+        realm = new X509DnAuthenticatingRealm();
+        cache = new MapCache<>("test", new HashMap<Object, AuthorizationInfo>());
+        realm.setAuthorizationCache(cache);
+    }
+
+    @After
+    public void clearSystemProperties() {
+        System.getProperties().remove(X509DnAuthenticatingRealm.CONFIG_FILE);
+        System.getProperties().remove(X509DnAuthenticatingRealm.WATCH_ENABLED);
+    }
+
+    @Test
+    public void warmsEveryMappedDnWithTheRolesTheRealmWouldCompute() {
+        AuthorizationCacheWarmer warmer = new AuthorizationCacheWarmer(realm, 2, Long.MAX_VALUE, IDLE);
+        assertEquals(2, warmer.warm(realm.getMapping(), cache));
+        assertEquals(2, warmer.getTotal());
+        assertFalse(warmer.isRunning());
+        for (String dn : new String[]{FIRST_DN, SECOND_DN}) {
+            PrincipalCollection principals = principals(dn);
+            assertSame(realm.doGetAuthorizationInfo(principals), cache.get(principals));
+        }
+    }
+
+    @Test
+    public void keepsEntriesThatAreAlreadyCached() {
+        AuthorizationInfo existing = X509DnAuthenticatingRealm.ANONYMOUS_AUTHORIZATION_INFO;
+        cache.put(principals(FIRST_DN), existing);
+        new AuthorizationCacheWarmer(realm, 1, Long.MAX_VALUE, IDLE).warm(realm.getMapping(), cache);
+        assertSame(existing, cache.get(principals(FIRST_DN)));
+    }
+
+    @Test
+    public void stopsWhenANewerMappingIsPublished() {
+        DnRoleMapping stale = DnRoleMapping.builder().add("nx-deploy", FIRST_DN).build(0);
+        assertEquals(0, new AuthorizationCacheWarmer(realm, 1, Long.MAX_VALUE, IDLE).warm(stale, cache));
+        assertNull(cache.get(principals(FIRST_DN)));
+    }
+
+    @Test
+    public void stopsWhenStopped() {
+        AuthorizationCacheWarmer warmer = new AuthorizationCacheWarmer(realm, 1, Long.MAX_VALUE, IDLE);
+        warmer.stop();
+        assertEquals(0, warmer.warm(realm.getMapping(), cache));
+        assertNull(cache.get(principals(FIRST_DN)));
+    }
+
+    private static PrincipalCollection principals(String dn) {
+        return new SimplePrincipalCollection(dn, X509DnAuthenticatingRealm.NAME);
+    }
+}
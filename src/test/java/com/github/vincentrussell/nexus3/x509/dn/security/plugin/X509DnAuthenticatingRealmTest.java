@@ -1,9 +1,14 @@
 package com.github.vincentrussell.nexus3.x509.dn.security.plugin;
 
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.api.ExtendedX509AuthenticationToken;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.DnNormalizer;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.trust.ChainIssuers;
+import com.google.common.collect.ImmutableSet;
 import org.apache.commons.io.IOUtils;
 import org.apache.shiro.authc.x509.X509AuthenticationInfo;
 import org.apache.shiro.authc.x509.X509AuthenticationToken;
 import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.cache.MapCache;
 import org.apache.shiro.subject.PrincipalCollection;
 import org.apache.shiro.subject.SimplePrincipalCollection;
 import org.junit.After;
@@ -16,10 +21,24 @@ import javax.security.auth.x500.X500Principal;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 
 import static org.hamcrest.CoreMatchers.hasItems;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -31,6 +50,7 @@ public class X509DnAuthenticatingRealmTest {
     public TemporaryFolder temporaryFolder = new TemporaryFolder();
 
     File configFile;
+    private final List<X509DnAuthenticatingRealm> realms = new ArrayList<>();
 
     @Before
     public void writeConfigFile() throws IOException {
@@ -48,11 +68,19 @@ public class X509DnAuthenticatingRealmTest {
     @After
     public void clearSystemProperty() {
         System.getProperties().remove(X509DnAuthenticatingRealm.CONFIG_FILE);
+        System.getProperties().remove(X509DnAuthenticatingRealm.TRUST_CONFIG_FILE);
+    }
+
+    @After
+    public void closeReloaders() {
+        for (X509DnAuthenticatingRealm realm : realms) {
+            realm.getMappingReloader().close();
+        }
     }
 
     @Test(expected = IllegalStateException.class)
     public void missingConfigFile() {
-        new X509DnAuthenticatingRealm();
+        newRealm();
     }
 
     @Test(expected = IllegalStateException.class)
@@ -63,7 +91,7 @@ public class X509DnAuthenticatingRealmTest {
                     "fsasdf" +
                     "asdfdsaf a  " +
                     "dafdsf ", fileOutputStream);
-            new X509DnAuthenticatingRealm();
+            newRealm();
         }
 
     }
@@ -74,7 +102,7 @@ public class X509DnAuthenticatingRealmTest {
         try (FileOutputStream fileOutputStream = new FileOutputStream(configFile)) {
             IOUtils.write("nx-admin:\n" +
                     "            * user\n", fileOutputStream);
-            new X509DnAuthenticatingRealm();
+            newRealm();
         }
 
     }
@@ -82,14 +110,14 @@ public class X509DnAuthenticatingRealmTest {
     @Test
     public void parsesProperty() throws IOException {
         System.setProperty(X509DnAuthenticatingRealm.CONFIG_FILE, configFile.getAbsolutePath());
-        new X509DnAuthenticatingRealm();
+        newRealm();
 
     }
 
     @Test
     public void processX509AuthenticationToken() throws IOException {
         System.setProperty(X509DnAuthenticatingRealm.CONFIG_FILE, configFile.getAbsolutePath());
-        X509DnAuthenticatingRealm realm = new X509DnAuthenticatingRealm();
+        X509DnAuthenticatingRealm realm = newRealm();
         X509AuthenticationToken token = getToken(DEFAULT_DN);
         X509AuthenticationInfo result = realm.doGetX509AuthenticationInfo(token);
         assertEquals("CN=Firstname Lastname,OU=Unknown,O=Unknown,L=Annapolis Junction,ST=MD,C=US",
@@ -99,7 +127,7 @@ public class X509DnAuthenticatingRealmTest {
     @Test
     public void processPrincipalCollectionDefault() throws IOException {
         System.setProperty(X509DnAuthenticatingRealm.CONFIG_FILE, configFile.getAbsolutePath());
-        X509DnAuthenticatingRealm realm = new X509DnAuthenticatingRealm();
+        X509DnAuthenticatingRealm realm = newRealm();
         PrincipalCollection principalCollection = getPrincipalCollection(DEFAULT_DN);
         AuthorizationInfo result = realm.doGetAuthorizationInfo(principalCollection);
         assertThat(result.getRoles(), hasItems("nx-admin", "nx-deploy"));
@@ -108,7 +136,7 @@ public class X509DnAuthenticatingRealmTest {
     @Test
     public void dnsAreNormalizedWhenGettingRoles() throws IOException {
         System.setProperty(X509DnAuthenticatingRealm.CONFIG_FILE, configFile.getAbsolutePath());
-        X509DnAuthenticatingRealm realm = new X509DnAuthenticatingRealm();
+        X509DnAuthenticatingRealm realm = newRealm();
         PrincipalCollection principalCollection = getPrincipalCollection("CN=Firstname Lastname,     OU=Unknown,    O=Unknown,    L=Annapolis Junction,   ST=MD,   C=US");
         AuthorizationInfo result = realm.doGetAuthorizationInfo(principalCollection);
         assertThat(result.getRoles(), hasItems("nx-admin", "nx-deploy"));
@@ -117,7 +145,7 @@ public class X509DnAuthenticatingRealmTest {
     @Test
     public void processPrincipalCollectionOnlyOne() throws IOException {
         System.setProperty(X509DnAuthenticatingRealm.CONFIG_FILE, configFile.getAbsolutePath());
-        X509DnAuthenticatingRealm realm = new X509DnAuthenticatingRealm();
+        X509DnAuthenticatingRealm realm = newRealm();
         PrincipalCollection principalCollection = getPrincipalCollection(SECOND_DN);
         AuthorizationInfo result = realm.doGetAuthorizationInfo(principalCollection);
         assertThat(result.getRoles(), hasItems("nx-deploy"));
@@ -126,12 +154,189 @@ public class X509DnAuthenticatingRealmTest {
     @Test
     public void processPrincipalCollectionNotFound() throws IOException {
         System.setProperty(X509DnAuthenticatingRealm.CONFIG_FILE, configFile.getAbsolutePath());
-        X509DnAuthenticatingRealm realm = new X509DnAuthenticatingRealm();
+        X509DnAuthenticatingRealm realm = newRealm();
         PrincipalCollection principalCollection = getPrincipalCollection("CN=Firstname Lastname3,     OU=Unknown,    O=Unknown,    L=Annapolis Junction,   ST=MD,   C=US");
         AuthorizationInfo result = realm.doGetAuthorizationInfo(principalCollection);
         assertThat(result.getRoles(), hasItems("nx-anonymous"));
     }
 
+    @Test
+    public void subjectWithoutRolesAllowedForItsIssuersIsNotRememberedAsUnmapped() throws IOException {
+        System.setProperty(X509DnAuthenticatingRealm.CONFIG_FILE, configFile.getAbsolutePath());
+        File trustConfigFile = temporaryFolder.newFile();
+        try (FileOutputStream fileOutputStream = new FileOutputStream(trustConfigFile)) {
+            IOUtils.write("trustStore: " + new File(getClass().getResource("/trust/truststore.jks").getFile()).getAbsolutePath() + "\n" +
+                    "trustStorePassword: password\n" +
+                    "pinnedIssuers:\n" +
+                    "    nx-deploy:\n" +
+                    "        - CN=Test Issuing CA, O=Test, C=US\n", fileOutputStream);
+        }
+        System.setProperty(X509DnAuthenticatingRealm.TRUST_CONFIG_FILE, trustConfigFile.getAbsolutePath());
+        X509DnAuthenticatingRealm realm = newRealm();
+        assertThat(realm.doGetAuthorizationInfo(getPrincipalCollection(SECOND_DN)).getRoles(), hasItems("nx-anonymous"));
+        assertFalse(realm.getMappingReloader().getMapping().isKnownUnmapped(SECOND_DN));
+
+        PrincipalCollection principals = new SimplePrincipalCollection(Arrays.asList(SECOND_DN,
+                new ChainIssuers(ImmutableSet.of(DnNormalizer.getInstance().normalize("CN=Test Issuing CA, O=Test, C=US")))),
+                X509DnAuthenticatingRealm.NAME);
+        assertEquals(Collections.singleton("nx-deploy"), realm.doGetAuthorizationInfo(principals).getRoles());
+    }
+
+    @Test
+    public void chainsOfTheSameSubjectFromDifferentIssuersKeepTheirOwnRoles() throws IOException, CertificateException {
+        try (FileOutputStream fileOutputStream = new FileOutputStream(configFile)) {
+            IOUtils.write("" +
+                    "nx-deploy:\n" +
+                    "    - CN=client, O=Test, C=US\n" +
+                    "nx-admin:\n" +
+                    "    - CN=client, O=Test, C=US\n", fileOutputStream);
+        }
+        System.setProperty(X509DnAuthenticatingRealm.CONFIG_FILE, configFile.getAbsolutePath());
+        File trustConfigFile = temporaryFolder.newFile();
+        try (FileOutputStream fileOutputStream = new FileOutputStream(trustConfigFile)) {
+            IOUtils.write("trustStore: " + new File(getClass().getResource("/trust/two-ca-truststore.jks").getFile()).getAbsolutePath() + "\n" +
+                    "trustStorePassword: password\n" +
+                    "pinnedIssuers:\n" +
+                    "    nx-deploy:\n" +
+                    "        - CN=Test Issuing CA, O=Test, C=US\n" +
+                    "    nx-admin:\n" +
+                    "        - CN=Second Issuing CA, O=Test, C=US\n", fileOutputStream);
+        }
+        System.setProperty(X509DnAuthenticatingRealm.TRUST_CONFIG_FILE, trustConfigFile.getAbsolutePath());
+        X509DnAuthenticatingRealm realm = newRealm();
+        realm.setAuthorizationCache(new MapCache<Object, AuthorizationInfo>("test", new HashMap<Object, AuthorizationInfo>()));
+        X509AuthenticationToken first = new ExtendedX509AuthenticationToken(readChain("/trust/client-chain.pem"), "localhost");
+        X509AuthenticationToken second = new ExtendedX509AuthenticationToken(readChain("/trust/second-client-chain.pem"), "localhost");
+        assertEquals(first.getSubjectDN(), second.getSubjectDN());
+        assertFalse(realm.getAuthenticationCacheKey(first).equals(realm.getAuthenticationCacheKey(second)));
+
+        PrincipalCollection firstPrincipals = realm.doGetX509AuthenticationInfo(first).getPrincipals();
+        PrincipalCollection secondPrincipals = realm.doGetX509AuthenticationInfo(second).getPrincipals();
+        assertEquals("CN=client,O=Test,C=US", firstPrincipals.getPrimaryPrincipal());
+        assertEquals("CN=client,O=Test,C=US", secondPrincipals.getPrimaryPrincipal());
+        for (int i = 0; i < 2; i++) {
+            assertEquals(Collections.singleton("nx-deploy"), realm.getAuthorizationInfo(firstPrincipals).getRoles());
+            assertEquals(Collections.singleton("nx-admin"), realm.getAuthorizationInfo(secondPrincipals).getRoles());
+        }
+    }
+
+    @Test
+    public void unmappedSubjectIsRememberedUntilReload() throws IOException {
+        System.setProperty(X509DnAuthenticatingRealm.CONFIG_FILE, configFile.getAbsolutePath());
+        X509DnAuthenticatingRealm realm = newRealm();
+        String thirdDn = "CN=Firstname Lastname3, OU=Unknown, O=Unknown, L=Annapolis Junction, ST=MD, C=US";
+        assertThat(realm.doGetAuthorizationInfo(getPrincipalCollection(thirdDn)).getRoles(), hasItems("nx-anonymous"));
+        assertTrue(realm.getMappingReloader().getMapping().isKnownUnmapped(thirdDn));
+        assertThat(realm.doGetAuthorizationInfo(getPrincipalCollection(thirdDn)).getRoles(), hasItems("nx-anonymous"));
+        try (FileOutputStream fileOutputStream = new FileOutputStream(configFile)) {
+            IOUtils.write("nx-readonly:\n" +
+                    "    - " + thirdDn + "\n", fileOutputStream);
+        }
+        assertTrue(realm.getMappingReloader().reload());
+        assertEquals(Collections.singleton("nx-readonly"),
+                realm.doGetAuthorizationInfo(getPrincipalCollection(thirdDn)).getRoles());
+    }
+
+    @Test
+    public void reloadPublishesNewMapping() throws IOException {
+        System.setProperty(X509DnAuthenticatingRealm.CONFIG_FILE, configFile.getAbsolutePath());
+        X509DnAuthenticatingRealm realm = newRealm();
+        long version = realm.getMappingReloader().getMapping().getVersion();
+        try (FileOutputStream fileOutputStream = new FileOutputStream(configFile)) {
+            IOUtils.write("nx-readonly:\n" +
+                    "    - " + SECOND_DN + "\n", fileOutputStream);
+        }
+        assertTrue(realm.getMappingReloader().reload());
+        assertTrue(realm.getMappingReloader().getMapping().getVersion() > version);
+        AuthorizationInfo result = realm.doGetAuthorizationInfo(getPrincipalCollection(SECOND_DN));
+        assertEquals(Collections.singleton("nx-readonly"), result.getRoles());
+        result = realm.doGetAuthorizationInfo(getPrincipalCollection(DEFAULT_DN));
+        assertThat(result.getRoles(), hasItems("nx-anonymous"));
+    }
+
+    @Test
+    public void malformedReloadKeepsLastGoodMapping() throws IOException {
+        System.setProperty(X509DnAuthenticatingRealm.CONFIG_FILE, configFile.getAbsolutePath());
+        X509DnAuthenticatingRealm realm = newRealm();
+        try (FileOutputStream fileOutputStream = new FileOutputStream(configFile)) {
+            IOUtils.write("nx-admin:\n" +
+                    "            * user\n", fileOutputStream);
+        }
+        long version = realm.getMappingReloader().getMapping().getVersion();
+        assertFalse(realm.getMappingReloader().reload());
+        AuthorizationInfo result = realm.doGetAuthorizationInfo(getPrincipalCollection(DEFAULT_DN));
+        assertThat(result.getRoles(), hasItems("nx-admin", "nx-deploy"));
+        try (FileOutputStream fileOutputStream = new FileOutputStream(configFile)) {
+            IOUtils.write("nx-admin:\n    - " + DEFAULT_DN + "\n", fileOutputStream);
+        }
+        assertTrue(realm.getMappingReloader().reload());
+        assertEquals(version + 1, realm.getMappingReloader().getMapping().getVersion());
+    }
+
+    private X509DnAuthenticatingRealm newRealm() {
+        X509DnAuthenticatingRealm realm = new X509DnAuthenticatingRealm();
+        realms.add(realm);
+        return realm;
+    }
+
+    @Test
+    public void identicalRoleSetsShareAuthorizationInfo() throws IOException {
+        System.setProperty(X509DnAuthenticatingRealm.CONFIG_FILE, configFile.getAbsolutePath());
+        try (FileOutputStream fileOutputStream = new FileOutputStream(configFile)) {
+            IOUtils.write("nx-deploy:\n" +
+                    "    - " + DEFAULT_DN + "\n" +
+                    "    - " + SECOND_DN + "\n", fileOutputStream);
+        }
+        X509DnAuthenticatingRealm realm = newRealm();
+        assertSame(realm.doGetAuthorizationInfo(getPrincipalCollection(DEFAULT_DN)),
+                realm.doGetAuthorizationInfo(getPrincipalCollection(SECOND_DN)));
+        assertEquals(1, realm.getMappingReloader().getMapping().getDistinctRoleSets());
+    }
+
+    @Test
+    public void reloadEvictsOnlyAffectedAuthorizationInfo() throws IOException {
+        System.setProperty(X509DnAuthenticatingRealm.CONFIG_FILE, configFile.getAbsolutePath());
+        X509DnAuthenticatingRealm realm = newRealm();
+        realm.setAuthorizationCache(new MapCache<Object, AuthorizationInfo>("test", new HashMap<Object, AuthorizationInfo>()));
+        PrincipalCollection first = getPrincipalCollection(DEFAULT_DN);
+        PrincipalCollection second = getPrincipalCollection(SECOND_DN);
+        realm.getAuthorizationCache().put(first, realm.doGetAuthorizationInfo(first));
+        realm.getAuthorizationCache().put(second, realm.doGetAuthorizationInfo(second));
+        try (FileOutputStream fileOutputStream = new FileOutputStream(configFile)) {
+            IOUtils.write("" +
+                    "nx-admin:\n" +
+                    "    - " + DEFAULT_DN + "\n" +
+                    "nx-deploy:\n" +
+                    "    - " + DEFAULT_DN + "\n" +
+                    "nx-readonly:\n" +
+                    "    - " + SECOND_DN + "\n", fileOutputStream);
+        }
+        assertTrue(realm.getMappingReloader().reload());
+        assertNotNull(realm.getAuthorizationCache().get(first));
+        assertNull(realm.getAuthorizationCache().get(second));
+    }
+
+    @Test
+    public void entryComputedFromReplacedMappingIsNotCached() throws IOException {
+        System.setProperty(X509DnAuthenticatingRealm.CONFIG_FILE, configFile.getAbsolutePath());
+        final X509DnAuthenticatingRealm realm = newRealm();
+        realm.setAuthorizationCache(new MapCache<Object, AuthorizationInfo>("test", new HashMap<Object, AuthorizationInfo>()) {
+            @Override
+            public AuthorizationInfo put(Object key, AuthorizationInfo value) {
+                try (FileOutputStream fileOutputStream = new FileOutputStream(configFile)) {
+                    IOUtils.write("nx-readonly:\n    - " + SECOND_DN + "\n", fileOutputStream);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                realm.getMappingReloader().reload();
+                return super.put(key, value);
+            }
+        });
+        PrincipalCollection second = getPrincipalCollection(SECOND_DN);
+        assertThat(realm.getAuthorizationInfo(second).getRoles(), hasItems("nx-deploy"));
+        assertNull(realm.getAuthorizationCache().get(second));
+    }
+
     private X509AuthenticationToken getToken(String name)  {
         X509AuthenticationToken token = mock(X509AuthenticationToken.class);
         X500Principal x500Principal = new X500Principal(name);
@@ -143,4 +348,11 @@ public class X509DnAuthenticatingRealmTest {
        return new SimplePrincipalCollection(name, X509DnAuthenticatingRealm.NAME);
     }
 
+    private static X509Certificate[] readChain(String resource) throws IOException, CertificateException {
+        try (InputStream inputStream = X509DnAuthenticatingRealmTest.class.getResourceAsStream(resource)) {
+            return CertificateFactory.getInstance("X.509").generateCertificates(inputStream)
+                    .toArray(new X509Certificate[0]);
+        }
+    }
+
 }
@@ -0,0 +1,54 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.audit;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AuditLogTest {
+
+    @Test
+    public void ringBufferIsBoundedAndOrdered() {
+        RingBuffer<String> ringBuffer = new RingBuffer<>(4);
+        assertEquals(4, ringBuffer.capacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ringBuffer.offer("record-" + i));
+        }
+        assertFalse(ringBuffer.offer("record-4"));
+        assertEquals("record-0", ringBuffer.poll());
+        assertTrue(ringBuffer.offer("record-4"));
+        for (int i = 1; i <= 4; i++) {
+            assertEquals("record-" + i, ringBuffer.poll());
+        }
+        assertNull(ringBuffer.poll());
+    }
+
+    @Test
+    public void auditsEachDnOncePerSampleInterval() {
+        AuditLog auditLog = new AuditLog(true, 60, 16);
+        auditLog.record("CN=a", ImmutableSet.of("nx-admin"), false, 1000);
+        auditLog.record("CN=a", ImmutableSet.of("nx-admin"), false, 1000);
+        auditLog.record("CN=b", ImmutableSet.of("nx-anonymous"), true, 1000);
+        auditLog.close();
+        assertEquals(1, auditLog.getSampledOutCount());
+        assertEquals(0, auditLog.getDroppedCount());
+    }
+
+    @Test
+    public void disabledAuditLogRecordsNothing() {
+        AuditLog auditLog = new AuditLog(false, 0, 16);
+        auditLog.record("CN=a", ImmutableSet.of("nx-admin"), false, 1000);
+        auditLog.drain();
+        assertEquals(0, auditLog.getWrittenCount());
+    }
+
+    @Test
+    public void recordIsStructured() {
+        AuditRecord record = new AuditRecord(1L, "CN=\"a\"", ImmutableSet.of("nx-admin"), false, 5000);
+        assertEquals("timestamp=1 dn=\"CN=\\\"a\\\"\" roles=[nx-admin] anonymousFallback=false latencyMicros=5",
+                record.toString());
+    }
+}
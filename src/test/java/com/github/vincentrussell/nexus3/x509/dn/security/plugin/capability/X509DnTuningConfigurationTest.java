@@ -0,0 +1,53 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.capability;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class X509DnTuningConfigurationTest {
+
+    @Test
+    public void blankSettingsLeaveSettingsUnchanged() {
+        X509DnTuningConfiguration config = new X509DnTuningConfiguration(ImmutableMap.of(
+                X509DnTuningConfiguration.RELOAD_INTERVAL, " ",
+                X509DnTuningConfiguration.AUTHORIZATION_CACHE_SIZE, "",
+                X509DnTuningConfiguration.AUDIT_ENABLED, ""));
+        assertNull(config.getReloadIntervalSeconds());
+        assertNull(config.getAuthorizationCacheSize());
+        assertNull(config.getSessionCacheTtlSeconds());
+        assertNull(config.getWatchEnabled());
+        assertNull(config.getAuditEnabled());
+        assertNull(config.getSessionCacheEnabled());
+    }
+
+    @Test
+    public void parsesSettings() {
+        X509DnTuningConfiguration config = new X509DnTuningConfiguration(ImmutableMap.of(
+                X509DnTuningConfiguration.RELOAD_INTERVAL, "10",
+                X509DnTuningConfiguration.WATCH_ENABLED, "false",
+                X509DnTuningConfiguration.AUTHORIZATION_CACHE_TTL, "0",
+                X509DnTuningConfiguration.SESSION_CACHE_ENABLED, "true",
+                X509DnTuningConfiguration.AUDIT_SAMPLE_INTERVAL, "30"));
+        assertEquals(Long.valueOf(10), config.getReloadIntervalSeconds());
+        assertFalse(config.getWatchEnabled());
+        assertEquals(Long.valueOf(0), config.getAuthorizationCacheTtlSeconds());
+        assertTrue(config.getSessionCacheEnabled());
+        assertEquals(Long.valueOf(30), config.getAuditSampleIntervalSeconds());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsMalformedNumbers() {
+        new X509DnTuningConfiguration(Collections.singletonMap(X509DnTuningConfiguration.SESSION_CACHE_SIZE, "lots"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsAZeroCacheSize() {
+        new X509DnTuningConfiguration(Collections.singletonMap(X509DnTuningConfiguration.AUTHENTICATION_CACHE_SIZE, "0"));
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import org.junit.Test;
+
+import javax.security.auth.x500.X500Principal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class DnNormalizerTest {
+
+    private static final String RAW_DN = "CN=Firstname Lastname,     OU=Unknown,    O=Unknown,    L=Annapolis Junction,   ST=MD,   C=US";
+    private static final String NORMALIZED_DN = "CN=Firstname Lastname,OU=Unknown,O=Unknown,L=Annapolis Junction,ST=MD,C=US";
+
+    @Test
+    public void normalizesAndCountsHits() {
+        DnNormalizer dnNormalizer = new DnNormalizer(10);
+        String first = dnNormalizer.normalize(RAW_DN);
+        assertEquals(NORMALIZED_DN, first);
+        assertSame(first, dnNormalizer.normalize(RAW_DN));
+        assertEquals(1, dnNormalizer.getHitCount());
+        assertEquals(1, dnNormalizer.getMissCount());
+    }
+
+    @Test
+    public void principalSeedsMemo() {
+        DnNormalizer dnNormalizer = new DnNormalizer(10);
+        assertEquals(NORMALIZED_DN, dnNormalizer.normalize(new X500Principal(RAW_DN)));
+        dnNormalizer.normalize(NORMALIZED_DN);
+        assertEquals(1, dnNormalizer.getHitCount());
+        assertEquals(0, dnNormalizer.getMissCount());
+    }
+
+    @Test
+    public void resizeKeepsEntries() {
+        DnNormalizer dnNormalizer = new DnNormalizer(10);
+        dnNormalizer.normalize(RAW_DN);
+        dnNormalizer.setMaximumSize(100);
+        dnNormalizer.normalize(RAW_DN);
+        assertEquals(100, dnNormalizer.getMaximumSize());
+        assertEquals(1, dnNormalizer.getHitCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidDn() {
+        new DnNormalizer(10).normalize("not a dn");
+    }
+}
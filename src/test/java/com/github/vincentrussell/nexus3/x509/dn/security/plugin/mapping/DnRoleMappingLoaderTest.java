@@ -0,0 +1,129 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class DnRoleMappingLoaderTest {
+
+    private File configFile;
+
+    @Before
+    public void createConfigFile() throws IOException {
+        configFile = File.createTempFile("x509-dn-mapping", ".yaml");
+    }
+
+    @After
+    public void deleteConfigFile() {
+        configFile.delete();
+    }
+
+    @Test
+    public void loadsManyEntriesAcrossBatches() throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(configFile), StandardCharsets.UTF_8)) {
+            writer.write("nx-deploy:\n");
+            for (int i = 0; i < 5000; i++) {
+                writer.write("    - CN=agent-" + i + ", OU=Build, O=Corp, C=US\n");
+            }
+            writer.write("nx-readonly:\n");
+            writer.write("    - CN=agent-1, OU=Build, O=Corp, C=US\n");
+            writer.write("    - \"*, OU=Test, O=Corp, C=US\"\n");
+        }
+        DnRoleMapping mapping = new DnRoleMappingLoader(configFile).load(7);
+        assertEquals(7, mapping.getVersion());
+        assertEquals(5000, mapping.size());
+        assertEquals(1, mapping.getRuleCount());
+        assertEquals(ImmutableSet.of("nx-deploy", "nx-readonly"),
+                mapping.getAuthorizationInfo("CN=agent-1,OU=Build,O=Corp,C=US").getRoles());
+        assertEquals(ImmutableSet.of("nx-deploy"),
+                mapping.getAuthorizationInfo("CN=agent-4999,OU=Build,O=Corp,C=US").getRoles());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void scalarInsteadOfListIsRejected() throws IOException {
+        write("nx-admin: CN=Firstname Lastname, OU=Unknown, O=Unknown, C=US\n");
+        new DnRoleMappingLoader(configFile).load(1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void invalidDnIsRejected() throws IOException {
+        write("nx-admin:\n    - not a dn\n");
+        new DnRoleMappingLoader(configFile).load(1);
+    }
+
+    @Test
+    public void aliasesAreResolved() throws IOException {
+        write("nx-deploy: &agents\n  - CN=agent-17, OU=Build, O=Corp, C=US\n  - &viewer CN=viewer, O=Corp, C=US\n"
+                + "nx-readonly: *agents\n"
+                + "nx-audit:\n  - *viewer\n");
+        DnRoleMapping mapping = new DnRoleMappingLoader(configFile).load(1);
+        assertEquals(ImmutableSet.of("nx-deploy", "nx-readonly"),
+                mapping.getAuthorizationInfo("CN=agent-17,OU=Build,O=Corp,C=US").getRoles());
+        assertEquals(ImmutableSet.of("nx-deploy", "nx-readonly", "nx-audit"),
+                mapping.getAuthorizationInfo("CN=viewer,O=Corp,C=US").getRoles());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void emptyFileIsRejected() throws IOException {
+        write("");
+        new DnRoleMappingLoader(configFile).load(1);
+    }
+
+    @Test
+    public void savedMappingLoadsBackUnchanged() throws IOException {
+        write("nx-deploy:\n  - CN=agent-17, OU=Build, O=Corp, C=US\n  - '*, OU=Build, O=Corp, C=US'\n"
+                + "nx-readonly:\n  - CN=agent-17, OU=Build, O=Corp, C=US\n  - CN=viewer, O=Corp, C=US\n");
+        DnRoleMappingLoader loader = new DnRoleMappingLoader(configFile);
+        DnRoleMapping mapping = loader.load(1);
+        loader.save(mapping);
+        DnRoleMapping reloaded = loader.load(2);
+        assertEquals(mapping.getDns(), reloaded.getDns());
+        for (String dn : mapping.getDns()) {
+            assertEquals(mapping.getAuthorizationInfo(dn).getRoles(), reloaded.getAuthorizationInfo(dn).getRoles());
+        }
+        assertEquals(mapping.getRulePatterns(), reloaded.getRulePatterns());
+    }
+
+    @Test
+    public void compositeRolesAreReadAndSaved() throws IOException {
+        write("_roles:\n  ci-deployer: [nx-deploy, nx-readonly]\n"
+                + "ci-deployer:\n  - CN=agent-17, OU=Build, O=Corp, C=US\n"
+                + "nx-readonly:\n  - CN=agent-17, OU=Build, O=Corp, C=US\n  - CN=viewer, O=Corp, C=US\n");
+        DnRoleMappingLoader loader = new DnRoleMappingLoader(configFile);
+        DnRoleMapping mapping = loader.load(1);
+        String agent = DnNormalizer.canonicalize("CN=agent-17,OU=Build,O=Corp,C=US");
+        assertEquals(ImmutableSet.of("ci-deployer", "nx-deploy", "nx-readonly"),
+                ImmutableSet.copyOf(mapping.getAuthorizationInfo(agent).getRoles()));
+        loader.save(mapping);
+        String saved = new String(Files.readAllBytes(configFile.toPath()), StandardCharsets.UTF_8);
+        assertFalse(saved, saved.contains("nx-deploy:"));
+        DnRoleMapping reloaded = loader.load(2);
+        assertEquals(mapping.getRoleHierarchy(), reloaded.getRoleHierarchy());
+        assertEquals(mapping.getAuthorizationInfo(agent).getRoles(), reloaded.getAuthorizationInfo(agent).getRoles());
+        assertEquals(ImmutableSet.of("ci-deployer", "nx-readonly"), reloaded.getDeclaredRoles(agent));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void roleCycleIsRejected() throws IOException {
+        write("_roles:\n  a: [b]\n  b: [a]\na:\n  - CN=agent-17, OU=Build, O=Corp, C=US\n");
+        new DnRoleMappingLoader(configFile).load(1);
+    }
+
+    private void write(String content) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(configFile), StandardCharsets.UTF_8)) {
+            writer.write(content);
+        }
+    }
+}
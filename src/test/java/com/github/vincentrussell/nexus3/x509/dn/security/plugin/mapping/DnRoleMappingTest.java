@@ -0,0 +1,250 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DnRoleMappingTest {
+
+    private static final String BUILD_AGENT = "CN=agent-17,OU=Build,O=Corp,C=US";
+    private static final String CI_AGENT = "CN=ci-42,OU=Build,O=Corp,C=US";
+
+    @Test
+    public void recognizesPatterns() {
+        assertTrue(RdnTrie.isPattern("*,OU=Build,O=Corp,C=US"));
+        assertTrue(RdnTrie.isPattern("CN=ci-*, OU=Build, O=Corp, C=US"));
+        assertFalse(RdnTrie.isPattern("CN=ci, OU=Build, O=Corp, C=US"));
+    }
+
+    @Test
+    public void subtreeRuleMatchesDescendantsOnly() {
+        DnRoleMapping mapping = DnRoleMapping.builder()
+                .addRule("nx-deploy", "*, OU=Build, O=Corp, C=US")
+                .build(1);
+        assertEquals(ImmutableSet.of("nx-deploy"), mapping.getAuthorizationInfo(BUILD_AGENT).getRoles());
+        assertEquals(ImmutableSet.of("nx-deploy"),
+                mapping.getAuthorizationInfo("CN=x,OU=Nested,OU=Build,O=Corp,C=US").getRoles());
+        assertNull(mapping.getAuthorizationInfo("OU=Build,O=Corp,C=US"));
+        assertNull(mapping.getAuthorizationInfo("CN=agent-17,OU=Test,O=Corp,C=US"));
+    }
+
+    @Test
+    public void prefixRuleMatchesLeafValue() {
+        DnRoleMapping mapping = DnRoleMapping.builder()
+                .addRule("nx-ci", "CN=ci-*,OU=Build,O=Corp,C=US")
+                .build(1);
+        assertEquals(ImmutableSet.of("nx-ci"), mapping.getAuthorizationInfo(CI_AGENT).getRoles());
+        assertNull(mapping.getAuthorizationInfo(BUILD_AGENT));
+        assertNull(mapping.getAuthorizationInfo("CN=ci-42,OU=Nested,OU=Build,O=Corp,C=US"));
+    }
+
+    @Test
+    public void matchingRulesAreMergedAndShared() {
+        DnRoleMapping mapping = DnRoleMapping.builder()
+                .addRule("nx-deploy", "*,OU=Build,O=Corp,C=US")
+                .addRule("nx-ci", "CN=ci-*,OU=Build,O=Corp,C=US")
+                .addRule("nx-readonly", "*,O=Corp,C=US")
+                .build(1);
+        assertEquals(ImmutableSet.of("nx-deploy", "nx-ci", "nx-readonly"),
+                ImmutableSet.copyOf(mapping.getAuthorizationInfo(CI_AGENT).getRoles()));
+        assertSame(mapping.getAuthorizationInfo(CI_AGENT),
+                mapping.getAuthorizationInfo("CN=ci-43,OU=Build,O=Corp,C=US"));
+    }
+
+    @Test
+    public void exactEntryTakesPrecedence() {
+        DnRoleMapping mapping = DnRoleMapping.builder()
+                .addRule("nx-deploy", "*,OU=Build,O=Corp,C=US")
+                .add("nx-admin", BUILD_AGENT)
+                .build(1);
+        assertEquals(ImmutableSet.of("nx-admin"), mapping.getAuthorizationInfo(BUILD_AGENT).getRoles());
+        assertEquals(1, mapping.getRuleCount());
+    }
+
+    @Test
+    public void prefixRuleWithoutParentMatchesLeafValueAnywhere() {
+        DnRoleMapping mapping = DnRoleMapping.builder()
+                .addRule("nx-ci", "CN=ci-*")
+                .addRule("nx-deploy", "CN=ci-*,OU=Build,O=Corp,C=US")
+                .build(1);
+        assertTrue(RdnTrie.isPattern("CN=ci-*"));
+        assertEquals(ImmutableSet.of("nx-ci", "nx-deploy"),
+                ImmutableSet.copyOf(mapping.getAuthorizationInfo(CI_AGENT).getRoles()));
+        assertEquals(ImmutableSet.of("nx-ci"),
+                mapping.getAuthorizationInfo("CN=ci-42,OU=Nested,OU=Build,O=Corp,C=US").getRoles());
+        assertEquals(ImmutableSet.of("nx-ci"), mapping.getAuthorizationInfo("CN=ci-7").getRoles());
+        assertNull(mapping.getAuthorizationInfo(BUILD_AGENT));
+        assertNull(mapping.getAuthorizationInfo("CN=agent-17,OU=ci-42,O=Corp,C=US"));
+        assertEquals(2, mapping.getRuleCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wildcardInsideTheValueIsRejected() {
+        DnRoleMapping.builder().addRule("nx-deploy", "CN=ci-*-*");
+    }
+
+    @Test
+    public void bloomFilterNeverHidesAMappedDn() {
+        DnRoleMapping.Builder builder = DnRoleMapping.builder();
+        for (int i = 0; i < 20000; i++) {
+            builder.add("nx-deploy", "CN=agent-" + i + ",OU=Build,O=Corp,C=US");
+        }
+        DnRoleMapping mapping = builder.build(1);
+        for (int i = 0; i < 20000; i++) {
+            assertEquals(ImmutableSet.of("nx-deploy"),
+                    mapping.getAuthorizationInfo("CN=agent-" + i + ",OU=Build,O=Corp,C=US").getRoles());
+        }
+        for (int i = 0; i < 20000; i++) {
+            assertNull(mapping.getAuthorizationInfo("CN=scanner-" + i + ",OU=Elsewhere,O=Corp,C=US"));
+        }
+    }
+
+    @Test
+    public void unmappedSubjectsAreRememberedPerSnapshot() {
+        DnRoleMapping mapping = DnRoleMapping.builder().add("nx-deploy", BUILD_AGENT).build(1);
+        String subject = "CN=scanner, O=Elsewhere, C=US";
+        assertFalse(mapping.isKnownUnmapped(subject));
+        mapping.rememberUnmapped(subject);
+        assertTrue(mapping.isKnownUnmapped(subject));
+        assertEquals(1, mapping.getNegativeCacheSize());
+        assertFalse(DnRoleMapping.builder().add("nx-deploy", BUILD_AGENT).build(2).isKnownUnmapped(subject));
+    }
+
+    @Test
+    public void applyLeavesThePreviousSnapshotIntact() {
+        DnRoleMapping mapping = DnRoleMapping.builder()
+                .add("nx-deploy", BUILD_AGENT)
+                .add("nx-readonly", CI_AGENT)
+                .build(1);
+        DnRoleMapping updated = mapping.apply(MappingUpdate.builder()
+                .add("nx-admin", "CN=agent-17, OU=Build, O=Corp, C=US")
+                .remove("nx-readonly", CI_AGENT)
+                .build(), 2);
+        assertEquals(2, updated.getVersion());
+        assertEquals(ImmutableSet.of("nx-deploy", "nx-admin"),
+                ImmutableSet.copyOf(updated.getAuthorizationInfo(BUILD_AGENT).getRoles()));
+        assertNull(updated.getAuthorizationInfo(CI_AGENT));
+        assertEquals(ImmutableSet.of(BUILD_AGENT), ImmutableSet.copyOf(updated.getDns()));
+        assertEquals(1, updated.size());
+        assertEquals(ImmutableSet.of("nx-deploy"), mapping.getAuthorizationInfo(BUILD_AGENT).getRoles());
+        assertEquals(2, mapping.size());
+    }
+
+    @Test
+    public void successiveUpdatesShareOneOverlay() {
+        DnRoleMapping mapping = DnRoleMapping.builder().add("nx-deploy", BUILD_AGENT).build(1);
+        for (int i = 0; i < 100; i++) {
+            mapping = mapping.apply(MappingUpdate.builder()
+                    .add("nx-deploy", "CN=agent-" + i + ",OU=Other,O=Corp,C=US").build(), i + 2);
+        }
+        mapping = mapping.apply(MappingUpdate.builder().remove("nx-deploy", BUILD_AGENT).build(), 200);
+        assertEquals(100, mapping.size());
+        assertEquals(100, ((OverlayDnIndex) mapping.getIndex()).getOverrideCount() - 1);
+        assertNull(mapping.getAuthorizationInfo(BUILD_AGENT));
+        assertSame(mapping.getAuthorizationInfo("CN=agent-3,OU=Other,O=Corp,C=US"),
+                mapping.getAuthorizationInfo("CN=agent-4,OU=Other,O=Corp,C=US"));
+    }
+
+    @Test
+    public void roleSetsOfEarlierUpdatesAreStillCounted() {
+        DnRoleMapping mapping = DnRoleMapping.builder().add("nx-deploy", BUILD_AGENT).build(1);
+        mapping = mapping.apply(MappingUpdate.builder().add("nx-admin", CI_AGENT).build(), 2);
+        mapping = mapping.apply(MappingUpdate.builder().add("nx-readonly", "CN=agent-3,OU=Other,O=Corp,C=US").build(), 3);
+        assertEquals(3, mapping.getDistinctRoleSets());
+    }
+
+    @Test
+    public void largeOverlayIsFoldedIntoAHeapIndex() {
+        DnRoleMapping mapping = DnRoleMapping.builder().add("nx-deploy", BUILD_AGENT).build(1);
+        for (int i = 0; i <= OverlayDnIndex.COMPACTION_THRESHOLD; i++) {
+            mapping = mapping.apply(MappingUpdate.builder()
+                    .add(i % 2 == 0 ? "nx-deploy" : "nx-readonly", "CN=agent-" + i + ",OU=Other,O=Corp,C=US").build(), i + 2);
+        }
+        assertTrue(mapping.getIndex() instanceof HeapDnIndex);
+        assertEquals(OverlayDnIndex.COMPACTION_THRESHOLD + 2, mapping.size());
+        assertEquals(2, mapping.getDistinctRoleSets());
+        assertEquals(ImmutableSet.of("nx-readonly"),
+                mapping.getAuthorizationInfo("CN=agent-1,OU=Other,O=Corp,C=US").getRoles());
+        mapping = mapping.apply(MappingUpdate.builder().remove("nx-deploy", BUILD_AGENT).build(), 2000);
+        assertTrue(mapping.getIndex() instanceof OverlayDnIndex);
+        assertEquals(OverlayDnIndex.COMPACTION_THRESHOLD + 1, mapping.size());
+        assertNull(mapping.getAuthorizationInfo(BUILD_AGENT));
+    }
+
+    @Test
+    public void applyAddsAndRemovesRules() {
+        DnRoleMapping mapping = DnRoleMapping.builder()
+                .addRule("nx-deploy", "*,OU=Build,O=Corp,C=US")
+                .build(1);
+        DnRoleMapping updated = mapping.apply(MappingUpdate.builder()
+                .remove("nx-deploy", "*,OU=Build,O=Corp,C=US")
+                .add("nx-ci", "CN=ci-*,OU=Build,O=Corp,C=US")
+                .build(), 2);
+        assertNull(updated.getAuthorizationInfo(BUILD_AGENT));
+        assertEquals(ImmutableSet.of("nx-ci"), updated.getAuthorizationInfo(CI_AGENT).getRoles());
+        assertEquals(1, updated.getRuleCount());
+    }
+
+    @Test
+    public void compositeRolesAreExpandedWhenBuilt() {
+        DnRoleMapping mapping = DnRoleMapping.builder()
+                .addImplication("ci-deployer", "nx-deploy")
+                .addImplication("nx-deploy", "nx-readonly")
+                .add("ci-deployer", BUILD_AGENT)
+                .add("ci-deployer", "CN=agent-18,OU=Build,O=Corp,C=US")
+                .add("nx-readonly", "CN=agent-18,OU=Build,O=Corp,C=US")
+                .addRule("ci-deployer", "CN=ci-*,OU=Build,O=Corp,C=US")
+                .build(1);
+        assertEquals(ImmutableSet.of("ci-deployer", "nx-deploy", "nx-readonly"),
+                ImmutableSet.copyOf(mapping.getAuthorizationInfo(BUILD_AGENT).getRoles()));
+        assertSame(mapping.getAuthorizationInfo(BUILD_AGENT).getRoles(),
+                mapping.getAuthorizationInfo("CN=agent-18,OU=Build,O=Corp,C=US").getRoles());
+        assertEquals(ImmutableSet.of("ci-deployer", "nx-readonly"),
+                mapping.getDeclaredRoles("CN=agent-18,OU=Build,O=Corp,C=US"));
+        assertEquals(ImmutableSet.of("ci-deployer", "nx-deploy", "nx-readonly"),
+                ImmutableSet.copyOf(mapping.getAuthorizationInfo(CI_AGENT).getRoles()));
+        assertEquals(1, mapping.getDistinctRoleSets());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void roleCyclesAreRejected() {
+        DnRoleMapping.builder()
+                .addImplication("ci-deployer", "nx-deploy")
+                .addImplication("nx-deploy", "ci-deployer")
+                .build(1);
+    }
+
+    @Test
+    public void revokingACompositeRoleKeepsImpliedRolesGrantedDirectly() {
+        DnRoleMapping mapping = DnRoleMapping.builder()
+                .addImplication("ci-deployer", "nx-deploy")
+                .addImplication("ci-deployer", "nx-readonly")
+                .add("ci-deployer", BUILD_AGENT)
+                .add("nx-readonly", BUILD_AGENT)
+                .add("nx-admin", BUILD_AGENT)
+                .build(1);
+        DnRoleMapping updated = mapping.apply(MappingUpdate.builder().remove("ci-deployer", BUILD_AGENT).build(), 2);
+        assertEquals(ImmutableSet.of("nx-readonly", "nx-admin"), updated.getAuthorizationInfo(BUILD_AGENT).getRoles());
+        DnRoleMapping granted = updated.apply(MappingUpdate.builder().add("ci-deployer", CI_AGENT).build(), 3);
+        assertEquals(ImmutableSet.of("ci-deployer", "nx-deploy", "nx-readonly"),
+                ImmutableSet.copyOf(granted.getAuthorizationInfo(CI_AGENT).getRoles()));
+        assertEquals(ImmutableSet.of("ci-deployer"), granted.getDeclaredRoles(CI_AGENT));
+    }
+
+    @Test
+    public void grantingAnImpliedRoleIsKeptWhenTheCompositeRoleIsRevoked() {
+        DnRoleMapping mapping = DnRoleMapping.builder()
+                .addImplication("ci-deployer", "nx-deploy")
+                .add("ci-deployer", BUILD_AGENT)
+                .build(1);
+        DnRoleMapping granted = mapping.apply(MappingUpdate.builder().add("nx-deploy", BUILD_AGENT).build(), 2);
+        assertEquals(ImmutableSet.of("ci-deployer", "nx-deploy"), granted.getDeclaredRoles(BUILD_AGENT));
+        DnRoleMapping revoked = granted.apply(MappingUpdate.builder().remove("ci-deployer", BUILD_AGENT).build(), 3);
+        assertEquals(ImmutableSet.of("nx-deploy"), revoked.getAuthorizationInfo(BUILD_AGENT).getRoles());
+    }
+}
@@ -0,0 +1,121 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MappedDnIndexTest {
+
+    private File indexFile;
+
+    @Before
+    public void createFile() throws IOException {
+        indexFile = File.createTempFile("x509-dn-mapping", ".index");
+    }
+
+    @After
+    public void deleteFile() {
+        indexFile.delete();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        DnRoleMapping.Builder builder = DnRoleMapping.builder()
+                .add("nx-admin", "CN=a,O=Corp,C=US")
+                .add("nx-deploy", "CN=a,O=Corp,C=US")
+                .add("nx-deploy", "CN=Zo\u00eb,O=Corp,C=US")
+                .addRule("nx-ci", "CN=ci-*,OU=Build,O=Corp,C=US");
+        for (int i = 0; i < 1000; i++) {
+            builder.add("nx-deploy", "CN=agent-" + i + ",OU=Build,O=Corp,C=US");
+        }
+        MappedDnIndex.write(indexFile, builder.build(1));
+
+        MappedDnIndex index = MappedDnIndex.open(indexFile, 10);
+        assertEquals(1002, index.size());
+        assertEquals(2, index.getDistinctRoleSets());
+        assertEquals(ImmutableSet.of("nx-admin", "nx-deploy"), index.get("CN=a,O=Corp,C=US").getRoles());
+        assertEquals(ImmutableSet.of("nx-deploy"), index.get("CN=Zo\u00eb,O=Corp,C=US").getRoles());
+        assertSame(index.get("CN=agent-1,OU=Build,O=Corp,C=US"), index.get("CN=agent-999,OU=Build,O=Corp,C=US"));
+        assertNull(index.get("CN=agent-1000,OU=Build,O=Corp,C=US"));
+        assertEquals(ImmutableSet.of("CN=ci-*,OU=Build,O=Corp,C=US"), index.getRulePatterns().keySet());
+        assertTrue(index.getHotEntryCount() <= 10);
+
+        HashSet<String> dns = new HashSet<>(index.getDns());
+        assertEquals(1002, dns.size());
+        assertTrue(dns.contains("CN=agent-500,OU=Build,O=Corp,C=US"));
+        assertTrue(index.getDns().contains("CN=agent-500,OU=Build,O=Corp,C=US"));
+        assertFalse(index.getDns().contains("CN=b,O=Corp,C=US"));
+    }
+
+    @Test
+    public void roleImplicationsAreStored() throws IOException {
+        MappedDnIndex.write(indexFile, DnRoleMapping.builder()
+                .addImplication("ci-deployer", "nx-deploy")
+                .add("ci-deployer", "CN=a,O=Corp,C=US")
+                .addRule("ci-deployer", "CN=ci-*,OU=Build,O=Corp,C=US")
+                .build(1));
+        MappedDnIndex index = MappedDnIndex.open(indexFile, 10);
+        assertEquals(ImmutableSet.of("nx-deploy"), index.getRoleImplications().get("ci-deployer"));
+        assertEquals(ImmutableSet.of("ci-deployer", "nx-deploy"), index.get("CN=a,O=Corp,C=US").getRoles());
+        DnRoleMapping mapping = new IndexedFileMappingBackend(indexFile, null, 10).load(2);
+        assertEquals(ImmutableSet.of("ci-deployer"), mapping.getDeclaredRoles("CN=a,O=Corp,C=US"));
+        assertEquals(ImmutableSet.of("ci-deployer", "nx-deploy"),
+                mapping.getAuthorizationInfo("CN=ci-1,OU=Build,O=Corp,C=US").getRoles());
+    }
+
+    @Test
+    public void emptyMapping() throws IOException {
+        MappedDnIndex.write(indexFile, DnRoleMapping.builder().build(1));
+        MappedDnIndex index = MappedDnIndex.open(indexFile, 10);
+        assertEquals(0, index.size());
+        assertNull(index.get("CN=a,O=Corp,C=US"));
+        assertFalse(index.getDns().iterator().hasNext());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsOtherFiles() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(indexFile)) {
+            out.write("nx-admin:\n    - CN=a\n".getBytes(StandardCharsets.UTF_8));
+        }
+        MappedDnIndex.open(indexFile, 10);
+    }
+
+    @Test
+    public void backendImportsTheYamlOnceAndAppliesRules() throws IOException {
+        File yamlFile = File.createTempFile("x509-dn-mapping", ".yaml");
+        try {
+            try (FileOutputStream out = new FileOutputStream(yamlFile)) {
+                out.write(("nx-admin:\n    - CN=a, O=Corp, C=US\nnx-ci:\n    - CN=ci-*, OU=Build, O=Corp, C=US\n")
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+            indexFile.delete();
+            IndexedFileMappingBackend backend = new IndexedFileMappingBackend(indexFile, yamlFile, 100);
+            DnRoleMapping mapping = backend.load(3);
+            assertTrue(indexFile.isFile());
+            assertEquals(3, mapping.getVersion());
+            assertEquals(1, mapping.size());
+            assertEquals(ImmutableSet.of("nx-admin"), mapping.getAuthorizationInfo("CN=a,O=Corp,C=US").getRoles());
+            assertEquals(ImmutableSet.of("nx-ci"),
+                    mapping.getAuthorizationInfo("CN=ci-7,OU=Build,O=Corp,C=US").getRoles());
+            assertNull(mapping.getAuthorizationInfo("CN=b,O=Corp,C=US"));
+
+            yamlFile.delete();
+            assertEquals(1, backend.load(4).size());
+        } finally {
+            yamlFile.delete();
+        }
+    }
+}
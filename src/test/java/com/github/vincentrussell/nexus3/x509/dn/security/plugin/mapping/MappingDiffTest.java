@@ -0,0 +1,55 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MappingDiffTest {
+
+    private static final String FIRST = "CN=a,OU=Build,O=Corp,C=US";
+    private static final String SECOND = "CN=b,OU=Build,O=Corp,C=US";
+    private static final String THIRD = "CN=c,OU=Build,O=Corp,C=US";
+
+    @Test
+    public void reportsGainedAndLostRoles() {
+        DnRoleMapping previous = DnRoleMapping.builder()
+                .add("nx-admin", FIRST)
+                .add("nx-deploy", SECOND)
+                .build(1);
+        DnRoleMapping current = DnRoleMapping.builder()
+                .add("nx-admin", FIRST)
+                .add("nx-readonly", SECOND)
+                .add("nx-deploy", THIRD)
+                .build(2);
+        MappingDiff diff = MappingDiff.compute(previous, current);
+        assertEquals(2, diff.getChanges().size());
+        assertEquals(ImmutableSet.of("nx-readonly"), diff.getChanges().get(SECOND).getAdded());
+        assertEquals(ImmutableSet.of("nx-deploy"), diff.getChanges().get(SECOND).getRemoved());
+        assertFalse(diff.affects(FIRST));
+        assertTrue(diff.affects(SECOND));
+        assertTrue(diff.affects(THIRD));
+        assertFalse(diff.isRulesChanged());
+    }
+
+    @Test
+    public void ruleChangesAffectMatchingDnsOnly() {
+        DnRoleMapping previous = DnRoleMapping.builder().build(1);
+        DnRoleMapping current = DnRoleMapping.builder()
+                .addRule("nx-deploy", "*,OU=Build,O=Corp,C=US")
+                .build(2);
+        MappingDiff diff = MappingDiff.compute(previous, current);
+        assertTrue(diff.isRulesChanged());
+        assertTrue(diff.affects(FIRST));
+        assertFalse(diff.affects("CN=a,OU=Test,O=Corp,C=US"));
+    }
+
+    @Test
+    public void identicalMappingsHaveNoDiff() {
+        DnRoleMapping previous = DnRoleMapping.builder().add("nx-admin", FIRST).build(1);
+        DnRoleMapping current = DnRoleMapping.builder().add("nx-admin", FIRST).build(2);
+        assertTrue(MappingDiff.compute(previous, current).isEmpty());
+    }
+}
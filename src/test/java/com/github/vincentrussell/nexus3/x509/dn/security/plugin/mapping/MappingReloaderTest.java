@@ -0,0 +1,133 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.util.FileWatcher;
+import com.google.common.collect.ImmutableSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MappingReloaderTest {
+
+    private static final String BUILD_AGENT = "CN=agent-17,OU=Build,O=Corp,C=US";
+    private static final String OTHER_AGENT = "CN=agent-18,OU=Build,O=Corp,C=US";
+    private static final String EDITED_AGENT = "CN=agent-19,OU=Build,O=Corp,C=US";
+
+    private File mappingFile;
+    private MappingReloader reloader;
+
+    @Before
+    public void writeMappingFile() throws IOException {
+        mappingFile = File.createTempFile("x509-dn-mapping", ".yaml");
+        write(mappingFile, "nx-deploy:\n  - " + BUILD_AGENT + "\n");
+    }
+
+    @After
+    public void closeReloader() {
+        if (reloader != null) {
+            reloader.close();
+        }
+        mappingFile.delete();
+    }
+
+    @Test
+    public void batchIsSavedOnTopOfAnEditMadeBeforeTheSave() throws IOException, InterruptedException {
+        FailingBackend backend = new FailingBackend(new DnRoleMappingLoader(mappingFile));
+        reloader = new MappingReloader(backend, MappingReloader.DEFAULT_POLL_INTERVAL_SECONDS, false);
+        backend.failing = true;
+        reloader.apply(MappingUpdate.builder().add("nx-readonly", OTHER_AGENT).build());
+        awaitSaveAttempts(backend, 1);
+
+        // the edit is not noticed by the file watcher, which is not running, only by the next save
+        write(mappingFile, "nx-deploy:\n  - " + BUILD_AGENT + "\nnx-admin:\n  - " + EDITED_AGENT + "\n");
+        backend.failing = false;
+        reloader.apply(MappingUpdate.builder().add("nx-admin", OTHER_AGENT).build());
+        awaitSaveAttempts(backend, 2);
+
+        DnRoleMapping saved = new DnRoleMappingLoader(mappingFile).load(1);
+        assertEquals(ImmutableSet.of("nx-admin"), saved.getAuthorizationInfo(EDITED_AGENT).getRoles());
+        assertEquals(ImmutableSet.of("nx-readonly", "nx-admin"), saved.getAuthorizationInfo(OTHER_AGENT).getRoles());
+        assertEquals(ImmutableSet.of("nx-admin"), reloader.getMapping().getAuthorizationInfo(EDITED_AGENT).getRoles());
+        assertEquals(ImmutableSet.of("nx-readonly", "nx-admin"),
+                reloader.getMapping().getAuthorizationInfo(OTHER_AGENT).getRoles());
+    }
+
+    @Test
+    public void reloadKeepsABatchThatCouldNotBeSaved() throws IOException, InterruptedException {
+        FailingBackend backend = new FailingBackend(new DnRoleMappingLoader(mappingFile));
+        reloader = new MappingReloader(backend, MappingReloader.DEFAULT_POLL_INTERVAL_SECONDS, false);
+        backend.failing = true;
+        reloader.apply(MappingUpdate.builder().add("nx-readonly", OTHER_AGENT).build());
+        awaitSaveAttempts(backend, 1);
+
+        write(mappingFile, "nx-admin:\n  - " + EDITED_AGENT + "\n");
+        backend.failing = false;
+        assertTrue(reloader.reload());
+        assertEquals(ImmutableSet.of("nx-readonly"), reloader.getMapping().getAuthorizationInfo(OTHER_AGENT).getRoles());
+        assertEquals(ImmutableSet.of("nx-admin"), reloader.getMapping().getAuthorizationInfo(EDITED_AGENT).getRoles());
+        awaitSaveAttempts(backend, 2);
+
+        DnRoleMapping saved = new DnRoleMappingLoader(mappingFile).load(1);
+        assertEquals(ImmutableSet.of("nx-readonly"), saved.getAuthorizationInfo(OTHER_AGENT).getRoles());
+        assertEquals(ImmutableSet.of("nx-admin"), saved.getAuthorizationInfo(EDITED_AGENT).getRoles());
+        assertNull(saved.getAuthorizationInfo(BUILD_AGENT));
+    }
+
+    private static void awaitSaveAttempts(FailingBackend backend, int attempts) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (backend.saveAttempts < attempts && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(attempts, backend.saveAttempts);
+    }
+
+    private static void write(File file, String content) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(content);
+        }
+    }
+
+    private static final class FailingBackend implements MappingBackend {
+        private final MappingBackend delegate;
+        private volatile boolean failing;
+        private volatile int saveAttempts;
+
+        private FailingBackend(MappingBackend delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public DnRoleMapping load(long version) {
+            return delegate.load(version);
+        }
+
+        @Override
+        public List<File> getWatchedFiles() {
+            return delegate.getWatchedFiles();
+        }
+
+        @Override
+        public Map<File, FileWatcher.Fingerprint> save(DnRoleMapping mapping) throws IOException {
+            try {
+                if (failing) {
+                    throw new IOException("disk full");
+                }
+                return delegate.save(mapping);
+            } finally {
+                saveAttempts++;
+            }
+        }
+    }
+}
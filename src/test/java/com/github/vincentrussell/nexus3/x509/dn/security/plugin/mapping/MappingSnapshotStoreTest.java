@@ -0,0 +1,93 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class MappingSnapshotStoreTest {
+
+    private static final byte[] HASH = new byte[32];
+
+    private File snapshotFile;
+    private MappingSnapshotStore store;
+
+    @Before
+    public void createStore() throws IOException {
+        snapshotFile = File.createTempFile("x509-dn-mapping", ".snapshot");
+        store = new MappingSnapshotStore(snapshotFile);
+    }
+
+    @After
+    public void deleteSnapshot() {
+        snapshotFile.delete();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        store.write(DnRoleMapping.builder()
+                .add("nx-admin", "CN=a,O=Corp,C=US")
+                .add("nx-deploy", "CN=a,O=Corp,C=US")
+                .add("nx-deploy", "CN=b,O=Corp,C=US")
+                .add("nx-deploy", "CN=c,O=Corp,C=US")
+                .addRule("nx-readonly", "*,OU=Build,O=Corp,C=US")
+                .build(1), HASH);
+        DnRoleMapping mapping = store.readIfCurrent(HASH, 5);
+        assertEquals(5, mapping.getVersion());
+        assertEquals(3, mapping.size());
+        assertEquals(ImmutableSet.of("nx-admin", "nx-deploy"),
+                ImmutableSet.copyOf(mapping.getAuthorizationInfo("CN=a,O=Corp,C=US").getRoles()));
+        assertSame(mapping.getAuthorizationInfo("CN=b,O=Corp,C=US"), mapping.getAuthorizationInfo("CN=c,O=Corp,C=US"));
+        assertEquals(ImmutableSet.of("nx-readonly"),
+                mapping.getAuthorizationInfo("CN=x,OU=Build,O=Corp,C=US").getRoles());
+    }
+
+    @Test
+    public void declaredRolesRoundTrip() throws IOException {
+        store.write(DnRoleMapping.builder()
+                .addImplication("nx-admin", "nx-deploy")
+                .add("nx-admin", "CN=a,O=Corp,C=US")
+                .add("nx-admin", "CN=b,O=Corp,C=US")
+                .add("nx-deploy", "CN=b,O=Corp,C=US")
+                .build(1), HASH);
+        DnRoleMapping mapping = store.readIfCurrent(HASH, 2);
+        assertEquals(ImmutableSet.of("nx-admin", "nx-deploy"),
+                ImmutableSet.copyOf(mapping.getAuthorizationInfo("CN=a,O=Corp,C=US").getRoles()));
+        assertEquals(ImmutableSet.of("nx-admin"), mapping.getDeclaredRoles("CN=a,O=Corp,C=US"));
+        assertEquals(ImmutableSet.of("nx-admin", "nx-deploy"), mapping.getDeclaredRoles("CN=b,O=Corp,C=US"));
+
+        DnRoleMapping revoked = mapping.apply(MappingUpdate.builder()
+                .remove("nx-admin", "CN=a,O=Corp,C=US")
+                .remove("nx-admin", "CN=b,O=Corp,C=US")
+                .build(), 3);
+        assertNull(revoked.getAuthorizationInfo("CN=a,O=Corp,C=US"));
+        assertEquals(ImmutableSet.of("nx-deploy"),
+                ImmutableSet.copyOf(revoked.getAuthorizationInfo("CN=b,O=Corp,C=US").getRoles()));
+    }
+
+    @Test
+    public void staleSnapshotIsIgnored() throws IOException {
+        store.write(DnRoleMapping.builder().add("nx-admin", "CN=a,O=Corp,C=US").build(1), HASH);
+        byte[] otherHash = new byte[32];
+        otherHash[0] = 1;
+        assertNull(store.readIfCurrent(otherHash, 2));
+    }
+
+    @Test
+    public void corruptSnapshotIsIgnored() throws IOException {
+        store.write(DnRoleMapping.builder().add("nx-admin", "CN=a,O=Corp,C=US").build(1), HASH);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(snapshotFile, "rw")) {
+            randomAccessFile.seek(randomAccessFile.length() - 12);
+            randomAccessFile.write(0x7f);
+        }
+        assertNull(store.readIfCurrent(HASH, 2));
+    }
+}
@@ -0,0 +1,42 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MappingUpdateTest {
+
+    @Test
+    public void dnsAreNormalizedAndRulesKeptAsWritten() {
+        MappingUpdate update = MappingUpdate.builder()
+                .add(" nx-deploy ", "cn=agent-17, ou=Build, o=Corp, c=US")
+                .remove("nx-ci", " CN=ci-*, OU=Build, O=Corp, C=US ")
+                .build();
+        MappingUpdate.Operation grant = update.getOperations().get(0);
+        assertTrue(grant.isAdd());
+        assertFalse(grant.isRule());
+        assertEquals("nx-deploy", grant.getRole());
+        assertEquals(DnNormalizer.canonicalize("CN=agent-17,OU=Build,O=Corp,C=US"), grant.getDn());
+        MappingUpdate.Operation revocation = update.getOperations().get(1);
+        assertFalse(revocation.isAdd());
+        assertTrue(revocation.isRule());
+        assertEquals("CN=ci-*, OU=Build, O=Corp, C=US", revocation.getDn());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void blankRoleIsRejected() {
+        MappingUpdate.builder().add(" ", "CN=agent-17,OU=Build,O=Corp,C=US");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidDnIsRejected() {
+        MappingUpdate.builder().add("nx-deploy", "not a dn");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidRuleIsRejected() {
+        MappingUpdate.builder().add("nx-deploy", "CN=ci-*-*,OU=Build,O=Corp,C=US");
+    }
+}
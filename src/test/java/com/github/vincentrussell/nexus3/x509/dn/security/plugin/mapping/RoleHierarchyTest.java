@@ -0,0 +1,65 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SetMultimap;
+import org.junit.Test;
+
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RoleHierarchyTest {
+
+    @Test
+    public void expandsTransitively() {
+        SetMultimap<String, String> implications = HashMultimap.create();
+        implications.put("ci-admin", "ci-deployer");
+        implications.put("ci-admin", "nx-admin");
+        implications.put("ci-deployer", "nx-deploy");
+        implications.put("nx-deploy", "nx-readonly");
+        RoleHierarchy roleHierarchy = RoleHierarchy.of(implications);
+        assertEquals(ImmutableSet.of("ci-admin", "ci-deployer", "nx-admin", "nx-deploy", "nx-readonly"),
+                roleHierarchy.expand(ImmutableSet.of("ci-admin")));
+        assertEquals(ImmutableSet.of("ci-deployer", "nx-deploy", "nx-readonly", "other"),
+                roleHierarchy.expand(ImmutableSet.of("ci-deployer", "other")));
+    }
+
+    @Test
+    public void closedSetsAreReturnedAsIs() {
+        SetMultimap<String, String> implications = HashMultimap.create();
+        implications.put("ci-deployer", "nx-deploy");
+        RoleHierarchy roleHierarchy = RoleHierarchy.of(implications);
+        Set<String> roles = ImmutableSet.of("ci-deployer", "nx-deploy");
+        assertSame(roles, roleHierarchy.expand(roles));
+        Set<String> unrelated = ImmutableSet.of("nx-readonly");
+        assertSame(unrelated, roleHierarchy.expand(unrelated));
+    }
+
+    @Test
+    public void reduceKeepsOnlyRolesNotImpliedByOthers() {
+        SetMultimap<String, String> implications = HashMultimap.create();
+        implications.put("ci-deployer", "nx-deploy");
+        implications.put("nx-deploy", "nx-readonly");
+        RoleHierarchy roleHierarchy = RoleHierarchy.of(implications);
+        assertEquals(ImmutableSet.of("ci-deployer", "other"),
+                roleHierarchy.reduce(ImmutableSet.of("ci-deployer", "nx-deploy", "nx-readonly", "other")));
+    }
+
+    @Test
+    public void cyclesAreRejected() {
+        SetMultimap<String, String> implications = HashMultimap.create();
+        implications.put("a", "b");
+        implications.put("b", "c");
+        implications.put("c", "a");
+        try {
+            RoleHierarchy.of(implications);
+            fail("the cycle should have been rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("role cycle: "));
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping;
+
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.util.FileWatcher;
+import com.google.common.collect.ImmutableSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SharedDirectoryMappingBackendTest {
+
+    private static final String BUILD_AGENT = "CN=agent-17,OU=Build,O=Corp,C=US";
+    private static final String OTHER_AGENT = "CN=agent-18,OU=Build,O=Corp,C=US";
+
+    private File directory;
+    private File localFile;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("x509-dn-shared").toFile();
+        localFile = File.createTempFile("x509-dn-mapping", ".yaml");
+        write(localFile, "nx-deploy:\n  - " + BUILD_AGENT + "\n");
+    }
+
+    @After
+    public void deleteDirectory() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+        localFile.delete();
+    }
+
+    @Test
+    public void localFileIsImportedIntoAnEmptyDirectory() throws IOException {
+        SharedDirectoryMappingBackend backend = new SharedDirectoryMappingBackend(directory, localFile, 0, 10);
+        DnRoleMapping mapping = backend.load(1);
+        assertEquals(ImmutableSet.of("nx-deploy"), mapping.getAuthorizationInfo(BUILD_AGENT).getRoles());
+        SharedMappingVersion current = backend.readCurrent();
+        assertEquals(1, current.getVersion());
+        assertEquals(1, backend.getSharedVersion(mapping).getVersion());
+        assertEquals(current.getContentHash(), backend.getSharedVersion(mapping).getContentHash());
+    }
+
+    @Test
+    public void localChangesArePublishedToOtherNodes() throws IOException {
+        SharedDirectoryMappingBackend first = new SharedDirectoryMappingBackend(directory, localFile, 60000, 10);
+        SharedDirectoryMappingBackend second = new SharedDirectoryMappingBackend(directory, null, 60000, 10);
+        first.load(1);
+        assertNull(second.load(1).getAuthorizationInfo(OTHER_AGENT));
+
+        write(localFile, "nx-deploy:\n  - " + BUILD_AGENT + "\n  - " + OTHER_AGENT + "\n");
+        first.load(2);
+        DnRoleMapping mapping = second.load(2);
+        assertEquals(ImmutableSet.of("nx-deploy"), mapping.getAuthorizationInfo(OTHER_AGENT).getRoles());
+        assertEquals(2, second.getSharedVersion(mapping).getVersion());
+        assertTrue(second.getActivationTimeMillis() > System.currentTimeMillis());
+    }
+
+    @Test
+    public void staleLocalFileDoesNotRollBackTheSharedMapping() throws IOException {
+        new SharedDirectoryMappingBackend(directory, localFile, 0, 10).load(1);
+        File staleFile = File.createTempFile("x509-dn-mapping", ".yaml");
+        try {
+            write(staleFile, "nx-readonly:\n  - " + BUILD_AGENT + "\n");
+            SharedDirectoryMappingBackend stale = new SharedDirectoryMappingBackend(directory, staleFile, 0, 10);
+            DnRoleMapping mapping = stale.load(1);
+            assertEquals(ImmutableSet.of("nx-deploy"), mapping.getAuthorizationInfo(BUILD_AGENT).getRoles());
+            assertEquals(1, stale.readCurrent().getVersion());
+        } finally {
+            staleFile.delete();
+        }
+    }
+
+    @Test
+    public void savingPublishesOnlyNewContentAndPrunesOldVersions() throws IOException {
+        SharedDirectoryMappingBackend backend = new SharedDirectoryMappingBackend(directory, localFile, 0, 2);
+        DnRoleMapping mapping = backend.load(1);
+        for (int i = 2; i <= 4; i++) {
+            mapping = mapping.apply(MappingUpdate.builder().add("nx-role-" + i, BUILD_AGENT).build(), i);
+            backend.save(mapping);
+            assertEquals(i, backend.getSharedVersion(mapping).getVersion());
+        }
+        backend.save(mapping);
+        assertEquals(4, backend.readCurrent().getVersion());
+        assertFalse(new File(directory, "mapping-2.yaml").exists());
+        assertTrue(new File(directory, "mapping-3.yaml").exists());
+        assertTrue(backend.load(5).getAuthorizationInfo(BUILD_AGENT).getRoles().contains("nx-role-4"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void modifiedVersionFileIsRejected() throws IOException {
+        SharedDirectoryMappingBackend backend = new SharedDirectoryMappingBackend(directory, localFile, 0, 10);
+        backend.load(1);
+        write(new File(directory, "mapping-1.yaml"), "nx-admin:\n  - " + BUILD_AGENT + "\n");
+        backend.load(2);
+    }
+
+    @Test
+    public void reloaderSwitchesAtTheActivationTime() throws IOException, InterruptedException {
+        SharedDirectoryMappingBackend publisher = new SharedDirectoryMappingBackend(directory, localFile, 500, 10);
+        publisher.load(1);
+        MappingReloader reloader = new MappingReloader(new SharedDirectoryMappingBackend(directory, null, 500, 10),
+                MappingReloader.DEFAULT_POLL_INTERVAL_SECONDS, false);
+        try {
+            write(localFile, "nx-admin:\n  - " + BUILD_AGENT + "\n");
+            publisher.load(2);
+            assertTrue(reloader.reload());
+            assertEquals(ImmutableSet.of("nx-deploy"), reloader.getMapping().getAuthorizationInfo(BUILD_AGENT).getRoles());
+            long deadline = System.currentTimeMillis() + 5000;
+            while (reloader.getMapping().getAuthorizationInfo(BUILD_AGENT).getRoles().contains("nx-deploy")
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(ImmutableSet.of("nx-admin"), reloader.getMapping().getAuthorizationInfo(BUILD_AGENT).getRoles());
+        } finally {
+            reloader.close();
+        }
+    }
+
+    @Test
+    public void appliedUpdateIsBuiltOnAVersionWaitingForItsActivationTime()
+            throws IOException, InterruptedException {
+        SharedDirectoryMappingBackend publisher = new SharedDirectoryMappingBackend(directory, localFile, 1000, 10);
+        publisher.load(1);
+        SharedDirectoryMappingBackend backend = new SharedDirectoryMappingBackend(directory, null, 1000, 10);
+        MappingReloader reloader = new MappingReloader(backend, MappingReloader.DEFAULT_POLL_INTERVAL_SECONDS, false);
+        try {
+            write(localFile, "nx-admin:\n  - " + BUILD_AGENT + "\n");
+            publisher.load(2);
+            assertTrue(reloader.reload());
+            DnRoleMapping applied = reloader.apply(MappingUpdate.builder().add("nx-readonly", OTHER_AGENT).build());
+            assertEquals(ImmutableSet.of("nx-admin"), applied.getAuthorizationInfo(BUILD_AGENT).getRoles());
+            assertEquals(ImmutableSet.of("nx-deploy"), reloader.getMapping().getAuthorizationInfo(BUILD_AGENT).getRoles());
+            assertNull(reloader.getMapping().getAuthorizationInfo(OTHER_AGENT));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (reloader.getMapping().getAuthorizationInfo(OTHER_AGENT) == null
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(ImmutableSet.of("nx-readonly"), reloader.getMapping().getAuthorizationInfo(OTHER_AGENT).getRoles());
+            assertEquals(ImmutableSet.of("nx-admin"), reloader.getMapping().getAuthorizationInfo(BUILD_AGENT).getRoles());
+            assertTrue(backend.getActivationTimeMillis(reloader.getMapping()) <= System.currentTimeMillis());
+            assertEquals(3, backend.readCurrent().getVersion());
+        } finally {
+            reloader.close();
+        }
+    }
+
+    @Test
+    public void saveOverAVersionPublishedSinceIsRefused() throws IOException {
+        SharedDirectoryMappingBackend first = new SharedDirectoryMappingBackend(directory, localFile, 0, 10);
+        SharedDirectoryMappingBackend second = new SharedDirectoryMappingBackend(directory, null, 0, 10);
+        DnRoleMapping firstMapping = first.load(1);
+        DnRoleMapping secondMapping = second.load(1);
+        first.save(firstMapping.apply(MappingUpdate.builder().add("nx-admin", BUILD_AGENT).build(), 2));
+        try {
+            second.save(secondMapping.apply(MappingUpdate.builder().add("nx-readonly", OTHER_AGENT).build(), 2));
+            fail("saved over version 2");
+        } catch (MappingConflictException expected) {
+            assertEquals(2, second.readCurrent().getVersion());
+        }
+        DnRoleMapping mapping = second.load(3);
+        assertEquals(ImmutableSet.of("nx-deploy", "nx-admin"), mapping.getAuthorizationInfo(BUILD_AGENT).getRoles());
+        second.save(mapping.apply(MappingUpdate.builder().add("nx-readonly", OTHER_AGENT).build(), 4));
+        assertEquals(3, second.readCurrent().getVersion());
+    }
+
+    @Test
+    public void localEditIsMergedIntoVersionsPublishedByOtherNodes() throws IOException {
+        SharedDirectoryMappingBackend first = new SharedDirectoryMappingBackend(directory, localFile, 0, 10);
+        SharedDirectoryMappingBackend second = new SharedDirectoryMappingBackend(directory, null, 0, 10);
+        first.load(1);
+        DnRoleMapping secondMapping = second.load(1);
+        second.save(secondMapping.apply(MappingUpdate.builder().add("nx-readonly", OTHER_AGENT).build(), 2));
+
+        write(localFile, "nx-deploy:\n  - " + BUILD_AGENT + "\nnx-admin:\n  - " + BUILD_AGENT + "\n");
+        DnRoleMapping mapping = first.load(2);
+        assertEquals(ImmutableSet.of("nx-deploy", "nx-admin"), mapping.getAuthorizationInfo(BUILD_AGENT).getRoles());
+        assertEquals(ImmutableSet.of("nx-readonly"), mapping.getAuthorizationInfo(OTHER_AGENT).getRoles());
+
+        write(localFile, "nx-admin:\n  - " + BUILD_AGENT + "\n");
+        mapping = first.load(3);
+        assertEquals(ImmutableSet.of("nx-admin"), mapping.getAuthorizationInfo(BUILD_AGENT).getRoles());
+        assertEquals(ImmutableSet.of("nx-readonly"), mapping.getAuthorizationInfo(OTHER_AGENT).getRoles());
+        assertEquals(4, first.readCurrent().getVersion());
+    }
+
+    @Test
+    public void batchSavedWhileAnotherNodePublishesIsAppliedOnTopOfItsVersion()
+            throws IOException, InterruptedException {
+        final SharedDirectoryMappingBackend other = new SharedDirectoryMappingBackend(directory, localFile, 0, 10);
+        other.load(1);
+        SharedDirectoryMappingBackend backend = new SharedDirectoryMappingBackend(directory, null, 0, 10) {
+            private boolean raced;
+
+            @Override
+            public synchronized Map<File, FileWatcher.Fingerprint> save(DnRoleMapping mapping) throws IOException {
+                if (!raced) {
+                    raced = true;
+                    DnRoleMapping otherMapping = other.load(2);
+                    other.save(otherMapping.apply(MappingUpdate.builder().add("nx-admin", BUILD_AGENT).build(), 3));
+                }
+                return super.save(mapping);
+            }
+        };
+        MappingReloader reloader = new MappingReloader(backend, MappingReloader.DEFAULT_POLL_INTERVAL_SECONDS, false);
+        try {
+            reloader.apply(MappingUpdate.builder().add("nx-readonly", OTHER_AGENT).build());
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!reloader.getMapping().getAuthorizationInfo(BUILD_AGENT).getRoles().contains("nx-admin")
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(ImmutableSet.of("nx-deploy", "nx-admin"),
+                    reloader.getMapping().getAuthorizationInfo(BUILD_AGENT).getRoles());
+            assertEquals(ImmutableSet.of("nx-readonly"), reloader.getMapping().getAuthorizationInfo(OTHER_AGENT).getRoles());
+            assertEquals(3, backend.readCurrent().getVersion());
+            DnRoleMapping shared = other.load(4);
+            assertEquals(ImmutableSet.of("nx-deploy", "nx-admin"), shared.getAuthorizationInfo(BUILD_AGENT).getRoles());
+            assertEquals(ImmutableSet.of("nx-readonly"), shared.getAuthorizationInfo(OTHER_AGENT).getRoles());
+        } finally {
+            reloader.close();
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(content);
+        }
+    }
+}
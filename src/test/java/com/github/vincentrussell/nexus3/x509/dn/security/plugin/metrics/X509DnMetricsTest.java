@@ -0,0 +1,130 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.metrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.DnRoleMappingLoader;
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.MappingReloader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class X509DnMetricsTest {
+
+    private MetricRegistry registry;
+    private X509DnMetrics metrics;
+    private File configFile;
+
+    @Before
+    public void createMetrics() throws IOException {
+        registry = new MetricRegistry();
+        metrics = new X509DnMetrics(registry);
+        configFile = File.createTempFile("x509-dn-mapping", ".yaml");
+    }
+
+    @After
+    public void deleteConfigFile() {
+        configFile.delete();
+    }
+
+    @Test
+    public void authorizationCacheHitRatioCountsComputedRequestsAsMisses() {
+        assertTrue(Double.isNaN((Double) gauge("authorization", "cache-hit-ratio")));
+        for (int i = 0; i < 4; i++) {
+            metrics.authorizationRequested();
+        }
+        metrics.authorizationComputed(TimeUnit.MILLISECONDS.toNanos(1), true);
+        assertEquals(0.75, (Double) gauge("authorization", "cache-hit-ratio"), 0.0001);
+        assertEquals(4, metrics.getAuthorizationRequestCount());
+        assertEquals(1, registry.meter(X509DnMetrics.name("authorization", "anonymous-fallbacks")).getCount());
+        assertEquals(1, registry.timer(X509DnMetrics.name("authorization", "latency")).getCount());
+    }
+
+    @Test
+    public void filterAndReloadTimersAreUpdated() {
+        metrics.filterRequest(TimeUnit.MILLISECONDS.toNanos(2));
+        metrics.reloadSucceeded(TimeUnit.MILLISECONDS.toNanos(5));
+        metrics.reloadFailed();
+        assertEquals(1, registry.timer(X509DnMetrics.name("filter", "latency")).getCount());
+        assertEquals(1, registry.timer(X509DnMetrics.name("mapping", "reload", "duration")).getCount());
+        assertEquals(1, registry.meter(X509DnMetrics.name("mapping", "reload", "failures")).getCount());
+    }
+
+    @Test
+    public void mappingGaugesFollowThePublishedMapping() throws IOException {
+        write("nx-deploy:\n  - CN=agent-17, OU=Build, O=Corp, C=US\n  - CN=agent-18, OU=Build, O=Corp, C=US\n"
+                + "  - '*, OU=Build, O=Corp, C=US'\n");
+        MappingReloader reloader = new MappingReloader(new DnRoleMappingLoader(configFile),
+                MappingReloader.DEFAULT_POLL_INTERVAL_SECONDS, false);
+        try {
+            metrics.registerMapping(reloader);
+            assertEquals(1L, gauge("mapping", "version"));
+            assertEquals(2, gauge("mapping", "dns"));
+            assertEquals(1, gauge("mapping", "rules"));
+
+            write("nx-deploy:\n  - CN=agent-17, OU=Build, O=Corp, C=US\n");
+            assertTrue(reloader.reload());
+            assertEquals(2L, gauge("mapping", "version"));
+            assertEquals(1, gauge("mapping", "dns"));
+            assertEquals(0, gauge("mapping", "rules"));
+        } finally {
+            reloader.close();
+        }
+    }
+
+    @Test
+    public void replaceSwapsARegisteredGauge() {
+        metrics.replace(X509DnMetrics.name("test", "gauge"), constant(1));
+        metrics.replace(X509DnMetrics.name("test", "gauge"), constant(2));
+        assertEquals(2, gauge("test", "gauge"));
+    }
+
+    @Test
+    public void metricsAreExposedThroughJmx() throws MalformedObjectNameException {
+        metrics.replace(X509DnMetrics.name("test", "jmx"), constant(1));
+        registry.counter("outside.the.plugin");
+        Set<String> exposed = new HashSet<>();
+        for (ObjectName objectName : ManagementFactory.getPlatformMBeanServer()
+                .queryNames(new ObjectName(X509DnMetrics.JMX_DOMAIN + ":*"), null)) {
+            exposed.add(objectName.getKeyProperty("name"));
+        }
+        assertTrue(exposed.contains(X509DnMetrics.name("filter", "latency")));
+        assertTrue(exposed.contains(X509DnMetrics.name("test", "jmx")));
+        assertFalse(exposed.contains("outside.the.plugin"));
+    }
+
+    private Object gauge(String... names) {
+        return registry.getGauges().get(X509DnMetrics.name(names)).getValue();
+    }
+
+    private static Gauge<Integer> constant(final int value) {
+        return new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return value;
+            }
+        };
+    }
+
+    private void write(String content) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(configFile), StandardCharsets.UTF_8)) {
+            writer.write(content);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.rest;
+
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.MappingUpdate;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class X509DnMappingResourceTest {
+
+    private static final String BUILD_AGENT = "CN=agent-17,OU=Build,O=Corp,C=US";
+
+    @Test
+    public void validBatchBecomesOneUpdate() {
+        List<String> errors = new ArrayList<>();
+        MappingUpdate update = X509DnMappingResource.toUpdate(batch(
+                new MappingOperationXO(MappingOperationXO.ADD, "nx-deploy", BUILD_AGENT),
+                new MappingOperationXO(MappingOperationXO.REMOVE, "nx-ci", "CN=ci-*,OU=Build,O=Corp,C=US")), 10, errors);
+        assertTrue(errors.isEmpty());
+        assertEquals(2, update.getOperations().size());
+    }
+
+    @Test
+    public void everyInvalidOperationIsReported() {
+        List<String> errors = new ArrayList<>();
+        MappingUpdate update = X509DnMappingResource.toUpdate(batch(
+                new MappingOperationXO("replace", "nx-deploy", BUILD_AGENT),
+                new MappingOperationXO(MappingOperationXO.ADD, "nx-deploy", BUILD_AGENT),
+                new MappingOperationXO(MappingOperationXO.ADD, "", BUILD_AGENT)), 10, errors);
+        assertNull(update);
+        assertEquals(2, errors.size());
+        assertTrue(errors.get(0).startsWith("operations[0]"));
+        assertTrue(errors.get(1).startsWith("operations[2]"));
+    }
+
+    @Test
+    public void oversizedBatchIsRejected() {
+        List<String> errors = new ArrayList<>();
+        MappingOperationXO operation = new MappingOperationXO(MappingOperationXO.ADD, "nx-deploy", BUILD_AGENT);
+        assertNull(X509DnMappingResource.toUpdate(batch(operation, operation, operation), 2, errors));
+        assertEquals(1, errors.size());
+    }
+
+    private static MappingBatchXO batch(MappingOperationXO... operations) {
+        MappingBatchXO batch = new MappingBatchXO();
+        batch.setOperations(Arrays.asList(operations));
+        return batch;
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.revocation;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.security.auth.x500.X500Principal;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CrlRevocationCheckerTest {
+
+    private static final X500Principal ISSUER = new X500Principal("CN=Test CRL CA,O=Test,C=US");
+    private static final BigInteger REVOKED = BigInteger.valueOf(0x1001);
+    private static final BigInteger REVOKED_LARGE = new BigInteger("0123456789ABCDEF0123456789ABCDEF", 16);
+
+    private File crlFile;
+    private List<X509Certificate> issuers;
+    private CrlRevocationChecker checker;
+
+    @Before
+    public void copyCrl() throws IOException, GeneralSecurityException {
+        crlFile = File.createTempFile("x509-dn-test", ".crl");
+        copy("/crl/revoked.crl.pem", crlFile);
+        try (InputStream inputStream = getClass().getResourceAsStream("/crl/ca.pem")) {
+            issuers = ImmutableList.of((X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(inputStream));
+        }
+        checker = new CrlRevocationChecker(ImmutableList.of(crlFile), issuers, true, 30, false);
+    }
+
+    @After
+    public void deleteCrl() {
+        checker.close();
+        crlFile.delete();
+    }
+
+    @Test
+    public void revokedSerialsAreLoaded() {
+        RevocationIndex index = checker.getIndex();
+        assertEquals(1, index.getCrlCount());
+        assertEquals(2, index.size());
+        assertTrue(index.isRevoked(ISSUER, REVOKED));
+        assertTrue(index.isRevoked(ISSUER, REVOKED_LARGE));
+        assertFalse(index.isRevoked(ISSUER, BigInteger.valueOf(0x1002)));
+    }
+
+    @Test
+    public void reloadPublishesNewIndex() throws IOException {
+        copy("/crl/empty.crl.pem", crlFile);
+        assertTrue(checker.reload());
+        assertFalse(checker.getIndex().isRevoked(ISSUER, REVOKED));
+    }
+
+    @Test
+    public void unreadableCrlKeepsPreviousIndex() throws IOException {
+        FileUtils.writeStringToFile(crlFile, "not a crl", "UTF-8");
+        assertFalse(checker.reload());
+        assertTrue(checker.getIndex().isRevoked(ISSUER, REVOKED));
+    }
+
+    @Test
+    public void crlNotSignedByATrustedCaKeepsPreviousIndex() throws IOException {
+        copy("/crl/forged.crl.pem", crlFile);
+        assertFalse(checker.reload());
+        assertTrue(checker.getIndex().isRevoked(ISSUER, REVOKED));
+        assertFalse(checker.getIndex().isRevoked(ISSUER, BigInteger.valueOf(0x2002)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void crlNotSignedByATrustedCaFailsInitialLoad() throws IOException {
+        copy("/crl/forged.crl.pem", crlFile);
+        new CrlRevocationChecker(ImmutableList.of(crlFile), issuers, false, 30, false);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void crlWithoutTrustedCasFailsInitialLoad() {
+        new CrlRevocationChecker(ImmutableList.of(crlFile), ImmutableList.<X509Certificate>of(), false, 30, false);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void missingCrlFileFailsInitialLoad() {
+        new CrlRevocationChecker(ImmutableList.of(new File(crlFile.getPath() + ".missing")), issuers, false, 30, false);
+    }
+
+    private static void copy(String resource, File target) throws IOException {
+        try (InputStream inputStream = CrlRevocationCheckerTest.class.getResourceAsStream(resource);
+             OutputStream outputStream = new FileOutputStream(target)) {
+            IOUtils.copy(inputStream, outputStream);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.revocation;
+
+import org.junit.Test;
+
+import javax.security.auth.x500.X500Principal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RevocationIndexTest {
+
+    private static final X500Principal ISSUER = new X500Principal("CN=Issuing CA,O=Corp,C=US");
+    private static final X500Principal OTHER_ISSUER = new X500Principal("CN=Other CA,O=Corp,C=US");
+    private static final BigInteger LARGE_SERIAL = new BigInteger("0123456789ABCDEF0123456789ABCDEF", 16);
+
+    @Test
+    public void revokedSerialsAreScopedToTheirIssuer() {
+        RevocationIndex index = RevocationIndex.builder()
+                .add(ISSUER, BigInteger.valueOf(42))
+                .add(ISSUER, BigInteger.ZERO)
+                .add(ISSUER, LARGE_SERIAL)
+                .build(false);
+        assertTrue(index.isRevoked(ISSUER, BigInteger.valueOf(42)));
+        assertTrue(index.isRevoked(ISSUER, BigInteger.ZERO));
+        assertTrue(index.isRevoked(ISSUER, LARGE_SERIAL));
+        assertFalse(index.isRevoked(ISSUER, BigInteger.valueOf(43)));
+        assertFalse(index.isRevoked(ISSUER, LARGE_SERIAL.add(BigInteger.ONE)));
+        assertFalse(index.isRevoked(OTHER_ISSUER, BigInteger.valueOf(42)));
+        assertEquals(3, index.size());
+    }
+
+    @Test
+    public void bloomFilterNeverHidesARevokedSerial() {
+        SerialNumberSet.Builder builder = SerialNumberSet.builder();
+        for (long serial = 1; serial <= 50000; serial += 2) {
+            builder.add(serial);
+        }
+        builder.add(Long.MIN_VALUE).add(-7).add(25);
+        SerialNumberSet serials = builder.build(true);
+        assertTrue(serials.hasBloomFilter());
+        assertEquals(25002, serials.size());
+        for (long serial = 1; serial <= 50000; serial++) {
+            assertEquals(serial % 2 == 1, serials.contains(serial));
+        }
+        assertTrue(serials.contains(Long.MIN_VALUE));
+        assertTrue(serials.contains(-7));
+        assertFalse(serials.contains(0));
+    }
+
+    @Test
+    public void largeSerialsAreMatchedOnAllTheirBits() {
+        Random random = new Random(42);
+        List<BigInteger> revoked = new ArrayList<>();
+        SerialNumberSet.Builder builder = SerialNumberSet.builder();
+        for (int i = 0; i < 20000; i++) {
+            BigInteger serial = new BigInteger(64 + random.nextInt(96), random).setBit(63);
+            revoked.add(serial);
+            builder.add(serial);
+        }
+        builder.add(revoked.get(0)).add(LARGE_SERIAL);
+        SerialNumberSet serials = builder.build(true);
+        assertEquals(20001, serials.size());
+        for (BigInteger serial : revoked) {
+            assertTrue(serials.contains(serial));
+        }
+        assertTrue(serials.contains(LARGE_SERIAL));
+        // same low 64 bits and length, so the same hash
+        assertFalse(serials.contains(LARGE_SERIAL.flipBit(100)));
+        for (int i = 0; i < 20000; i++) {
+            assertFalse(serials.contains(new BigInteger(160, random).setBit(159)));
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.github.vincentrussell.nexus3.x509.dn.security.plugin.api.ExtendedX509
 import com.google.common.collect.Lists;
 import org.apache.shiro.authc.AuthenticationToken;
 import org.apache.shiro.mgt.RealmSecurityManager;
+import org.apache.shiro.subject.SimplePrincipalCollection;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -20,8 +21,11 @@ import org.springframework.mock.web.MockHttpServletResponse;
 
 import javax.security.auth.x500.X500Principal;
 import javax.servlet.FilterChain;
+import java.security.cert.X509Certificate;
 
 import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.x509;
@@ -57,6 +61,32 @@ public class ExtendedX509AuthenticationFilterTest {
     }
 
 
+    @Test
+    public void trustedProxyWithoutAUsableHeaderIsAnonymous() throws Exception {
+        System.setProperty(ExtendedX509AuthenticationFilter.PROXY_HEADER, "X-SSL-Client-Cert");
+        System.setProperty(ExtendedX509AuthenticationFilter.PROXY_TRUSTED_ADDRESSES, "127.0.0.1");
+        try {
+            ExtendedX509AuthenticationFilter filter = new ExtendedX509AuthenticationFilter(realmSecurityManager);
+            String anonymousDn = X509DnAuthenticatingRealm.DEFAULT_ANONYMOUS_CERT.getSubjectX500Principal().getName();
+            // the container presents the proxy's own certificate
+            MockHttpServletRequest request = x509("keystore.cer").postProcessRequest(new MockHttpServletRequest());
+            assertEquals(anonymousDn, ((X500Principal) filter.createToken(request, mockHttpServletResponse).getPrincipal()).getName());
+            assertEquals(anonymousDn, ((X500Principal) filter.createToken(request, mockHttpServletResponse).getPrincipal()).getName());
+
+            MockHttpServletRequest badHeader = x509("keystore.cer").postProcessRequest(new MockHttpServletRequest());
+            badHeader.addHeader("X-SSL-Client-Cert", "not a certificate");
+            assertEquals(anonymousDn, ((X500Principal) filter.createToken(badHeader, mockHttpServletResponse).getPrincipal()).getName());
+
+            MockHttpServletRequest direct = x509("keystore.cer").postProcessRequest(new MockHttpServletRequest());
+            direct.setRemoteAddr("192.168.1.20");
+            assertEquals("CN=Firstname Lastname,OU=Unknown,O=Unknown,L=Annapolis Junction,ST=MD,C=US",
+                    ((X500Principal) filter.createToken(direct, mockHttpServletResponse).getPrincipal()).getName());
+        } finally {
+            System.clearProperty(ExtendedX509AuthenticationFilter.PROXY_HEADER);
+            System.clearProperty(ExtendedX509AuthenticationFilter.PROXY_TRUSTED_ADDRESSES);
+        }
+    }
+
     @Test
     public void doFilterInternalWithX509RealmPresent() throws Exception {
         Objenesis objenesis = new ObjenesisStd();
@@ -83,7 +113,30 @@ public class ExtendedX509AuthenticationFilterTest {
         PowerMockito.verifyPrivate(child).invoke("skipThisFilterAndContinueOnChain" , mockHttpServletRequest, mockHttpServletResponse, filterChain);
     }
 
+    @Test
+    public void revokedCertificateIsNotAcceptedFromTheSessionCache() throws Exception {
+        X509DnAuthenticatingRealm realm = mock(X509DnAuthenticatingRealm.class);
+        when(realm.getMappingVersion()).thenReturn(1L);
+        when(realmSecurityManager.getRealms()).thenReturn(Lists.newArrayList(realm));
+        MockHttpServletRequest request = x509("keystore.cer").postProcessRequest(mockHttpServletRequest);
+        request.setAttribute(TlsSessionLoginCache.SSL_SESSION_ID, "abcdef");
+        FilterChain filterChain = mock(FilterChain.class);
+        extendedX509AuthenticationFilter.setSessionCacheEnabled(true);
+        ExtendedX509AuthenticationFilter child = PowerMockito.spy(extendedX509AuthenticationFilter);
+        PowerMockito.doNothing().when(child, "filterInternalForX509Realm", eq(request), eq(mockHttpServletResponse), eq(filterChain));
+        PowerMockito.doReturn(false).when(child, "executeLogin", request, mockHttpServletResponse);
+        child.doFilterInternal(request, mockHttpServletResponse, filterChain);
 
+        TlsSessionLoginCache sessionCache = child.getTlsSessionLoginCache();
+        X509Certificate[] chain = (X509Certificate[]) request.getAttribute("javax.servlet.request.X509Certificate");
+        String sessionKey = sessionCache.getKey(request, chain);
+        sessionCache.put(sessionKey, 1L, new SimplePrincipalCollection("CN=test", "X509DnAuthenticatingRealm"));
+        // a revoked leaf certificate, or a chain that no longer validates
+        when(realm.isTrusted(chain)).thenReturn(false);
 
+        assertFalse(child.onAccessDenied(request, mockHttpServletResponse));
+        PowerMockito.verifyPrivate(child).invoke("executeLogin", request, mockHttpServletResponse);
+        assertNull(sessionCache.get(sessionKey, 1L));
+    }
 
 }
@@ -0,0 +1,110 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.servlet;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ForwardedClientCertificatesTest {
+
+    private static final String HEADER = "X-SSL-Client-Cert";
+
+    private String pem;
+    private ForwardedClientCertificates forwardedClientCertificates;
+
+    @Before
+    public void readPem() throws IOException {
+        try (InputStream inputStream = getClass().getResourceAsStream("/trust/client-chain.pem")) {
+            pem = IOUtils.toString(inputStream, "UTF-8");
+        }
+        forwardedClientCertificates = new ForwardedClientCertificates(HEADER,
+                TrustedProxies.parse("10.0.0.0/8, 192.168.1.10"), 100);
+    }
+
+    @Test
+    public void pemWithAndWithoutLineBreaksIsParsed() throws CertificateException {
+        X509Certificate[] chain = ForwardedClientCertificates.parse(pem);
+        assertEquals(2, chain.length);
+        assertEquals("CN=client, O=Test, C=US", chain[0].getSubjectX500Principal().toString());
+        assertArrayEquals(chain, ForwardedClientCertificates.parse(pem.replace('\n', ' ')));
+        assertArrayEquals(chain, ForwardedClientCertificates.parse(pem.replace("\n", "\n\t")));
+    }
+
+    @Test
+    public void urlEncodedPemIsParsed() throws Exception {
+        assertArrayEquals(ForwardedClientCertificates.parse(pem),
+                ForwardedClientCertificates.parse(URLEncoder.encode(pem, "UTF-8")));
+    }
+
+    @Test
+    public void base64DerIsParsed() throws CertificateException {
+        X509Certificate leaf = ForwardedClientCertificates.parse(pem)[0];
+        X509Certificate[] chain = ForwardedClientCertificates.parse(Base64.getEncoder().encodeToString(leaf.getEncoded()));
+        assertArrayEquals(new X509Certificate[]{leaf}, chain);
+    }
+
+    @Test
+    public void headerFromTrustedProxyIsUsedAndCached() {
+        MockHttpServletRequest request = request("10.1.2.3");
+        assertTrue(forwardedClientCertificates.isFromTrustedProxy(request));
+        X509Certificate[] chain = forwardedClientCertificates.getChain(request);
+        assertEquals(2, chain.length);
+        assertEquals(1, forwardedClientCertificates.size());
+        assertArrayEquals(chain, forwardedClientCertificates.getChain(request("192.168.1.10")));
+        assertEquals(1, forwardedClientCertificates.size());
+    }
+
+    @Test
+    public void headerFromUntrustedAddressIsIgnored() {
+        assertFalse(forwardedClientCertificates.isFromTrustedProxy(request("192.168.1.11")));
+        assertNull(forwardedClientCertificates.getChain(request("192.168.1.11")));
+        assertEquals(0, forwardedClientCertificates.size());
+    }
+
+    @Test
+    public void unparseableHeaderIsIgnored() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("10.1.2.3");
+        request.addHeader(HEADER, "not a certificate");
+        assertNull(forwardedClientCertificates.getChain(request));
+    }
+
+    @Test
+    public void trustedProxiesMatchAddressesAndBlocks() {
+        TrustedProxies trustedProxies = TrustedProxies.parse("10.0.0.0/8, 172.16.0.0/12, 127.0.0.1, fd00::/8");
+        assertTrue(trustedProxies.contains("10.255.0.1"));
+        assertTrue(trustedProxies.contains("172.31.255.255"));
+        assertFalse(trustedProxies.contains("172.32.0.1"));
+        assertTrue(trustedProxies.contains("127.0.0.1"));
+        assertFalse(trustedProxies.contains("127.0.0.2"));
+        assertTrue(trustedProxies.contains("fd12::1"));
+        assertFalse(trustedProxies.contains("fe80::1"));
+        assertFalse(trustedProxies.contains("proxy.example.com"));
+        assertFalse(TrustedProxies.parse(null).contains("127.0.0.1"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void invalidTrustedProxyIsRejected() {
+        TrustedProxies.parse("10.0.0.0/33");
+    }
+
+    private MockHttpServletRequest request(String remoteAddress) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr(remoteAddress);
+        request.addHeader(HEADER, pem.replace('\n', ' '));
+        return request;
+    }
+}
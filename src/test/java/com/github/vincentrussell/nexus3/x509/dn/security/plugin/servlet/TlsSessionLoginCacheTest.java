@@ -0,0 +1,53 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.servlet;
+
+import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.io.InputStream;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TlsSessionLoginCacheTest {
+
+    private final PrincipalCollection principals = new SimplePrincipalCollection("CN=test", "X509DnAuthenticatingRealm");
+
+    @Test
+    public void keyRequiresTlsSession() throws Exception {
+        TlsSessionLoginCache cache = new TlsSessionLoginCache(10, 60);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        X509Certificate[] chain = new X509Certificate[]{getCertificate()};
+        assertNull(cache.getKey(request, chain));
+        request.setAttribute(TlsSessionLoginCache.SSL_SESSION_ID, "abcdef");
+        String key = cache.getKey(request, chain);
+        assertNotNull(key);
+        assertTrue(key.startsWith("abcdef:"));
+    }
+
+    @Test
+    public void remembersPrincipalsForSameMappingVersion() {
+        TlsSessionLoginCache cache = new TlsSessionLoginCache(10, 60);
+        cache.put("session", 1, principals);
+        assertEquals(principals, cache.get("session", 1));
+    }
+
+    @Test
+    public void mappingChangeInvalidates() {
+        TlsSessionLoginCache cache = new TlsSessionLoginCache(10, 60);
+        cache.put("session", 1, principals);
+        assertNull(cache.get("session", 2));
+        assertEquals(0, cache.size());
+    }
+
+    private X509Certificate getCertificate() throws Exception {
+        try (InputStream inputStream = getClass().getResourceAsStream("/keystore.cer")) {
+            return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(inputStream);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.trust;
+
+import com.google.common.collect.ImmutableSet;
+import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.authz.SimpleAuthorizationInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ChainValidatorTest {
+
+    private static final String ISSUING_CA = "CN=Test Issuing CA,O=Test,C=US";
+
+    private File configFile;
+    private ChainValidator validator;
+
+    @Before
+    public void createValidator() throws IOException {
+        configFile = File.createTempFile("x509-dn-trust", ".yaml");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(configFile), StandardCharsets.UTF_8)) {
+            writer.write("trustStore: " + new File(getClass().getResource("/trust/truststore.jks").getFile()).getAbsolutePath() + "\n");
+            writer.write("trustStorePassword: password\n");
+            writer.write("pinnedIssuers:\n");
+            writer.write("    nx-deploy:\n");
+            writer.write("        - CN=Test Issuing CA, O=Test, C=US\n");
+            writer.write("    nx-admin:\n");
+            writer.write("        - CN=Admin CA, O=Test, C=US\n");
+        }
+        validator = new ChainValidator(TrustConfig.load(configFile));
+    }
+
+    @After
+    public void deleteConfig() {
+        configFile.delete();
+    }
+
+    @Test
+    public void trustedChainIsValidatedOnce() throws Exception {
+        ChainValidation validation = validator.validate(readChain("/trust/client-chain.pem"));
+        assertTrue(validation.getReason(), validation.isValid());
+        assertEquals(ImmutableSet.of(ISSUING_CA), validation.getIssuerDns());
+        assertSame(validation, validator.validate(readChain("/trust/client-chain.pem")));
+        assertEquals(1, validator.size());
+    }
+
+    @Test
+    public void leafWithoutItsCaIsValidated() throws Exception {
+        X509Certificate[] chain = readChain("/trust/client-chain.pem");
+        assertTrue(validator.validate(new X509Certificate[]{chain[0]}).isValid());
+    }
+
+    @Test
+    public void chainFromAnotherCaIsRejected() throws Exception {
+        ChainValidation validation = validator.validate(readChain("/trust/stranger-chain.pem"));
+        assertFalse(validation.isValid());
+        assertTrue(validation.getIssuerDns().isEmpty());
+    }
+
+    @Test
+    public void pinnedRolesRequireTheirIssuer() {
+        TrustConfig trustConfig = validator.getTrustConfig();
+        AuthorizationInfo authorizationInfo = new SimpleAuthorizationInfo(
+                ImmutableSet.of("nx-readonly", "nx-deploy", "nx-admin"));
+        assertEquals(ImmutableSet.of("nx-readonly", "nx-deploy"), ImmutableSet.copyOf(
+                trustConfig.restrict(authorizationInfo, ImmutableSet.of(ISSUING_CA)).getRoles()));
+        assertEquals(ImmutableSet.of("nx-readonly"), ImmutableSet.copyOf(
+                trustConfig.restrict(authorizationInfo, ImmutableSet.<String>of()).getRoles()));
+        AuthorizationInfo unpinned = new SimpleAuthorizationInfo(ImmutableSet.of("nx-readonly"));
+        assertSame(unpinned, trustConfig.restrict(unpinned, ImmutableSet.<String>of()));
+        assertNull(trustConfig.restrict(new SimpleAuthorizationInfo(ImmutableSet.of("nx-admin")),
+                ImmutableSet.of(ISSUING_CA)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void missingTrustStoreIsRejected() throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(configFile), StandardCharsets.UTF_8)) {
+            writer.write("trustStore: does-not-exist.jks\n");
+        }
+        new ChainValidator(TrustConfig.load(configFile));
+    }
+
+    private static X509Certificate[] readChain(String resource) throws IOException, CertificateException {
+        try (InputStream inputStream = ChainValidatorTest.class.getResourceAsStream(resource)) {
+            return CertificateFactory.getInstance("X.509").generateCertificates(inputStream)
+                    .toArray(new X509Certificate[0]);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.users;
+
+import com.github.vincentrussell.nexus3.x509.dn.security.plugin.mapping.DnRoleMapping;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class DnUserIndexTest {
+
+    private static final String ALICE = "CN=alice,OU=Dev,O=Corp,C=US";
+    private static final String BOB = "CN=bob,OU=Dev,O=Corp,C=US";
+    private static final String CI = "CN=ci-42,OU=Build,O=Corp,C=US";
+    private static final String OPS = "CN=ops,OU=Ops,O=Corp,C=US";
+
+    private final DnUserIndex index = new DnUserIndex(DnRoleMapping.builder()
+            .add("nx-dev", ALICE)
+            .add("nx-dev", BOB)
+            .add("nx-admin", BOB)
+            .add("nx-deploy", CI)
+            .add("nx-admin", OPS)
+            .addRule("nx-deploy", "*,OU=Build,O=Corp,C=US")
+            .build(1));
+
+    @Test
+    public void listsExactEntriesInSortedPages() {
+        assertEquals(4, index.size());
+        DnUserIndex.Page first = index.search(null, DnUserIndex.Match.PREFIX, null, 0, 3);
+        assertEquals(ImmutableList.of(ALICE, BOB, CI), first.getDns());
+        assertEquals(4, first.getTotal());
+        assertEquals(ImmutableList.of(OPS), index.search("", DnUserIndex.Match.PREFIX, null, 3, 3).getDns());
+        assertEquals(Collections.emptyList(), index.search(null, DnUserIndex.Match.PREFIX, null, 10, 3).getDns());
+    }
+
+    @Test
+    public void prefixSearchIsCaseInsensitive() {
+        DnUserIndex.Page page = index.search("cn=B", DnUserIndex.Match.PREFIX, null, 0, 10);
+        assertEquals(ImmutableList.of(BOB), page.getDns());
+        assertEquals(0, index.search("CN=zed", DnUserIndex.Match.PREFIX, null, 0, 10).getTotal());
+    }
+
+    @Test
+    public void substringSearchUsesTrigramsAndShortQueries() {
+        assertEquals(ImmutableList.of(ALICE, BOB), index.search("ou=dev", DnUserIndex.Match.SUBSTRING, null, 0, 10).getDns());
+        assertEquals(ImmutableList.of(CI), index.search("-4", DnUserIndex.Match.SUBSTRING, null, 0, 10).getDns());
+        assertEquals(0, index.search("ou=devx", DnUserIndex.Match.SUBSTRING, null, 0, 10).getTotal());
+    }
+
+    @Test
+    public void roleSearchUnionsRolesAndCombinesWithText() {
+        assertEquals(ImmutableList.of(BOB, OPS),
+                index.search(null, DnUserIndex.Match.PREFIX, ImmutableSet.of("nx-admin"), 0, 10).getDns());
+        assertEquals(ImmutableList.of(ALICE, BOB, OPS),
+                index.search(null, DnUserIndex.Match.PREFIX, ImmutableSet.of("nx-admin", "nx-dev"), 0, 10).getDns());
+        assertEquals(ImmutableList.of(BOB),
+                index.search("CN=b", DnUserIndex.Match.PREFIX, ImmutableSet.of("nx-admin"), 0, 10).getDns());
+        assertEquals(ImmutableList.of(OPS),
+                index.search("ops", DnUserIndex.Match.SUBSTRING, ImmutableSet.of("nx-admin"), 0, 10).getDns());
+        assertEquals(0, index.search(null, DnUserIndex.Match.PREFIX, ImmutableSet.of("nx-unknown"), 0, 10).getTotal());
+    }
+}
@@ -0,0 +1,81 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FileWatcherTest {
+
+    private File file;
+    private File temporaryFile;
+    private CountDownLatch changes;
+    private FileWatcher fileWatcher;
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("x509-dn-watched", ".yaml");
+        temporaryFile = new File(file.getPath() + ".tmp");
+        write(file, "nx-deploy: []\n");
+        changes = new CountDownLatch(1);
+        fileWatcher = new FileWatcher("test", ImmutableList.of(file), 20, false, new Runnable() {
+            @Override
+            public void run() {
+                changes.countDown();
+            }
+        });
+    }
+
+    @After
+    public void deleteFile() {
+        fileWatcher.close();
+        file.delete();
+        temporaryFile.delete();
+    }
+
+    @Test
+    public void acceptedContentDoesNotFireTheCallback() throws Exception {
+        fileWatcher.accept(ImmutableMap.of(file, replace("nx-admin: []\n")));
+        fileWatcher.start();
+        assertFalse(changes.await(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void changeMadeBySomeoneElseWhileSavingIsNoticed() throws Exception {
+        FileWatcher.Fingerprint written = replace("nx-admin: []\n");
+        write(file, "nx-readonly: []\n");
+        assertTrue(file.setLastModified(file.lastModified() + 2000));
+        fileWatcher.accept(ImmutableMap.of(file, written));
+        fileWatcher.start();
+        assertTrue(changes.await(5, TimeUnit.SECONDS));
+    }
+
+    private FileWatcher.Fingerprint replace(String content) throws IOException {
+        write(temporaryFile, content);
+        FileWatcher.Fingerprint written = FileWatcher.Fingerprint.of(temporaryFile);
+        Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return written;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(content);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.github.vincentrussell.nexus3.x509.dn.security.plugin.util;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TunableCacheTest {
+
+    @Test
+    public void behavesLikeAShiroCache() {
+        TunableCache<String, String> cache = new TunableCache<>("test", 10, 0);
+        assertNull(cache.put("a", "1"));
+        assertEquals("1", cache.put("a", "2"));
+        cache.put("b", "3");
+        assertEquals("2", cache.get("a"));
+        assertNull(cache.get(null));
+        assertEquals(ImmutableSet.of("a", "b"), cache.keys());
+        assertEquals("3", cache.remove("b"));
+        assertEquals(1, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void reconfiguringKeepsEntriesThatFit() {
+        TunableCache<String, String> cache = new TunableCache<>("test", 10, 0);
+        for (int i = 0; i < 5; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+        cache.configure(100, 60);
+        assertEquals(100, cache.getMaximumSize());
+        assertEquals(60, cache.getTtlSeconds());
+        assertEquals(5, cache.size());
+        assertEquals("value3", cache.get("key3"));
+
+        cache.configure(2, 60);
+        assertEquals(2, cache.size());
+    }
+}